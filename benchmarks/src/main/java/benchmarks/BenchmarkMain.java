@@ -0,0 +1,29 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of benchmarks.jar: runs JMH with the given command line, writing the results
+ * as JSON to jmh-result.json unless a result format (-rf) or file (-rff) is given.
+ * The SIMD kernels are measured by passing -jvmArgsAppend "--add-modules=jdk.incubator.vector",
+ * and the engine's other system properties (lae.executor, lae.simd) can be passed the same way.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>();
+        List<String> given = Arrays.asList(args);
+        if (!given.contains("-rf")) {
+            options.add("-rf");
+            options.add("json");
+        }
+        if (!given.contains("-rff")) {
+            options.add("-rff");
+            options.add("jmh-result.json");
+        }
+        options.addAll(given);
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+/**
+ * Synthetic inputs shared by the benchmarks. Every generator is seeded, so runs are comparable.
+ */
+final class Data {
+
+    private Data() {}
+
+    static double[] vector(int length, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextDouble(-1, 1);
+        }
+        return values;
+    }
+
+    static double[][] matrix(int rows, int cols, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        double[][] values = new double[rows][cols];
+        for (double[] row : values) {
+            for (int j = 0; j < cols; j++) {
+                row[j] = random.nextDouble(-1, 1);
+            }
+        }
+        return values;
+    }
+
+    static ComputationNode leaf(int rows, int cols, long seed) {
+        return new ComputationNode(matrix(rows, cols, seed));
+    }
+
+    static ComputationNode node(ComputationNodeType type, ComputationNode... children) {
+        return new ComputationNode(type, new ArrayList<>(List.of(children)));
+    }
+
+    /**
+     * A chain of depth operations on size x size matrices, each level depending on the one below:
+     * -(T(previous) + M) and previous * M in turn, so nothing can run in parallel across levels.
+     */
+    static ComputationNode deepChain(int depth, int size) {
+        ComputationNode current = leaf(size, size, 0);
+        for (int level = 1; level <= depth; level++) {
+            ComputationNode other = leaf(size, size, level);
+            if (level % 2 == 0) {
+                current = node(ComputationNodeType.MULTIPLY, current, other);
+            } else {
+                current = node(ComputationNodeType.NEGATE,
+                        node(ComputationNodeType.ADD, node(ComputationNodeType.TRANSPOSE, current), other));
+            }
+        }
+        return current;
+    }
+
+    /**
+     * A single sum of width size x size operands.
+     */
+    static ComputationNode wideSum(int width, int size) {
+        ComputationNode[] operands = new ComputationNode[width];
+        for (int i = 0; i < width; i++) {
+            operands[i] = leaf(size, size, i);
+        }
+        return node(ComputationNodeType.ADD, operands);
+    }
+
+    /**
+     * One size x size by size x size product.
+     */
+    static ComputationNode largeMultiply(int size) {
+        return node(ComputationNodeType.MULTIPLY, leaf(size, size, 1), leaf(size, size, 2));
+    }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import parser.ComputationNode;
+import spl.lae.LinearAlgebraEngine;
+
+/**
+ * LinearAlgebraEngine.run end to end on generated trees. The engine works in place and shuts its executor down,
+ * so every invocation gets a fresh tree and engine, built outside the measured time.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class EngineBenchmark {
+
+    @Param({"deepChain", "wideSum", "largeMultiply"})
+    public String tree;
+
+    @Param({"1", "4", "16"})
+    public int threads;
+
+    private ComputationNode root;
+    private LinearAlgebraEngine engine;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        switch (tree) {
+            case "deepChain":
+                root = Data.deepChain(200, 128);
+                break;
+            case "wideSum":
+                root = Data.wideSum(64, 512);
+                break;
+            case "largeMultiply":
+                root = Data.largeMultiply(1024);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown tree: " + tree);
+        }
+        engine = new LinearAlgebraEngine(threads);
+    }
+
+    @Benchmark
+    public ComputationNode run() {
+        return engine.run(root);
+    }
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import scheduling.TaskExecutor;
+import scheduling.TiredExecutor;
+import scheduling.WorkStealingExecutor;
+
+/**
+ * Dispatch throughput of submitAll, in tasks per second, by worker count and task size.
+ * With work = 0 the tasks are empty and the score is the executor's own overhead per task.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutorBenchmark {
+
+    private static final int TASKS = 4096; // tasks per submitAll call
+
+    @Param({"tired", "stealing"})
+    public String executor;
+
+    @Param({"1", "2", "4", "8", "16", "32", "64"})
+    public int threads;
+
+    @Param({"0", "100", "10000"})
+    public long work; // Blackhole.consumeCPU tokens burnt by each task
+
+    private TaskExecutor pool;
+    private List<Runnable> tasks;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = executor.equals("stealing") ? new WorkStealingExecutor(threads) : new TiredExecutor(threads);
+        tasks = new ArrayList<>(TASKS);
+        long tokens = work;
+        for (int i = 0; i < TASKS; i++) {
+            tasks.add(() -> Blackhole.consumeCPU(tokens));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void submitAll() {
+        pool.submitAll(tasks);
+    }
+}
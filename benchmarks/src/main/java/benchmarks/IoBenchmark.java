@@ -0,0 +1,116 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import memory.SharedMatrix;
+import parser.ComputationNode;
+import parser.InputParser;
+import parser.OutputWriter;
+
+/**
+ * Parsing synthetic input files and writing results, as JSON and in the binary .lam format.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class IoBenchmark {
+
+    @Param({"64", "512", "1024"})
+    public int size;
+
+    private Path directory;
+    private String jsonInput;
+    private String binaryInput;
+    private SharedMatrix result;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("lga-io-bench");
+        double[][] left = Data.matrix(size, size, 1);
+        double[][] right = Data.matrix(size, size, 2);
+        result = new SharedMatrix(left);
+        jsonInput = directory.resolve("input.json").toString();
+        try (var out = Files.newBufferedWriter(Path.of(jsonInput))) {
+            out.write("{\"operator\": \"+\", \"operands\": [");
+            writeArray(out, left);
+            out.write(", ");
+            writeArray(out, right);
+            out.write("]}");
+        }
+        OutputWriter.write(new SharedMatrix(right), directory.resolve("right.lam").toString());
+        binaryInput = directory.resolve("binary.json").toString();
+        Files.writeString(Path.of(binaryInput), "{\"operator\": \"-\", \"operands\": [{\"file\": \"right.lam\"}]}");
+    }
+
+    private static void writeArray(java.io.Writer out, double[][] matrix) throws IOException {
+        out.write('[');
+        for (int i = 0; i < matrix.length; i++) {
+            out.write(i == 0 ? "[" : ", [");
+            for (int j = 0; j < matrix[i].length; j++) {
+                if (j > 0) {
+                    out.write(", ");
+                }
+                out.write(Double.toString(matrix[i][j]));
+            }
+            out.write(']');
+        }
+        out.write(']');
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public ComputationNode parseJson() throws ParseException {
+        return new InputParser().parse(jsonInput);
+    }
+
+    @Benchmark
+    public ComputationNode parseBinary() throws ParseException {
+        return new InputParser().parse(binaryInput);
+    }
+
+    @Benchmark
+    public void writeJson() throws IOException {
+        OutputWriter.write(result, directory.resolve("result.json").toString());
+    }
+
+    @Benchmark
+    public void writeJsonGzip() throws IOException {
+        OutputWriter.write(result, directory.resolve("result.json.gz").toString());
+    }
+
+    @Benchmark
+    public void writeBinary() throws IOException {
+        OutputWriter.write(result, directory.resolve("result.lam").toString());
+    }
+}
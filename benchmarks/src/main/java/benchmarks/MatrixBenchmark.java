@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import memory.SharedMatrix;
+import memory.VectorOrientation;
+
+/**
+ * Loading arrays into SharedMatrix and reading them back, for square matrices in both storage orientations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatrixBenchmark {
+
+    @Param({"64", "512", "2048"})
+    public int size;
+
+    @Param({"ROW_MAJOR", "COLUMN_MAJOR"})
+    public VectorOrientation orientation;
+
+    private double[][] values;
+    private SharedMatrix loaded;
+
+    @Setup
+    public void setUp() {
+        values = Data.matrix(size, size, 1);
+        loaded = load(new SharedMatrix());
+    }
+
+    private SharedMatrix load(SharedMatrix matrix) {
+        if (orientation == VectorOrientation.ROW_MAJOR) {
+            matrix.loadRowMajor(values);
+        } else {
+            matrix.loadColumnMajor(values);
+        }
+        return matrix;
+    }
+
+    @Benchmark
+    public SharedMatrix load() {
+        return load(new SharedMatrix());
+    }
+
+    @Benchmark
+    public double[][] readRowMajor() {
+        return loaded.readRowMajor();
+    }
+}
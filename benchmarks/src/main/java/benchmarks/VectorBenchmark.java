@@ -0,0 +1,97 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import memory.SharedMatrix;
+import memory.SharedVector;
+import memory.VectorOrientation;
+
+/**
+ * SharedVector's element-wise operations and products, including the cost of their locks, across vector lengths.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VectorBenchmark {
+
+    @Param({"16", "256", "4096", "65536", "1048576"})
+    public int length;
+
+    private SharedVector row;
+    private SharedVector other;
+    private SharedVector column;
+
+    @Setup
+    public void setUp() {
+        row = new SharedVector(Data.vector(length, 1), VectorOrientation.ROW_MAJOR);
+        other = new SharedVector(Data.vector(length, 2), VectorOrientation.ROW_MAJOR);
+        column = new SharedVector(Data.vector(length, 3), VectorOrientation.COLUMN_MAJOR);
+    }
+
+    @Benchmark
+    public SharedVector add() {
+        row.add(other);
+        return row;
+    }
+
+    @Benchmark
+    public SharedVector negate() {
+        row.negate();
+        return row;
+    }
+
+    @Benchmark
+    public double dot() {
+        return row.dot(column);
+    }
+
+    /**
+     * vecMatMul against a square matrix, so the vector keeps its length from one call to the next.
+     * Its cost grows with the square of the length, hence the separate, smaller sizes.
+     */
+    @State(Scope.Thread)
+    public static class VecMatMulState {
+
+        @Param({"16", "128", "1024"})
+        public int size;
+
+        @Param({"ROW_MAJOR", "COLUMN_MAJOR"})
+        public VectorOrientation matrixOrientation;
+
+        SharedVector vector;
+        SharedMatrix matrix;
+
+        @Setup
+        public void setUp() {
+            vector = new SharedVector(Data.vector(size, 4), VectorOrientation.ROW_MAJOR);
+            matrix = new SharedMatrix();
+            double[][] values = Data.matrix(size, size, 5);
+            if (matrixOrientation == VectorOrientation.ROW_MAJOR) {
+                matrix.loadRowMajor(values);
+            } else {
+                matrix.loadColumnMajor(values);
+            }
+        }
+    }
+
+    @Benchmark
+    public SharedVector vecMatMul(VecMatMulState state) {
+        state.vector.vecMatMul(state.matrix);
+        return state.vector;
+    }
+}
@@ -0,0 +1,112 @@
+package memory;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+/**
+ * Recycles the large buffers of intermediate results, so that deep trees reuse the storage of the nodes they have
+ * already consumed instead of allocating (and later collecting) a fresh buffer for every product and copy.
+ * Buffers are grouped in size classes, four per power of two, so a recycled buffer is at most 25% longer than the
+ * request it serves; the extra tail is simply left unused by the SharedMatrix built on it.
+ * Buffers shorter than MIN_POOLED elements are left to the allocator, which handles them cheaply.
+ * At most maxRetainedBytes are kept; buffers released beyond that are dropped for the garbage collector.
+ * Thread safe, so one pool can serve concurrent nodes and jobs.
+ */
+public final class BufferPool {
+
+    public static final int MIN_POOLED = 1 << 12;
+
+    private static final Counter hits = Metrics.counter("pool.hit");
+    private static final Counter misses = Metrics.counter("pool.miss");
+    private static final Counter dropped = Metrics.counter("pool.dropped");
+
+    private final ConcurrentHashMap<Integer, Deque<double[]>> free = new ConcurrentHashMap<>(); // by size class
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final long maxRetainedBytes;
+
+    public BufferPool(long maxRetainedBytes) {
+        if (maxRetainedBytes < 0) {
+            throw new IllegalArgumentException("[BufferPool]: The retained size cannot be negative");
+        }
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * Returns a buffer of at least length elements. Its contents are unspecified: callers must overwrite
+     * every element they read.
+     */
+    public double[] acquire(int length) {
+        if (length < MIN_POOLED) {
+            return new double[length];
+        }
+        int size = classSize(length);
+        Deque<double[]> buffers = free.get(size);
+        double[] buffer = buffers == null ? null : buffers.pollFirst();
+        if (buffer == null) {
+            misses.increment();
+            return new double[size];
+        }
+        retainedBytes.addAndGet(-bytes(buffer));
+        hits.increment();
+        return buffer;
+    }
+
+    /**
+     * Hands a buffer back for reuse. The caller must not use the buffer, or any matrix over it, afterwards,
+     * and must release it only once.
+     */
+    public void release(double[] buffer) {
+        if (buffer == null || buffer.length < MIN_POOLED) {
+            return;
+        }
+        long size = bytes(buffer);
+        if (retainedBytes.addAndGet(size) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-size);
+            dropped.increment();
+            return;
+        }
+        // a buffer serves the largest class it covers; the most recently released ones are handed out first
+        free.computeIfAbsent(floorClassSize(buffer.length), key -> new ConcurrentLinkedDeque<>()).offerFirst(buffer);
+    }
+
+    /**
+     * Hands the buffer of a dense matrix back for reuse, under the same conditions as release(double[]).
+     * Nothing is released if the matrix's vectors don't all share one buffer.
+     */
+    public void release(SharedMatrix matrix) {
+        release(matrix.backingBuffer());
+    }
+
+    /**
+     * Bytes currently held for reuse.
+     */
+    public long retainedBytes() {
+        return retainedBytes.get();
+    }
+
+    // The smallest size class that holds length elements: length rounded up to a quarter of its power of two
+    static int classSize(int length) {
+        int power = Integer.highestOneBit(length);
+        if (power == length) {
+            return length;
+        }
+        int step = power >> 2;
+        long size = Math.ceilDiv(length, step) * (long) step;
+        return size > Integer.MAX_VALUE - 8 ? length : (int) size;
+    }
+
+    // The largest size class not longer than length
+    static int floorClassSize(int length) {
+        int step = Integer.highestOneBit(length) >> 2;
+        return length / step * step;
+    }
+
+    private static long bytes(double[] buffer) {
+        return (long) buffer.length * Double.BYTES;
+    }
+}
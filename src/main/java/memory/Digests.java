@@ -0,0 +1,41 @@
+package memory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * Feeds primitive arrays to a MessageDigest in fixed little-endian chunks, for the matrices' content digests.
+ */
+final class Digests {
+
+    private static final int CHUNK = 1024; // elements converted per update
+
+    private Digests() {}
+
+    static void update(MessageDigest digest, double[] data, int size) {
+        ByteBuffer bytes = ByteBuffer.allocate(CHUNK * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int from = 0; from < size; from += CHUNK) {
+            int count = Math.min(CHUNK, size - from);
+            bytes.clear();
+            bytes.asDoubleBuffer().put(data, from, count);
+            bytes.limit(count * Double.BYTES);
+            digest.update(bytes);
+        }
+    }
+
+    static void update(MessageDigest digest, int[] data, int size) {
+        ByteBuffer bytes = ByteBuffer.allocate(CHUNK * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int from = 0; from < size; from += CHUNK) {
+            int count = Math.min(CHUNK, size - from);
+            bytes.clear();
+            bytes.asIntBuffer().put(data, from, count);
+            bytes.limit(count * Integer.BYTES);
+            digest.update(bytes);
+        }
+    }
+
+    static void update(MessageDigest digest, int... values) {
+        update(digest, values, values.length);
+    }
+}
@@ -0,0 +1,170 @@
+package memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cache-blocked matrix multiplication C = A x B.
+ * The output is split into tiles, and each tile is computed by an independent task.
+ * Inside a tile the operands are copied into packed panels sized for the L1/L2 caches,
+ * and a 4x4 micro-kernel (see VectorKernel) keeps its 16 partial sums in registers for the whole inner loop.
+ */
+public final class GemmKernel {
+
+    public static final int MR = 4; // rows of the micro-kernel
+    public static final int NR = 4; // columns of the micro-kernel
+    static final int KC = 256; // depth of a packed block, a KC x NR panel of B stays in L1
+    static final int MC = 128; // rows of a packed block of A, MC x KC fits in L2
+    static final int NC = 512; // columns of a packed block of B
+
+    static final int TILE_ROWS = MC; // output rows computed by a single task
+    static final int TILE_COLS = NC; // output columns computed by a single task
+
+    private static final ThreadLocal<double[]> packedA = ThreadLocal.withInitial(() -> new double[MC * KC]);
+    private static final ThreadLocal<double[]> packedB = ThreadLocal.withInitial(() -> new double[KC * NC]);
+
+    private GemmKernel() {}
+
+    /**
+     * Returns the tasks computing a x b into c, one task per output tile.
+     * c must be a ROW_MAJOR matrix of shape a.rows() x b.cols(), its previous contents are overwritten.
+     * The operands may be stored in either orientation and must not change while the tasks run.
+     */
+    public static List<Runnable> createTileTasks(SharedMatrix a, SharedMatrix b, SharedMatrix c) {
+        return createTileTasks(a, b, c, TILE_ROWS, TILE_COLS);
+    }
+
+    /**
+     * Same as createTileTasks(a, b, c), with output tiles of tileRows x tileCols.
+     */
+    public static List<Runnable> createTileTasks(SharedMatrix a, SharedMatrix b, SharedMatrix c, int tileRows, int tileCols) {
+        if (tileRows <= 0 || tileCols <= 0) {
+            throw new IllegalArgumentException("[createTileTasks]: Tile sizes must be positive");
+        }
+        int m = a.rows();
+        int k = a.cols();
+        int n = b.cols();
+        if (k != b.rows()) {
+            throw new IllegalArgumentException("[createTileTasks]: Left matrix columns don't match right matrix rows");
+        }
+        if (c.rows() != m || c.cols() != n || (m > 0 && c.getOrientation() != VectorOrientation.ROW_MAJOR)) {
+            throw new IllegalArgumentException("[createTileTasks]: Output matrix has the wrong shape or orientation");
+        }
+        Operand left = new Operand(a);
+        Operand right = new Operand(b);
+        double[] out = c.flatData();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i0 = 0; i0 < m; i0 += tileRows) {
+            int i1 = Math.min(i0 + tileRows, m);
+            for (int j0 = 0; j0 < n; j0 += tileCols) {
+                int j1 = Math.min(j0 + tileCols, n);
+                int rowStart = i0, colStart = j0;
+                tasks.add(() -> multiplyTile(left, right, k, out, 0, n, rowStart, i1, colStart, j1));
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Computes rows [i0, i1) and columns [j0, j1) of the product into the row-major buffer c,
+     * element (i, j) going to c[cOffset + i*ldc + j].
+     */
+    static void multiplyTile(Operand a, Operand b, int k, double[] c, int cOffset, int ldc, int i0, int i1, int j0, int j1) {
+        double[] aPack = packedA.get();
+        double[] bPack = packedB.get();
+        if (k == 0) {
+            for (int i = i0; i < i1; i++) {
+                Arrays.fill(c, cOffset + i * ldc + j0, cOffset + i * ldc + j1, 0);
+            }
+            return;
+        }
+        for (int jc = j0; jc < j1; jc += NC) {
+            int nc = Math.min(NC, j1 - jc);
+            for (int pc = 0; pc < k; pc += KC) {
+                int kc = Math.min(KC, k - pc);
+                boolean overwrite = pc == 0;
+                packB(b, pc, kc, jc, nc, bPack);
+                for (int ic = i0; ic < i1; ic += MC) {
+                    int mc = Math.min(MC, i1 - ic);
+                    packA(a, ic, mc, pc, kc, aPack);
+                    for (int jr = 0; jr < nc; jr += NR) {
+                        int nr = Math.min(NR, nc - jr);
+                        for (int ir = 0; ir < mc; ir += MR) {
+                            int mr = Math.min(MR, mc - ir);
+                            VectorKernels.INSTANCE.microKernel(kc, aPack, ir * kc, bPack, jr * kc, c, cOffset + (ic + ir) * ldc + jc + jr, ldc, mr, nr, overwrite);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Packs an mc x kc block of A into row panels of MR rows, each stored k-major. Short panels are zero padded.
+    private static void packA(Operand a, int ic, int mc, int pc, int kc, double[] dst) {
+        for (int ir = 0; ir < mc; ir += MR) {
+            int base = ir * kc;
+            for (int ii = 0; ii < MR; ii++) {
+                int row = ic + ir + ii;
+                if (ir + ii < mc) {
+                    int src = a.offset + row * a.rowStride + pc * a.colStride;
+                    for (int p = 0; p < kc; p++) {
+                        dst[base + p * MR + ii] = a.data[src + p * a.colStride];
+                    }
+                } else {
+                    for (int p = 0; p < kc; p++) {
+                        dst[base + p * MR + ii] = 0;
+                    }
+                }
+            }
+        }
+    }
+
+    // Packs a kc x nc block of B into column panels of NR columns, each stored k-major. Short panels are zero padded.
+    private static void packB(Operand b, int pc, int kc, int jc, int nc, double[] dst) {
+        for (int jr = 0; jr < nc; jr += NR) {
+            int base = jr * kc;
+            for (int jj = 0; jj < NR; jj++) {
+                if (jr + jj < nc) {
+                    int src = b.offset + pc * b.rowStride + (jc + jr + jj) * b.colStride;
+                    for (int p = 0; p < kc; p++) {
+                        dst[base + p * NR + jj] = b.data[src + p * b.rowStride];
+                    }
+                } else {
+                    for (int p = 0; p < kc; p++) {
+                        dst[base + p * NR + jj] = 0;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Flat, strided read-only access to a matrix: element (i, j) is data[offset + i*rowStride + j*colStride].
+     */
+    static final class Operand {
+        final double[] data;
+        final int offset;
+        final int rowStride;
+        final int colStride;
+
+        Operand(SharedMatrix matrix) {
+            this.data = matrix.flatData();
+            this.offset = 0;
+            if (matrix.length() == 0 || matrix.getOrientation() == VectorOrientation.ROW_MAJOR) {
+                this.rowStride = matrix.cols();
+                this.colStride = 1;
+            } else {
+                this.rowStride = 1;
+                this.colStride = matrix.rows();
+            }
+        }
+
+        Operand(double[] data, int offset, int rowStride, int colStride) {
+            this.data = data;
+            this.offset = offset;
+            this.rowStride = rowStride;
+            this.colStride = colStride;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package memory;
+
+/**
+ * The zero pattern of a square matrix, for the multiply fast paths of StructuredKernels.
+ * Detected by a scan of the stored elements that stops as soon as both triangles hold a non-zero,
+ * which for a general dense matrix happens within its first two rows.
+ */
+public enum MatrixStructure {
+    GENERAL,
+    LOWER_TRIANGULAR, // zero above the diagonal
+    UPPER_TRIANGULAR, // zero below the diagonal
+    DIAGONAL,
+    IDENTITY;
+
+    /**
+     * Classifies the matrix; every non-square or empty matrix is GENERAL.
+     */
+    public static MatrixStructure of(SharedMatrix matrix) {
+        int n = matrix.rows();
+        if (n == 0 || n != matrix.cols()) {
+            return GENERAL;
+        }
+        double[] data = matrix.flatData();
+        // in storage order: vector v holds element e at data[v*n + e], so e > v is above the diagonal when row major
+        boolean aboveZero = true;
+        boolean belowZero = true;
+        for (int v = 0; v < n && (aboveZero || belowZero); v++) {
+            int base = v * n;
+            for (int e = 0; e < v && belowZero; e++) {
+                belowZero = data[base + e] == 0;
+            }
+            for (int e = v + 1; e < n && aboveZero; e++) {
+                aboveZero = data[base + e] == 0;
+            }
+        }
+        if (matrix.getOrientation() == VectorOrientation.COLUMN_MAJOR) { // stored transposed
+            boolean swap = aboveZero;
+            aboveZero = belowZero;
+            belowZero = swap;
+        }
+        if (aboveZero && belowZero) {
+            for (int i = 0; i < n; i++) {
+                if (data[i * n + i] != 1) {
+                    return DIAGONAL;
+                }
+            }
+            return IDENTITY;
+        }
+        if (aboveZero) {
+            return LOWER_TRIANGULAR;
+        }
+        return belowZero ? UPPER_TRIANGULAR : GENERAL;
+    }
+}
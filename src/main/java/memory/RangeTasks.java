@@ -0,0 +1,48 @@
+package memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits an element-wise operation over the elements of a matrix, taken vector after vector, into equally sized tasks.
+ * Many short vectors are coalesced into one task, and a long vector is split across several tasks.
+ * The ranges handed to the operation never overlap.
+ */
+public final class RangeTasks {
+
+    /**
+     * An element-wise operation on elements [from, to) of the given vector.
+     */
+    public interface RangeOp {
+        void apply(int vector, int from, int to);
+    }
+
+    private RangeTasks() {}
+
+    /**
+     * Returns at most numTasks tasks applying op to every element of numVectors vectors of vectorLength elements.
+     */
+    public static List<Runnable> create(int numVectors, int vectorLength, int numTasks, RangeOp op) {
+        long total = (long) numVectors * vectorLength;
+        List<Runnable> tasks = new ArrayList<>();
+        if (total == 0) {
+            return tasks;
+        }
+        numTasks = (int) Math.max(1, Math.min(numTasks, total));
+        for (int t = 0; t < numTasks; t++) {
+            long start = total * t / numTasks;
+            long end = total * (t + 1) / numTasks;
+            tasks.add(() -> {
+                long pos = start;
+                while (pos < end) {
+                    int vector = (int) (pos / vectorLength);
+                    int from = (int) (pos % vectorLength);
+                    int to = (int) Math.min(vectorLength, from + (end - pos));
+                    op.apply(vector, from, to);
+                    pos += to - from;
+                }
+            });
+        }
+        return tasks;
+    }
+}
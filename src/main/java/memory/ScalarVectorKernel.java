@@ -0,0 +1,84 @@
+package memory;
+
+import static memory.GemmKernel.MR;
+import static memory.GemmKernel.NR;
+
+/**
+ * Plain Java loops, used when the Vector API is unavailable and as the reference for the SIMD kernels.
+ */
+final class ScalarVectorKernel implements VectorKernel {
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int len) {
+        for (int i = 0; i < len; i++) {
+            y[yOff + i] = y[yOff + i] + alpha * x[xOff + i];
+        }
+    }
+
+    @Override
+    public void negate(double[] x, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            x[i] = -x[i];
+        }
+    }
+
+    @Override
+    public double dot(double[] x, int xOff, double[] y, int yOff, int len) {
+        double result = 0;
+        for (int i = 0; i < len; i++) {
+            result += x[xOff + i] * y[yOff + i];
+        }
+        return result;
+    }
+
+    // Keeps the 16 partial sums of the MR x NR block in registers for the whole inner loop
+    @Override
+    public void microKernel(int kc, double[] a, int ao, double[] b, int bo, double[] c, int co, int ldc,
+                            int mr, int nr, boolean overwrite) {
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+        for (int p = 0; p < kc; p++) {
+            double a0 = a[ao], a1 = a[ao + 1], a2 = a[ao + 2], a3 = a[ao + 3];
+            double b0 = b[bo], b1 = b[bo + 1], b2 = b[bo + 2], b3 = b[bo + 3];
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+            ao += MR;
+            bo += NR;
+        }
+        if (mr == MR && nr == NR) {
+            if (overwrite) {
+                c[co] = c00; c[co + 1] = c01; c[co + 2] = c02; c[co + 3] = c03; co += ldc;
+                c[co] = c10; c[co + 1] = c11; c[co + 2] = c12; c[co + 3] = c13; co += ldc;
+                c[co] = c20; c[co + 1] = c21; c[co + 2] = c22; c[co + 3] = c23; co += ldc;
+                c[co] = c30; c[co + 1] = c31; c[co + 2] = c32; c[co + 3] = c33;
+            } else {
+                c[co] += c00; c[co + 1] += c01; c[co + 2] += c02; c[co + 3] += c03; co += ldc;
+                c[co] += c10; c[co + 1] += c11; c[co + 2] += c12; c[co + 3] += c13; co += ldc;
+                c[co] += c20; c[co + 1] += c21; c[co + 2] += c22; c[co + 3] += c23; co += ldc;
+                c[co] += c30; c[co + 1] += c31; c[co + 2] += c32; c[co + 3] += c33;
+            }
+            return;
+        }
+        double[] acc = {c00, c01, c02, c03, c10, c11, c12, c13, c20, c21, c22, c23, c30, c31, c32, c33}; // edge tile
+        storeEdge(acc, c, co, ldc, mr, nr, overwrite);
+    }
+
+    // Writes the first mr x nr values of an MR x NR block of partial sums into c
+    static void storeEdge(double[] acc, double[] c, int co, int ldc, int mr, int nr, boolean overwrite) {
+        for (int i = 0; i < mr; i++) {
+            int row = co + i * ldc;
+            for (int j = 0; j < nr; j++) {
+                c[row + j] = overwrite ? acc[i * NR + j] : c[row + j] + acc[i * NR + j];
+            }
+        }
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
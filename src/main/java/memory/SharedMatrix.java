@@ -1,7 +1,18 @@
 package memory;
 
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A matrix stored as one contiguous buffer.
+ * In ROW_MAJOR orientation the buffer holds the rows one after the other, in COLUMN_MAJOR it holds the columns.
+ * Each stored row/column is exposed as a SharedVector view into that buffer.
+ */
 public class SharedMatrix {
 
+    private static final int BLOCK = 64; // tile size for cache-friendly transposed copies
+
     private volatile SharedVector[] vectors = {}; // underlying vectors
 
     public SharedMatrix() {
@@ -9,63 +20,132 @@ public class SharedMatrix {
     }
 
     public SharedMatrix(double[][] matrix) {
-        vectors=new SharedVector[matrix.length];
-        for(int i=0;i<matrix.length;i++){
-            vectors[i]=new SharedVector(matrix[i],VectorOrientation.ROW_MAJOR);
-        }
+        vectors=rowMajorViews(matrix);
+    }
+
+    /**
+     * Wraps an existing contiguous buffer without copying it.
+     * Vector i occupies data[i*vectorLength .. (i+1)*vectorLength).
+     */
+    public SharedMatrix(double[] data, int numVectors, int vectorLength, VectorOrientation orientation) {
+        if(numVectors<0 || vectorLength<0 || (long)numVectors*vectorLength>data.length)
+            throw new IllegalArgumentException("[SharedMatrix]: Buffer is too small for the given shape");
+        vectors=createViews(data, numVectors, vectorLength, orientation);
     }
 
     public void loadRowMajor(double[][] matrix) {
-        SharedVector[] copy=new SharedVector[matrix.length];
-        for(int i=0;i<matrix.length;i++){
-            copy[i]=new SharedVector(matrix[i],VectorOrientation.ROW_MAJOR);
+        vectors=rowMajorViews(matrix);
+    }
+
+    // Copies the rows into one buffer; private so the constructor does not call an overridable method
+    private static SharedVector[] rowMajorViews(double[][] matrix) {
+        int rows=matrix.length;
+        int cols=rows==0 ? 0 : matrix[0].length;
+        double[] data=new double[flatSize(rows, cols)];
+        for(int r=0;r<rows;r++){
+            if(matrix[r].length!=cols)
+                throw new IllegalArgumentException("[loadRowMajor]: Matrix rows must have the same length");
+            System.arraycopy(matrix[r], 0, data, r*cols, cols);
         }
-        vectors=copy;
+        return createViews(data, rows, cols, VectorOrientation.ROW_MAJOR);
     }
 
     public void loadColumnMajor(double[][] matrix) {
+        int rows=matrix.length;
         int other_columns=matrix[0].length;
-        SharedVector[] copy=new SharedVector[other_columns]; 
-        for (int c=0;c<other_columns;c++){
-            double[] normalVector=new double[matrix.length];
-            for(int r=0;r<matrix.length;r++){
-                normalVector[r]=matrix[r][c];
+        double[] data=new double[flatSize(rows, other_columns)];
+        for(int r=0;r<rows;r++){
+            if(matrix[r].length!=other_columns)
+                throw new IllegalArgumentException("[loadColumnMajor]: Matrix rows must have the same length");
+        }
+        for(int r0=0;r0<rows;r0+=BLOCK){ //blocked so both the source rows and the target columns stay in cache
+            int rEnd=Math.min(r0+BLOCK, rows);
+            for(int c0=0;c0<other_columns;c0+=BLOCK){
+                int cEnd=Math.min(c0+BLOCK, other_columns);
+                for(int r=r0;r<rEnd;r++){
+                    double[] row=matrix[r];
+                    for(int c=c0;c<cEnd;c++){
+                        data[c*rows+r]=row[c];
+                    }
+                }
             }
-            copy[c]=new SharedVector(normalVector,VectorOrientation.COLUMN_MAJOR);
-        }  
-        vectors=copy;
+        }
+        vectors=createViews(data, other_columns, rows, VectorOrientation.COLUMN_MAJOR);
     }
 
     public double[][] readRowMajor() {
     // TODO: return matrix contents as a row-major double[][]
-    acquireAllVectorReadLocks(vectors);
+    SharedVector[] vecs = vectors;
+    acquireAllVectorReadLocks(vecs);
     try {
         double[][] output;
-        if (this.length() == 0)
+        if (vecs.length == 0)
             output = new double[0][0];
         else {
-            if (vectors[0].getOrientation() == VectorOrientation.ROW_MAJOR) {
-                output = new double[this.length()][vectors[0].length()];
-                for (int i = 0; i < this.length(); i++) {
-                    for (int j = 0; j < vectors[0].length(); j++) {
-                        output[i][j] = vectors[i].get(j);
-                    }
+            int len = vecs[0].size();
+            if (vecs[0].orientation() == VectorOrientation.ROW_MAJOR) {
+                output = new double[vecs.length][];
+                for (int i = 0; i < vecs.length; i++) {
+                    output[i] = new double[len];
+                    System.arraycopy(vecs[i].buffer(), vecs[i].offset(), output[i], 0, len);
                 }
             } else { //Column major
-                output = new double[vectors[0].length()][length()];
-                for (int i = 0; i < vectors[0].length(); i++) {
-                    for (int j = 0; j < vectors.length; j++) {
-                        output[i][j] = vectors[j].get(i);
+                output = new double[len][vecs.length];
+                for (int j0 = 0; j0 < vecs.length; j0 += BLOCK) {
+                    int jEnd = Math.min(j0 + BLOCK, vecs.length);
+                    for (int i0 = 0; i0 < len; i0 += BLOCK) {
+                        int iEnd = Math.min(i0 + BLOCK, len);
+                        for (int j = j0; j < jEnd; j++) {
+                            double[] column = vecs[j].buffer();
+                            int base = vecs[j].offset();
+                            for (int i = i0; i < iEnd; i++) {
+                                output[i][j] = column[base + i];
+                            }
+                        }
                     }
                 }
             }
         }
         return output;
     } finally {
-        releaseAllVectorReadLocks(vectors);
+        releaseAllVectorReadLocks(vecs);
     }
 }
 
+    /**
+     * Copies rows [from, to) of the logical matrix into dst, row after row, taking each vector's lock once.
+     */
+    public void copyRows(int from, int to, double[] dst) {
+        SharedVector[] vecs = vectors;
+        if(from<0 || from>to || to>rows())
+            throw new IndexOutOfBoundsException("[copyRows]: Invalid row range");
+        if(from==to)
+            return;
+        int cols=cols();
+        if((long)(to-from)*cols>dst.length)
+            throw new IndexOutOfBoundsException("[copyRows]: Destination is too small");
+        if(vecs[0].getOrientation()==VectorOrientation.ROW_MAJOR){
+            for(int r=from;r<to;r++){
+                vecs[r].copyInto(dst, (r-from)*cols);
+            }
+            return;
+        }
+        for(int c=0;c<vecs.length;c++){ //column major: gather each row's elements from every column
+            SharedVector column=vecs[c];
+            column.readLock();
+            try{
+                double[] buf=column.buffer();
+                int base=column.offset();
+                for(int r=from;r<to;r++){
+                    dst[(r-from)*cols+c]=buf[base+r];
+                }
+            }
+            finally{
+                column.readUnlock();
+            }
+        }
+    }
+
     public SharedVector get(int index) {
         if(index<0 || index>=vectors.length)
             throw new IndexOutOfBoundsException("[SharedVector get]: Index given is invalid");
@@ -85,6 +165,211 @@ public class SharedMatrix {
        return vectors[0].getOrientation();
     }
 
+    /**
+     * Number of rows of the logical matrix, regardless of how it is stored.
+     */
+    public int rows() {
+        SharedVector[] vecs = vectors;
+        if(vecs.length==0)
+            return 0;
+        return vecs[0].getOrientation()==VectorOrientation.ROW_MAJOR ? vecs.length : vecs[0].length();
+    }
+
+    /**
+     * Number of columns of the logical matrix, regardless of how it is stored.
+     */
+    public int cols() {
+        SharedVector[] vecs = vectors;
+        if(vecs.length==0)
+            return 0;
+        return vecs[0].getOrientation()==VectorOrientation.ROW_MAJOR ? vecs[0].length() : vecs.length;
+    }
+
+    /**
+     * Returns a new matrix with the same logical contents, stored in the given orientation.
+     */
+    public SharedMatrix copy(VectorOrientation orientation) {
+        SharedVector[] vecs = vectors;
+        return vecs.length==0 ? new SharedMatrix() : copy(orientation, new double[flatSize(vecs.length, vecs[0].length())]);
+    }
+
+    /**
+     * Same as copy(orientation), with the new matrix's buffer taken from the pool.
+     */
+    public SharedMatrix copy(VectorOrientation orientation, BufferPool pool) {
+        SharedVector[] vecs = vectors;
+        return vecs.length==0 ? new SharedMatrix() : copy(orientation, pool.acquire(flatSize(vecs.length, vecs[0].length())));
+    }
+
+    private SharedMatrix copy(VectorOrientation orientation, double[] dst) {
+        SharedVector[] vecs = vectors;
+        double[] src=flatData();
+        int numVectors=vecs.length;
+        int len=vecs[0].length();
+        if(vecs[0].getOrientation()==orientation){
+            System.arraycopy(src, 0, dst, 0, numVectors*len);
+            return new SharedMatrix(dst, numVectors, len, orientation);
+        }
+        for(int v0=0;v0<numVectors;v0+=BLOCK){ //blocked transpose of the storage order
+            int vEnd=Math.min(v0+BLOCK, numVectors);
+            for(int i0=0;i0<len;i0+=BLOCK){
+                int iEnd=Math.min(i0+BLOCK, len);
+                for(int v=v0;v<vEnd;v++){
+                    for(int i=i0;i<iEnd;i++){
+                        dst[i*numVectors+v]=src[v*len+i];
+                    }
+                }
+            }
+        }
+        return new SharedMatrix(dst, len, numVectors, orientation);
+    }
+
+    /**
+     * Hash of the orientation, shape and elements in storage order, consistent with contentEquals.
+     */
+    public int contentHash() {
+        SharedVector[] vecs = vectors;
+        if(vecs.length==0)
+            return 0;
+        double[] data=flatData();
+        int len=vecs[0].length();
+        int hash=31*(31*vecs[0].getOrientation().ordinal()+vecs.length)+len;
+        for(int i=0, size=vecs.length*len;i<size;i++){
+            hash=31*hash+Double.hashCode(data[i]);
+        }
+        return hash;
+    }
+
+    /**
+     * Feeds the orientation, shape and elements in storage order to the digest, so matrices that are equal
+     * in the sense of contentEquals give equal digests.
+     */
+    public void digest(MessageDigest digest) {
+        SharedVector[] vecs = vectors;
+        int len=vecs.length==0 ? 0 : vecs[0].length();
+        Digests.update(digest, vecs.length==0 ? 0 : vecs[0].getOrientation().ordinal(), vecs.length, len);
+        if(vecs.length>0)
+            Digests.update(digest, flatData(), vecs.length*len);
+    }
+
+    /**
+     * Whether other holds exactly the same elements stored in the same orientation (compared bit for bit,
+     * so 0.0 and -0.0 differ and NaN equals NaN).
+     */
+    public boolean contentEquals(SharedMatrix other) {
+        if(other==this)
+            return true;
+        SharedVector[] vecs = vectors;
+        SharedVector[] others = other.vectors;
+        if(vecs.length!=others.length)
+            return false;
+        if(vecs.length==0)
+            return true;
+        int len=vecs[0].length();
+        if(len!=others[0].length() || vecs[0].getOrientation()!=others[0].getOrientation())
+            return false;
+        int size=vecs.length*len;
+        return Arrays.equals(flatData(), 0, size, other.flatData(), 0, size);
+    }
+
+    /**
+     * Returns at most numTasks tasks adding right into left in place, element by element.
+     * The tasks write disjoint ranges, each under its vector's exclusive lock, so a concurrent reader sees every
+     * vector either before or after a task's range write, though the matrix as a whole may be partly updated.
+     */
+    public static List<Runnable> createAddTasks(SharedMatrix left, SharedMatrix right, int numTasks) {
+        return createAddScaledTasks(left, right, numTasks, false, "[createAddTasks]");
+    }
+
+    /**
+     * Returns at most numTasks tasks subtracting right from left in place, with the same contract as createAddTasks.
+     */
+    public static List<Runnable> createSubtractTasks(SharedMatrix left, SharedMatrix right, int numTasks) {
+        return createAddScaledTasks(left, right, numTasks, true, "[createSubtractTasks]");
+    }
+
+    private static List<Runnable> createAddScaledTasks(SharedMatrix left, SharedMatrix right, int numTasks, boolean subtract, String name) {
+        SharedVector[] lefts = left.vectors;
+        SharedVector[] rights = right.vectors;
+        int len = lefts.length==0 ? 0 : lefts[0].length();
+        if(lefts.length!=rights.length || (rights.length>0 && rights[0].length()!=len))
+            throw new IllegalArgumentException(name+": Matrix lengths don't match");
+        return RangeTasks.create(lefts.length, len, numTasks, subtract
+                ? (i, from, to) -> lefts[i].subtract(rights[i], from, to)
+                : (i, from, to) -> lefts[i].add(rights[i], from, to));
+    }
+
+    /**
+     * Returns at most numTasks tasks negating the matrix in place, with the same contract as createAddTasks.
+     */
+    public static List<Runnable> createNegateTasks(SharedMatrix matrix, int numTasks) {
+        SharedVector[] vecs = matrix.vectors;
+        return RangeTasks.create(vecs.length, vecs.length==0 ? 0 : vecs[0].length(), numTasks,
+                (i, from, to) -> vecs[i].negate(from, to));
+    }
+
+    /**
+     * The buffer all vectors are views of, or null if some vector was detached from it.
+     * Meant for a matrix that is no longer in use, so no locks are taken.
+     */
+    double[] backingBuffer() {
+        SharedVector[] vecs = vectors;
+        if(vecs.length==0)
+            return null;
+        double[] data=vecs[0].buffer();
+        for(SharedVector vector : vecs){
+            if(vector.buffer()!=data)
+                return null;
+        }
+        return data;
+    }
+
+    /**
+     * Returns the contiguous buffer holding all vectors in storage order.
+     * If a vector was detached from the shared buffer (e.g. by vecMatMul), a compacted copy is returned instead.
+     */
+    double[] flatData() {
+        SharedVector[] vecs = vectors;
+        if(vecs.length==0)
+            return new double[0];
+        acquireAllVectorReadLocks(vecs);
+        try{
+            int len=vecs[0].size();
+            double[] data=vecs[0].buffer();
+            boolean contiguous=true;
+            for(int i=0;i<vecs.length && contiguous;i++){
+                contiguous=vecs[i].buffer()==data && vecs[i].offset()==i*len && vecs[i].size()==len;
+            }
+            if(contiguous)
+                return data;
+            double[] copy=new double[flatSize(vecs.length, len)];
+            for(int i=0;i<vecs.length;i++){
+                if(vecs[i].size()!=len)
+                    throw new IllegalStateException("[flatData]: Matrix vectors have different lengths");
+                System.arraycopy(vecs[i].buffer(), vecs[i].offset(), copy, i*len, len);
+            }
+            return copy;
+        }
+        finally{
+            releaseAllVectorReadLocks(vecs);
+        }
+    }
+
+    private static SharedVector[] createViews(double[] data, int numVectors, int vectorLength, VectorOrientation orientation) {
+        SharedVector[] views=new SharedVector[numVectors];
+        for(int i=0;i<numVectors;i++){
+            views[i]=new SharedVector(data, i*vectorLength, vectorLength, orientation);
+        }
+        return views;
+    }
+
+    private static int flatSize(int numVectors, int vectorLength) {
+        long size=(long)numVectors*vectorLength;
+        if(size>Integer.MAX_VALUE)
+            throw new IllegalArgumentException("[SharedMatrix]: Matrix is too large for a single buffer");
+        return (int)size;
+    }
+
     private void acquireAllVectorReadLocks(SharedVector[] vecs) {
         // TODO: acquire read lock for each vector
         for(int i=0;i<vecs.length;i++){
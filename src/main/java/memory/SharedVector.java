@@ -1,28 +1,74 @@
 package memory;
 
-import java.util.concurrent.locks.ReadWriteLock;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
 
 import javax.management.RuntimeErrorException;
 
+import metrics.Counter;
+import metrics.Metrics;
+
+/**
+ * A row or column of a matrix.
+ * The vector is a view of {@code length} consecutive elements of a backing buffer, starting at {@code offset}.
+ * All vectors of a SharedMatrix share the matrix's single contiguous buffer.
+ * Writers take the exclusive lock, while single-element reads first try an optimistic (lock-free) read
+ * and only fall back to the shared lock if a writer interfered.
+ * Range writes (add, subtract and negate over [from, to)) take the exclusive lock too, so readers never see
+ * a vector half updated; tasks writing disjoint ranges of one vector therefore run one after the other.
+ * They are package-private and only reached through the task factories of SharedMatrix
+ * (createAddTasks, createSubtractTasks, createNegateTasks).
+ * With metrics enabled, lock acquisitions that had to wait and failed optimistic reads are counted.
+ */
 public class SharedVector {
 
-    private double[] vector;
+    private static final Counter readContended = Metrics.counter("lock.read.contended");
+    private static final Counter writeContended = Metrics.counter("lock.write.contended");
+    private static final Counter optimisticFailed = Metrics.counter("lock.optimistic.failed");
+
+    // scratch space for vecMatMul results that are copied back into the vector's own storage
+    private static final ThreadLocal<double[]> scratch = ThreadLocal.withInitial(() -> new double[0]);
+
+    private double[] vector; // backing buffer, possibly shared with the other vectors of a matrix
+    private int offset; // index of this vector's first element inside the buffer
+    private int length;
     private VectorOrientation orientation;
-    private ReadWriteLock lock = new java.util.concurrent.locks.ReentrantReadWriteLock();
+    private final StampedLock lock = new StampedLock(); // not reentrant: never lock a vector twice in one thread
 
     public SharedVector(double[] vector, VectorOrientation orientation) {
         // TODO: store vector data and its orientation
+        this(vector, 0, vector.length, orientation);
+    }
+
+    SharedVector(double[] buffer, int offset, int length, VectorOrientation orientation) {
+        if(offset<0 || length<0 || offset+length>buffer.length)
+            throw new IndexOutOfBoundsException("[SharedVector]: View exceeds the backing buffer");
         this.orientation=orientation;
-        this.vector=vector;
+        this.vector=buffer;
+        this.offset=offset;
+        this.length=length;
     }
 
     public double get(int index) {
         // TODO: return element at index (read-locked)
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            double[] buf = vector;
+            int off = offset;
+            int len = length;
+            if (index >= 0 && index < len && off + index < buf.length) {
+                double output = buf[off + index];
+                if (lock.validate(stamp))
+                    return output;
+            }
+        }
+        optimisticFailed.increment();
         readLock();
         try {
-            if(index<0 || index>=vector.length)
+            if(index<0 || index>=length)
                 throw new IndexOutOfBoundsException("[Sharedvector:Get]: Index out of bounds");
-            double output = vector[index];
+            double output = vector[offset+index];
             return output;
         }
         finally {
@@ -31,9 +77,14 @@ public class SharedVector {
     }
 
     public int length() {
+        long stamp = lock.tryOptimisticRead();
+        int optimistic = length;
+        if (stamp != 0 && lock.validate(stamp))
+            return optimistic;
+        optimisticFailed.increment();
         readLock();
         try{
-            int len=vector.length;
+            int len=length;
             return len;
         }
         finally{
@@ -42,6 +93,11 @@ public class SharedVector {
     }
 
     public VectorOrientation getOrientation() {
+        long stamp = lock.tryOptimisticRead();
+        VectorOrientation optimistic = orientation;
+        if (stamp != 0 && lock.validate(stamp))
+            return optimistic;
+        optimisticFailed.increment();
         readLock();
         try{
             VectorOrientation orient=orientation;
@@ -51,19 +107,91 @@ public class SharedVector {
     }
 
     public void writeLock() {
-        lock.writeLock().lock();
+        if(Metrics.ENABLED){
+            if(lock.asWriteLock().tryLock())
+                return;
+            writeContended.increment();
+        }
+        lock.asWriteLock().lock();
     }
 
     public void writeUnlock() {
-        lock.writeLock().unlock();
+        lock.asWriteLock().unlock();
     }
 
     public void readLock() {
-        lock.readLock().lock();
+        if(Metrics.ENABLED){
+            if(lock.asReadLock().tryLock())
+                return;
+            readContended.increment();
+        }
+        lock.asReadLock().lock();
     }
 
     public void readUnlock() {
-        lock.readLock().unlock();
+        lock.asReadLock().unlock();
+    }
+
+    /**
+     * Copies the whole vector into dst starting at dstOffset, without locking per element.
+     * The copy never mixes values from before and after a concurrent write.
+     */
+    public void copyInto(double[] dst, int dstOffset) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            double[] buf = vector;
+            int off = offset;
+            int len = length;
+            if (dstOffset >= 0 && dstOffset + len <= dst.length && off + len <= buf.length) {
+                System.arraycopy(buf, off, dst, dstOffset, len);
+                if (lock.validate(stamp))
+                    return;
+            }
+        }
+        optimisticFailed.increment();
+        readLock();
+        try {
+            if (dstOffset < 0 || dstOffset + length > dst.length)
+                throw new IndexOutOfBoundsException("[copyInto]: Destination is too small");
+            System.arraycopy(vector, offset, dst, dstOffset, length);
+        }
+        finally {
+            readUnlock();
+        }
+    }
+
+    /**
+     * Returns a read-only buffer holding a copy of the vector's current contents, consistent with respect to
+     * concurrent writes.
+     */
+    public DoubleBuffer snapshot() {
+        readLock();
+        try {
+            double[] copy = new double[length];
+            System.arraycopy(vector, offset, copy, 0, length);
+            return DoubleBuffer.wrap(copy).asReadOnlyBuffer();
+        }
+        finally {
+            readUnlock();
+        }
+    }
+
+    // Raw view accessors for the memory package, the caller must hold this vector's lock.
+    // Use these instead of get()/length() while a lock is held, since the lock is not reentrant.
+    double[] buffer() {
+        return vector;
+    }
+
+    int offset() {
+        return offset;
+    }
+
+    int size() {
+        return length;
+    }
+
+    VectorOrientation orientation() {
+        return orientation;
     }
 
     public void transpose() {
@@ -95,13 +223,11 @@ public class SharedVector {
             other.readLock();
         }
         try{
-            if(vector.length!=other.vector.length)
+            if(length!=other.length)
                 throw new IllegalArgumentException("[Add]: Cannot add vectors with different sizes");
             if(orientation!=other.orientation)
                 throw new IllegalArgumentException("[Add]: Cannot add vectors with different orientations");
-            for(int i=0;i<vector.length;i++){
-                vector[i] = vector[i]+ other.vector[i];
-            }
+            VectorKernels.INSTANCE.axpy(1, other.vector, other.offset, vector, offset, length);
         }
         finally{
             writeUnlock();
@@ -113,14 +239,74 @@ public class SharedVector {
     public void negate() {
         writeLock();
         try{
-            for(int i=0;i<vector.length;i++){
-                vector[i]= -1*vector[i];
-            }
+            VectorKernels.INSTANCE.negate(vector, offset, length);
         }
         finally{
             writeUnlock();  
         }
     }
+    /**
+     * Adds elements [from, to) of other into the same elements of this vector.
+     * The exclusive lock is held for the range only, so readers see the range write as a unit.
+     */
+    void add(SharedVector other, int from, int to) {
+        addScaled(other, from, to, 1, "[Add]");
+    }
+
+    /**
+     * Subtracts elements [from, to) of other from the same elements of this vector,
+     * with the same locking contract as add(other, from, to).
+     */
+    void subtract(SharedVector other, int from, int to) {
+        addScaled(other, from, to, -1, "[Subtract]");
+    }
+
+    // this[from, to) += sign * other[from, to), sign being 1 or -1 so the result is exact
+    private void addScaled(SharedVector other, int from, int to, double sign, String name) {
+        if (this==other){
+            throw new IllegalArgumentException(name+": Cannot combine a vector with itself");
+        }
+        if(System.identityHashCode(this) > System.identityHashCode(other)){ //same lock order as add(other)
+            other.readLock();
+            writeLock();
+        }
+        else{
+            writeLock();
+            other.readLock();
+        }
+        try{
+            if(length!=other.length)
+                throw new IllegalArgumentException(name+": Cannot combine vectors with different sizes");
+            if(orientation!=other.orientation)
+                throw new IllegalArgumentException(name+": Cannot combine vectors with different orientations");
+            checkRange(from, to);
+            VectorKernels.INSTANCE.axpy(sign, other.vector, other.offset+from, vector, offset+from, to-from);
+        }
+        finally{
+            writeUnlock();
+            other.readUnlock();
+        }
+    }
+
+    /**
+     * Negates elements [from, to), with the same locking contract as add(other, from, to).
+     */
+    void negate(int from, int to) {
+        writeLock();
+        try{
+            checkRange(from, to);
+            VectorKernels.INSTANCE.negate(vector, offset+from, to-from);
+        }
+        finally{
+            writeUnlock();
+        }
+    }
+
+    private void checkRange(int from, int to) {
+        if(from<0 || to>length || from>to)
+            throw new IndexOutOfBoundsException("[SharedVector]: Invalid range ["+from+", "+to+")");
+    }
+
     public double dot(SharedVector other) {  //Note: Might cause deadlock if a*b and b*a are executed at the same time, yet-
         double result=0;                        //This situation wont happen in LAE implementation
         if (this==other){                            
@@ -129,15 +315,7 @@ public class SharedVector {
         other.readLock();
         readLock();
         try{
-            if(vector.length!=other.vector.length){
-                throw new IllegalArgumentException("[dot]: Cannot multiply vectors with different sizes");
-            }
-            if(orientation==other.orientation){
-                throw new IllegalArgumentException("[dot]: Cannot multiply vectors with same orientations");
-            }
-            for(int i=0;i<vector.length;i++){
-                result += vector[i]*other.vector[i];
-            }
+            result = dotLocked(other);
             return result;
         }
         finally{
@@ -147,6 +325,17 @@ public class SharedVector {
         
     } 
 
+    // dot product body, the caller holds the locks of both vectors
+    private double dotLocked(SharedVector other) {
+        if(length!=other.length){
+            throw new IllegalArgumentException("[dot]: Cannot multiply vectors with different sizes");
+        }
+        if(orientation==other.orientation){
+            throw new IllegalArgumentException("[dot]: Cannot multiply vectors with same orientations");
+        }
+        return VectorKernels.INSTANCE.dot(vector, offset, other.vector, other.offset, length);
+    }
+
     
 
     public void vecMatMul(SharedMatrix matrix) {
@@ -156,33 +345,50 @@ public class SharedVector {
             if(orientation==VectorOrientation.COLUMN_MAJOR){           
                 throw new IllegalArgumentException("[VecMatMul]: vector orientation must be row");
         }
-            if(matrix.get(0).orientation==VectorOrientation.ROW_MAJOR){
-                if(matrix.length()!=vector.length){
+            SharedVector first=matrix.get(0);
+            // this vector may be a row of the matrix, whose lock we already hold: read our own length directly
+            int firstLength=first==this ? length : first.length();
+            if(first.orientation==VectorOrientation.ROW_MAJOR){
+                if(matrix.length()!=length){
                     throw new IllegalArgumentException("[VecMatMul]: Matrix length doesnt fit vector length");
                 }
-                double[] res=new double[matrix.get(0).length()];
+                double[] res=resultBuffer(firstLength);
+                Arrays.fill(res, 0, firstLength, 0);
                 for(int i=0;i<matrix.length();i++){
-                    matrix.get(i).readLock();               
+                    SharedVector row=matrix.get(i);
+                    boolean locked=row!=this; //we already hold our own write lock
+                    if(locked)
+                        row.readLock();               
                     try{
-                        for(int j=0; j<matrix.get(i).length();j++){
-                            res[j]+=vector[i]*matrix.get(i).get(j);
-                        } 
+                        if(row.length!=firstLength)
+                            throw new IllegalArgumentException("[VecMatMul]: Matrix rows have different lengths");
+                        VectorKernels.INSTANCE.axpy(vector[offset+i], row.vector, row.offset, res, 0, row.length);
                     }
                     finally{
-                        matrix.get(i).readUnlock();
+                        if(locked)
+                            row.readUnlock();
                     }
                 }
-                vector=res;
+                store(res, firstLength);
             }
             else{                                                //other matrix is column major
-                if(matrix.get(0).length()!=vector.length){
+                if(firstLength!=length){
                     throw new IllegalArgumentException("[VecMatMul]: matrix columns are not equal to vector's length");
                 }
-                double[] res=new double[matrix.length()];
+                double[] res=resultBuffer(matrix.length());
                 for(int i=0; i<matrix.length();i++){
-                    res[i]=this.dot(matrix.get(i));
+                    SharedVector column=matrix.get(i);
+                    if(column==this)
+                        throw new IllegalArgumentException("[VecMatMul]: Cannot multiply a vector by a matrix containing it");
+                    column.readLock();
+                    try{
+                        res[i]=dotLocked(column);
+                    }
+                    finally{
+                        column.readUnlock();
+                    }
                 }
-                vector=res;
+                store(res, matrix.length());
             }
         }
         finally{
@@ -190,4 +396,31 @@ public class SharedVector {
         }
     }
 
+    // Where vecMatMul computes a result of the given length: thread-local scratch if the result fits in place
+    private double[] resultBuffer(int resultLength) {
+        if(resultLength!=length)
+            return new double[resultLength];
+        double[] buffer=scratch.get();
+        if(buffer.length<resultLength){
+            buffer=new double[resultLength];
+            scratch.set(buffer);
+        }
+        return buffer;
+    }
+
+    // Makes the first resultLength elements of a vecMatMul result this vector's contents
+    private void store(double[] result, int resultLength) {
+        if(resultLength==length)
+            System.arraycopy(result, 0, vector, offset, length);
+        else
+            detach(result);
+    }
+
+    // Points this view at a private buffer, used when the vector's length changes (caller holds the write lock)
+    private void detach(double[] buffer) {
+        vector=buffer;
+        offset=0;
+        length=buffer.length;
+    }
+
 }
@@ -0,0 +1,119 @@
+package memory;
+
+import static memory.GemmKernel.MR;
+import static memory.GemmKernel.NR;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels written with the JDK Vector API (jdk.incubator.vector), using the platform's preferred vector width.
+ * Element-wise results and the GEMM micro-kernel round exactly like the scalar loops (a multiply, then an add);
+ * only dot changes the summation order, so it can differ from the scalar result in the last bits.
+ * Only loaded through VectorKernels, after checking that the module is present.
+ */
+final class SimdVectorKernel implements VectorKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> TILE = DoubleVector.SPECIES_256; // one row of an MR x NR block
+
+    private final ScalarVectorKernel scalar = new ScalarVectorKernel();
+    private final boolean vectorTiles = NR == TILE.length() && SPECIES.vectorBitSize() >= TILE.vectorBitSize();
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int len) {
+        int i = 0;
+        int bound = SPECIES.loopBound(len);
+        DoubleVector scale = DoubleVector.broadcast(SPECIES, alpha);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector xv = DoubleVector.fromArray(SPECIES, x, xOff + i);
+            DoubleVector yv = DoubleVector.fromArray(SPECIES, y, yOff + i);
+            yv.add(xv.mul(scale)).intoArray(y, yOff + i);
+        }
+        for (; i < len; i++) {
+            y[yOff + i] = y[yOff + i] + alpha * x[xOff + i];
+        }
+    }
+
+    @Override
+    public void negate(double[] x, int off, int len) {
+        int i = 0;
+        int bound = SPECIES.loopBound(len);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, x, off + i).neg().intoArray(x, off + i);
+        }
+        for (; i < len; i++) {
+            x[off + i] = -x[off + i];
+        }
+    }
+
+    @Override
+    public double dot(double[] x, int xOff, double[] y, int yOff, int len) {
+        // two independent accumulators hide the latency of the vector adds
+        DoubleVector acc0 = DoubleVector.zero(SPECIES);
+        DoubleVector acc1 = DoubleVector.zero(SPECIES);
+        int step = SPECIES.length();
+        int i = 0;
+        int bound = SPECIES.loopBound(len);
+        for (; i + step < bound; i += 2 * step) {
+            acc0 = acc0.add(DoubleVector.fromArray(SPECIES, x, xOff + i).mul(DoubleVector.fromArray(SPECIES, y, yOff + i)));
+            acc1 = acc1.add(DoubleVector.fromArray(SPECIES, x, xOff + i + step).mul(DoubleVector.fromArray(SPECIES, y, yOff + i + step)));
+        }
+        for (; i < bound; i += step) {
+            acc0 = acc0.add(DoubleVector.fromArray(SPECIES, x, xOff + i).mul(DoubleVector.fromArray(SPECIES, y, yOff + i)));
+        }
+        double result = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+        for (; i < len; i++) {
+            result += x[xOff + i] * y[yOff + i];
+        }
+        return result;
+    }
+
+    // One vector per row of the MR x NR block: every step broadcasts the four elements of A against a row of B
+    @Override
+    public void microKernel(int kc, double[] a, int ao, double[] b, int bo, double[] c, int co, int ldc,
+                            int mr, int nr, boolean overwrite) {
+        if (!vectorTiles) {
+            scalar.microKernel(kc, a, ao, b, bo, c, co, ldc, mr, nr, overwrite);
+            return;
+        }
+        DoubleVector c0 = DoubleVector.zero(TILE);
+        DoubleVector c1 = DoubleVector.zero(TILE);
+        DoubleVector c2 = DoubleVector.zero(TILE);
+        DoubleVector c3 = DoubleVector.zero(TILE);
+        for (int p = 0; p < kc; p++) {
+            DoubleVector bv = DoubleVector.fromArray(TILE, b, bo);
+            c0 = c0.add(bv.mul(a[ao]));
+            c1 = c1.add(bv.mul(a[ao + 1]));
+            c2 = c2.add(bv.mul(a[ao + 2]));
+            c3 = c3.add(bv.mul(a[ao + 3]));
+            ao += MR;
+            bo += NR;
+        }
+        if (mr == MR && nr == NR) {
+            if (!overwrite) {
+                c0 = c0.add(DoubleVector.fromArray(TILE, c, co));
+                c1 = c1.add(DoubleVector.fromArray(TILE, c, co + ldc));
+                c2 = c2.add(DoubleVector.fromArray(TILE, c, co + 2 * ldc));
+                c3 = c3.add(DoubleVector.fromArray(TILE, c, co + 3 * ldc));
+            }
+            c0.intoArray(c, co);
+            c1.intoArray(c, co + ldc);
+            c2.intoArray(c, co + 2 * ldc);
+            c3.intoArray(c, co + 3 * ldc);
+            return;
+        }
+        double[] acc = new double[MR * NR]; // edge tile
+        c0.intoArray(acc, 0);
+        c1.intoArray(acc, NR);
+        c2.intoArray(acc, 2 * NR);
+        c3.intoArray(acc, 3 * NR);
+        ScalarVectorKernel.storeEdge(acc, c, co, ldc, mr, nr, overwrite);
+    }
+
+    @Override
+    public String name() {
+        return "simd (" + SPECIES.vectorBitSize() + "-bit)";
+    }
+}
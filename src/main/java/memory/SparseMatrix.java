@@ -0,0 +1,558 @@
+package memory;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A matrix that stores only its non-zero elements, in compressed form.
+ * In ROW_MAJOR orientation the stored vectors are the rows (CSR), in COLUMN_MAJOR they are the columns (CSC).
+ * The non-zeros of vector v are at positions pointers[v] .. pointers[v+1] of indices (their index inside the vector)
+ * and values, in increasing index order. As for SharedMatrix, transposing only flips the orientation.
+ * The kernels accept operands in either orientation and convert them, in time proportional to the non-zeros, when needed.
+ */
+public class SparseMatrix {
+
+    /**
+     * Matrices with at most this fraction of non-zeros are stored sparse, denser results are turned back into SharedMatrix.
+     */
+    public static final double DENSITY_THRESHOLD = 0.1;
+
+    /**
+     * Matrices with fewer elements are always stored dense, the dense kernels are faster at that size.
+     */
+    public static final long MIN_SPARSE_SIZE = 4096;
+
+    private final int numVectors;
+    private final int vectorLength;
+    private final VectorOrientation orientation;
+    private final int[] pointers;
+    private final int[] indices;
+    private final double[] values;
+
+    SparseMatrix(int[] pointers, int[] indices, double[] values, int vectorLength, VectorOrientation orientation) {
+        this.numVectors=pointers.length-1;
+        this.vectorLength=vectorLength;
+        this.orientation=orientation;
+        this.pointers=pointers;
+        this.indices=indices;
+        this.values=values;
+    }
+
+    /**
+     * Whether a matrix with the given number of non-zeros out of size elements is worth storing sparse.
+     */
+    public static boolean isSparseEnough(long nonZeros, long size) {
+        return size>=MIN_SPARSE_SIZE && nonZeros<=size*DENSITY_THRESHOLD;
+    }
+
+    /**
+     * Counts the non-zero elements among data[0 .. size). Negative zeros count as non-zero so that they survive compression.
+     */
+    public static long countNonZeros(double[] data, int size) {
+        long count=0;
+        for(int i=0;i<size;i++){
+            if(Double.doubleToRawLongBits(data[i])!=0)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Compresses a flat buffer laid out as in the SharedMatrix constructor: vector i occupies data[i*vectorLength .. (i+1)*vectorLength).
+     */
+    public static SparseMatrix compress(double[] data, int numVectors, int vectorLength, VectorOrientation orientation) {
+        if(numVectors<0 || vectorLength<0 || (long)numVectors*vectorLength>data.length)
+            throw new IllegalArgumentException("[compress]: Buffer is too small for the given shape");
+        int nonZeros=(int)countNonZeros(data, numVectors*vectorLength);
+        int[] pointers=new int[numVectors+1];
+        int[] indices=new int[nonZeros];
+        double[] values=new double[nonZeros];
+        int p=0;
+        for(int v=0;v<numVectors;v++){
+            int base=v*vectorLength;
+            for(int i=0;i<vectorLength;i++){
+                double x=data[base+i];
+                if(Double.doubleToRawLongBits(x)!=0){
+                    indices[p]=i;
+                    values[p++]=x;
+                }
+            }
+            pointers[v+1]=p;
+        }
+        return new SparseMatrix(pointers, indices, values, vectorLength, orientation);
+    }
+
+    /**
+     * Builds a row-major matrix from count (row, column, value) entries in any order. Duplicate entries are summed.
+     */
+    public static SparseMatrix fromEntries(int rows, int cols, int[] entryRows, int[] entryCols, double[] entryValues, int count) {
+        if(rows<0 || cols<0)
+            throw new IllegalArgumentException("[fromEntries]: Matrix dimensions must not be negative");
+        for(int e=0;e<count;e++){
+            if(entryRows[e]<0 || entryRows[e]>=rows || entryCols[e]<0 || entryCols[e]>=cols)
+                throw new IndexOutOfBoundsException("[fromEntries]: Entry (" + entryRows[e] + ", " + entryCols[e] + ") is outside the matrix");
+        }
+        // two stable counting sorts, by column then by row, leave every row's entries ordered by column
+        int[] byColumn=new int[count];
+        int[] columnStarts=new int[cols+1];
+        for(int e=0;e<count;e++){
+            columnStarts[entryCols[e]+1]++;
+        }
+        for(int c=0;c<cols;c++){
+            columnStarts[c+1]+=columnStarts[c];
+        }
+        for(int e=0;e<count;e++){
+            byColumn[columnStarts[entryCols[e]]++]=e;
+        }
+        int[] rowStarts=new int[rows+1];
+        for(int e=0;e<count;e++){
+            rowStarts[entryRows[e]+1]++;
+        }
+        for(int r=0;r<rows;r++){
+            rowStarts[r+1]+=rowStarts[r];
+        }
+        int[] pointers=Arrays.copyOf(rowStarts, rows+1);
+        int[] sorted=new int[count];
+        for(int e : byColumn){
+            sorted[rowStarts[entryRows[e]]++]=e;
+        }
+        int[] indices=new int[count];
+        double[] values=new double[count];
+        int p=0;
+        for(int r=0;r<rows;r++){
+            int start=p;
+            for(int s=pointers[r];s<pointers[r+1];s++){
+                int e=sorted[s];
+                if(p>start && indices[p-1]==entryCols[e]){
+                    values[p-1]+=entryValues[e];
+                }
+                else{
+                    indices[p]=entryCols[e];
+                    values[p++]=entryValues[e];
+                }
+            }
+            pointers[r]=start;
+        }
+        pointers[rows]=p;
+        if(p<count){
+            indices=Arrays.copyOf(indices, p);
+            values=Arrays.copyOf(values, p);
+        }
+        return new SparseMatrix(pointers, indices, values, cols, VectorOrientation.ROW_MAJOR);
+    }
+
+    /**
+     * Returns the same matrix as a dense SharedMatrix stored in this matrix's orientation.
+     */
+    public SharedMatrix toDense() {
+        if(numVectors==0)
+            return new SharedMatrix();
+        long size=(long)numVectors*vectorLength;
+        if(size>Integer.MAX_VALUE)
+            throw new IllegalArgumentException("[toDense]: Matrix is too large for a single buffer");
+        double[] data=new double[(int)size];
+        for(int v=0;v<numVectors;v++){
+            int base=v*vectorLength;
+            for(int p=pointers[v];p<pointers[v+1];p++){
+                data[base+indices[p]]=values[p];
+            }
+        }
+        return new SharedMatrix(data, numVectors, vectorLength, orientation);
+    }
+
+    public int length() {
+        return numVectors;
+    }
+
+    public VectorOrientation getOrientation() {
+        return orientation;
+    }
+
+    public int rows() {
+        return orientation==VectorOrientation.ROW_MAJOR ? numVectors : vectorLength;
+    }
+
+    public int cols() {
+        return orientation==VectorOrientation.ROW_MAJOR ? vectorLength : numVectors;
+    }
+
+    public int nonZeros() {
+        return pointers[numVectors];
+    }
+
+    public double density() {
+        long size=(long)numVectors*vectorLength;
+        return size==0 ? 0 : (double)nonZeros()/size;
+    }
+
+    /**
+     * Returns the transpose, sharing this matrix's arrays: the rows of a CSR matrix are the columns of its transpose's CSC form.
+     */
+    public SparseMatrix transpose() {
+        VectorOrientation flipped=orientation==VectorOrientation.ROW_MAJOR ? VectorOrientation.COLUMN_MAJOR : VectorOrientation.ROW_MAJOR;
+        return new SparseMatrix(pointers, indices, values, vectorLength, flipped);
+    }
+
+    /**
+     * Returns the same matrix stored in the given orientation, converting between CSR and CSC if needed.
+     */
+    public SparseMatrix toOrientation(VectorOrientation target) {
+        if(target==orientation)
+            return this;
+        int nonZeros=nonZeros();
+        int[] newPointers=new int[vectorLength+1];
+        for(int p=0;p<nonZeros;p++){
+            newPointers[indices[p]+1]++;
+        }
+        for(int i=0;i<vectorLength;i++){
+            newPointers[i+1]+=newPointers[i];
+        }
+        int[] next=Arrays.copyOf(newPointers, vectorLength);
+        int[] newIndices=new int[nonZeros];
+        double[] newValues=new double[nonZeros];
+        for(int v=0;v<numVectors;v++){ //vectors are visited in order, so every new vector's indices come out sorted
+            for(int p=pointers[v];p<pointers[v+1];p++){
+                int q=next[indices[p]]++;
+                newIndices[q]=v;
+                newValues[q]=values[p];
+            }
+        }
+        return new SparseMatrix(newPointers, newIndices, newValues, numVectors, target);
+    }
+
+    /**
+     * Returns a copy that can be negated without affecting this matrix.
+     * Only the values are copied: the structure arrays are never modified once built, so they are shared.
+     */
+    public SparseMatrix copy() {
+        return new SparseMatrix(pointers, indices, Arrays.copyOf(values, values.length), vectorLength, orientation);
+    }
+
+    /**
+     * Hash of the orientation, shape and stored entries, consistent with contentEquals.
+     */
+    public int contentHash() {
+        int hash=31*orientation.ordinal()+numVectors;
+        hash=31*hash+vectorLength;
+        int nonZeros=nonZeros();
+        for(int v=0;v<=numVectors;v++){
+            hash=31*hash+pointers[v];
+        }
+        for(int p=0;p<nonZeros;p++){
+            hash=31*(31*hash+indices[p])+Double.hashCode(values[p]);
+        }
+        return hash;
+    }
+
+    /**
+     * Feeds the orientation, shape and stored entries to the digest, so matrices that are equal
+     * in the sense of contentEquals give equal digests.
+     */
+    public void digest(MessageDigest digest) {
+        int nonZeros=nonZeros();
+        Digests.update(digest, orientation.ordinal(), numVectors, vectorLength, nonZeros);
+        Digests.update(digest, pointers, numVectors+1);
+        Digests.update(digest, indices, nonZeros);
+        Digests.update(digest, values, nonZeros);
+    }
+
+    /**
+     * Whether other stores exactly the same entries in the same orientation (values compared bit for bit,
+     * so 0.0 and -0.0 differ and NaN equals NaN).
+     */
+    public boolean contentEquals(SparseMatrix other) {
+        if(other==this)
+            return true;
+        int nonZeros=nonZeros();
+        return orientation==other.orientation && numVectors==other.numVectors && vectorLength==other.vectorLength
+                && Arrays.equals(pointers, 0, numVectors+1, other.pointers, 0, numVectors+1)
+                && Arrays.equals(indices, 0, nonZeros, other.indices, 0, nonZeros)
+                && Arrays.equals(values, 0, nonZeros, other.values, 0, nonZeros);
+    }
+
+    /**
+     * Negates the stored non-zeros at positions [from, to) in place. Tasks negating disjoint ranges may run concurrently.
+     */
+    public void negate(int from, int to) {
+        if(from<0 || from>to || to>nonZeros())
+            throw new IndexOutOfBoundsException("[negate]: Invalid range");
+        for(int p=from;p<to;p++){
+            values[p]=-values[p];
+        }
+    }
+
+    /**
+     * Returns the tasks adding sign * s into the dense matrix in place, at most numTasks of them.
+     */
+    public static List<Runnable> createAddToTasks(SparseMatrix s, SharedMatrix dense, double sign, int numTasks) {
+        if(s.rows()!=dense.rows() || s.cols()!=dense.cols())
+            throw new IllegalArgumentException("[createAddToTasks]: Matrix lengths don't match");
+        List<Runnable> tasks=new ArrayList<>();
+        if(dense.length()==0)
+            return tasks;
+        SparseMatrix source=s.toOrientation(dense.getOrientation());
+        int[] bounds=source.split(numTasks);
+        for(int t=0;t+1<bounds.length;t++){
+            int from=bounds[t], to=bounds[t+1];
+            tasks.add(() -> {
+                for(int v=from;v<to;v++){
+                    SharedVector vector=dense.get(v);
+                    vector.writeLock();
+                    try{
+                        double[] buf=vector.buffer();
+                        int base=vector.offset();
+                        for(int p=source.pointers[v];p<source.pointers[v+1];p++){
+                            buf[base+source.indices[p]]+=sign*source.values[p];
+                        }
+                    }
+                    finally{
+                        vector.writeUnlock();
+                    }
+                }
+            });
+        }
+        return tasks;
+    }
+
+    /**
+     * Returns the tasks computing the sparse x dense product a x b into c, at most numTasks of them.
+     * c must be a ROW_MAJOR matrix of shape a.rows() x b.cols(), its previous contents are overwritten.
+     */
+    public static List<Runnable> createMultiplyTasks(SparseMatrix a, SharedMatrix b, SharedMatrix c, int numTasks) {
+        int m=a.rows(), k=a.cols(), n=b.cols();
+        checkProductShape(m, k, b.rows(), n, c);
+        SparseMatrix left=a.toOrientation(VectorOrientation.ROW_MAJOR);
+        double[] right=rowMajorData(b);
+        double[] out=c.flatData();
+        List<Runnable> tasks=new ArrayList<>();
+        int[] bounds=left.split(numTasks);
+        for(int t=0;t+1<bounds.length;t++){
+            int from=bounds[t], to=bounds[t+1];
+            tasks.add(() -> {
+                for(int i=from;i<to;i++){
+                    int row=i*n;
+                    Arrays.fill(out, row, row+n, 0);
+                    for(int p=left.pointers[i];p<left.pointers[i+1];p++){
+                        VectorKernels.INSTANCE.axpy(left.values[p], right, left.indices[p]*n, out, row, n);
+                    }
+                }
+            });
+        }
+        return tasks;
+    }
+
+    /**
+     * Returns the tasks computing the dense x sparse product a x b into c, at most numTasks of them.
+     * c must be a ROW_MAJOR matrix of shape a.rows() x b.cols(), its previous contents are overwritten.
+     */
+    public static List<Runnable> createMultiplyTasks(SharedMatrix a, SparseMatrix b, SharedMatrix c, int numTasks) {
+        int m=a.rows(), k=a.cols(), n=b.cols();
+        checkProductShape(m, k, b.rows(), n, c);
+        double[] left=rowMajorData(a);
+        SparseMatrix right=b.toOrientation(VectorOrientation.ROW_MAJOR);
+        double[] out=c.flatData();
+        List<Runnable> tasks=new ArrayList<>();
+        int parts=Math.max(1, Math.min(numTasks, m));
+        for(int t=0;t<parts && m>0;t++){
+            int from=(int)((long)m*t/parts), to=(int)((long)m*(t+1)/parts);
+            tasks.add(() -> {
+                for(int i=from;i<to;i++){
+                    int row=i*n;
+                    Arrays.fill(out, row, row+n, 0);
+                    for(int kk=0;kk<k;kk++){
+                        double x=left[i*k+kk];
+                        for(int p=right.pointers[kk];p<right.pointers[kk+1];p++){
+                            out[row+right.indices[p]]+=x*right.values[p];
+                        }
+                    }
+                }
+            });
+        }
+        return tasks;
+    }
+
+    /**
+     * Computes the sparse x sparse product a x b (Gustavson's row-by-row algorithm), running its tasks through runner.
+     * Each task accumulates one block of output rows in a dense scratch row, so time and memory follow the non-zeros.
+     */
+    public static SparseMatrix multiply(SparseMatrix a, SparseMatrix b, int numTasks, Consumer<List<Runnable>> runner) {
+        if(a.cols()!=b.rows())
+            throw new IllegalArgumentException("[multiply]: Left matrix columns don't match right matrix rows");
+        SparseMatrix left=a.toOrientation(VectorOrientation.ROW_MAJOR);
+        SparseMatrix right=b.toOrientation(VectorOrientation.ROW_MAJOR);
+        int m=left.numVectors, n=right.vectorLength;
+        int[] bounds=left.split(numTasks);
+        int blocks=bounds.length-1;
+        int[] rowCounts=new int[m];
+        int[][] blockIndices=new int[blocks][];
+        double[][] blockValues=new double[blocks][];
+        List<Runnable> tasks=new ArrayList<>();
+        for(int t=0;t<blocks;t++){
+            int block=t, from=bounds[t], to=bounds[t+1];
+            tasks.add(() -> {
+                double[] acc=new double[n];
+                int[] marker=new int[n];
+                Arrays.fill(marker, -1);
+                int[] touched=new int[n];
+                int[] outIndices=new int[Math.max(16, left.pointers[to]-left.pointers[from])];
+                double[] outValues=new double[outIndices.length];
+                int size=0;
+                for(int i=from;i<to;i++){
+                    int count=0;
+                    for(int p=left.pointers[i];p<left.pointers[i+1];p++){
+                        double x=left.values[p];
+                        int kk=left.indices[p];
+                        for(int q=right.pointers[kk];q<right.pointers[kk+1];q++){
+                            int j=right.indices[q];
+                            if(marker[j]!=i){
+                                marker[j]=i;
+                                acc[j]=0;
+                                touched[count++]=j;
+                            }
+                            acc[j]+=x*right.values[q];
+                        }
+                    }
+                    Arrays.sort(touched, 0, count);
+                    if(size+count>outIndices.length){
+                        int capacity=Math.max(size+count, outIndices.length*2);
+                        outIndices=Arrays.copyOf(outIndices, capacity);
+                        outValues=Arrays.copyOf(outValues, capacity);
+                    }
+                    for(int c=0;c<count;c++){
+                        outIndices[size]=touched[c];
+                        outValues[size++]=acc[touched[c]];
+                    }
+                    rowCounts[i]=count;
+                }
+                blockIndices[block]=Arrays.copyOf(outIndices, size);
+                blockValues[block]=Arrays.copyOf(outValues, size);
+            });
+        }
+        runner.accept(tasks);
+        int[] pointers=new int[m+1];
+        for(int i=0;i<m;i++){
+            pointers[i+1]=Math.addExact(pointers[i], rowCounts[i]);
+        }
+        int[] indices=new int[pointers[m]];
+        double[] values=new double[pointers[m]];
+        int pos=0;
+        for(int t=0;t<blocks;t++){
+            System.arraycopy(blockIndices[t], 0, indices, pos, blockIndices[t].length);
+            System.arraycopy(blockValues[t], 0, values, pos, blockValues[t].length);
+            pos+=blockIndices[t].length;
+        }
+        return new SparseMatrix(pointers, indices, values, n, VectorOrientation.ROW_MAJOR);
+    }
+
+    /**
+     * Computes a + sign * b by merging the vectors of both operands, running its tasks through runner.
+     * The result is stored in a's orientation.
+     */
+    public static SparseMatrix add(SparseMatrix a, SparseMatrix b, double sign, int numTasks, Consumer<List<Runnable>> runner) {
+        if(a.rows()!=b.rows() || a.cols()!=b.cols())
+            throw new IllegalArgumentException("[add]: Matrix lengths don't match");
+        SparseMatrix right=b.toOrientation(a.orientation);
+        int[] bounds=a.split(numTasks);
+        int[] pointers=new int[a.numVectors+1];
+        List<Runnable> counting=new ArrayList<>();
+        for(int t=0;t+1<bounds.length;t++){
+            int from=bounds[t], to=bounds[t+1];
+            counting.add(() -> {
+                for(int v=from;v<to;v++){
+                    pointers[v+1]=mergeVector(a, right, v, sign, null, null, 0);
+                }
+            });
+        }
+        runner.accept(counting);
+        for(int v=0;v<a.numVectors;v++){
+            pointers[v+1]=Math.addExact(pointers[v+1], pointers[v]);
+        }
+        int[] indices=new int[pointers[a.numVectors]];
+        double[] values=new double[indices.length];
+        List<Runnable> filling=new ArrayList<>();
+        for(int t=0;t+1<bounds.length;t++){
+            int from=bounds[t], to=bounds[t+1];
+            filling.add(() -> {
+                for(int v=from;v<to;v++){
+                    mergeVector(a, right, v, sign, indices, values, pointers[v]);
+                }
+            });
+        }
+        runner.accept(filling);
+        return new SparseMatrix(pointers, indices, values, a.vectorLength, a.orientation);
+    }
+
+    // Merges vector v of a and sign * b into indices/values starting at out, or only counts the merged entries when indices is null
+    private static int mergeVector(SparseMatrix a, SparseMatrix b, int v, double sign, int[] indices, double[] values, int out) {
+        int p=a.pointers[v], pEnd=a.pointers[v+1];
+        int q=b.pointers[v], qEnd=b.pointers[v+1];
+        int count=0;
+        while(p<pEnd || q<qEnd){
+            int index;
+            double value;
+            if(q==qEnd || (p<pEnd && a.indices[p]<b.indices[q])){
+                index=a.indices[p];
+                value=a.values[p++];
+            }
+            else if(p==pEnd || b.indices[q]<a.indices[p]){
+                index=b.indices[q];
+                value=0.0+sign*b.values[q++]; //adding the absent zero as the dense kernels do, so 0 - 0 stays 0 rather than -0
+            }
+            else{
+                index=a.indices[p];
+                value=a.values[p++]+sign*b.values[q++];
+            }
+            if(indices!=null){
+                indices[out+count]=index;
+                values[out+count]=value;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Splits the vectors into at most numTasks ranges of about equal work, counting one unit per vector and per non-zero.
+     * Returns the range boundaries, from 0 to numVectors.
+     */
+    private int[] split(int numTasks) {
+        int parts=Math.max(1, Math.min(numTasks, numVectors));
+        long total=(long)nonZeros()+numVectors;
+        int[] bounds=new int[parts+1];
+        int count=1;
+        for(int t=1;t<parts;t++){
+            long target=total*t/parts;
+            int lo=bounds[count-1], hi=numVectors;
+            while(lo<hi){ //first vector whose start reaches the target
+                int mid=(lo+hi)>>>1;
+                if((long)pointers[mid]+mid<target)
+                    lo=mid+1;
+                else
+                    hi=mid;
+            }
+            if(lo>bounds[count-1] && lo<numVectors)
+                bounds[count++]=lo;
+        }
+        bounds[count++]=numVectors;
+        return numVectors==0 ? new int[]{0} : Arrays.copyOf(bounds, count);
+    }
+
+    private static void checkProductShape(int m, int k, int bRows, int n, SharedMatrix c) {
+        if(k!=bRows)
+            throw new IllegalArgumentException("[createMultiplyTasks]: Left matrix columns don't match right matrix rows");
+        if(c.rows()!=m || c.cols()!=n || (m>0 && n>0 && c.getOrientation()!=VectorOrientation.ROW_MAJOR))
+            throw new IllegalArgumentException("[createMultiplyTasks]: Output matrix has the wrong shape or orientation");
+    }
+
+    // The dense operand's elements row after row, copying only if it is stored column-major
+    private static double[] rowMajorData(SharedMatrix matrix) {
+        if(matrix.length()==0)
+            return new double[0];
+        if(matrix.getOrientation()==VectorOrientation.ROW_MAJOR)
+            return matrix.flatData();
+        return matrix.copy(VectorOrientation.ROW_MAJOR).flatData();
+    }
+}
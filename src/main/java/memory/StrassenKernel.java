@@ -0,0 +1,303 @@
+package memory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Matrix multiplication C = A x B with the Winograd variant of Strassen's algorithm: 7 half-size products and
+ * 15 additions per level instead of 8 products, recursing until a dimension drops below the crossover, where the
+ * blocked GemmKernel takes over.
+ * Odd and rectangular dimensions are handled by peeling: each level runs Strassen on the even-sized leading part
+ * and adds the odd last row, column and inner index afterwards with thin classic products.
+ * The 7 products of the top levels are independent tasks on the executor. Those levels keep the operand sums and
+ * three of the products in temporary buffers, about 2.75 times the size of the output; the levels below run
+ * sequentially inside a task with the two-temporary schedule of Boyer, Dumas, Pernet and Zhou (ISSAC 2009).
+ *
+ * <p>Accuracy: the result is not as accurate as the classic product. The classic product satisfies the componentwise
+ * bound |C - fl(C)| <= k u |A||B| (u = 2^-53, k the inner dimension), while for this variant only a normwise bound
+ * holds (Higham, Accuracy and Stability of Numerical Algorithms, 2nd ed., section 23.2.2):
+ * <pre>
+ *   max|C - fl(C)| <= [ (n/n0)^log2(18) (n0^2 + 6 n0) - 6n ] u max|A| max|B| + O(u^2)
+ * </pre>
+ * with n the size and n0 the size at which the recursion stops. Each level multiplies the bound by about
+ * 18/4 = 4.5, so the error grows with the number of levels, and elements much smaller than max|A| max|B| can lose
+ * most of their relative accuracy. Exact results are kept for integer inputs whose intermediate values stay below 2^53.
+ * For that reason Strassen is opt-in (see LinearAlgebraEngine.MULTIPLY_PROPERTY) and the crossover should stay high.
+ */
+public final class StrassenKernel {
+
+    /**
+     * System property with the smallest dimension at which a product is split further (default DEFAULT_CROSSOVER).
+     */
+    public static final String CROSSOVER_PROPERTY = "lae.strassen.crossover";
+    static final int DEFAULT_CROSSOVER = 1024; // below this the blocked kernel is faster than another level
+    private static final int MIN_CROSSOVER = 16;
+
+    public static final int CROSSOVER = Math.max(MIN_CROSSOVER, Integer.getInteger(CROSSOVER_PROPERTY, DEFAULT_CROSSOVER));
+
+    private final Consumer<List<Runnable>> runner;
+
+    private StrassenKernel(Consumer<List<Runnable>> runner) {
+        this.runner = runner;
+    }
+
+    /**
+     * Whether an m x k by k x n product is large enough in every dimension for at least one Strassen level.
+     */
+    public static boolean applies(int m, int k, int n) {
+        return Math.min(m, Math.min(k, n)) >= CROSSOVER;
+    }
+
+    /**
+     * Computes a x b into c, a ROW_MAJOR matrix of shape a.rows() x b.cols() whose previous contents are overwritten.
+     * The top levels of the recursion are expanded until there are at least numWorkers independent products,
+     * which are handed to the runner as one batch per level; the runner must return only once its tasks are done.
+     * The operands may be stored in either orientation and must not change meanwhile.
+     */
+    public static void multiply(SharedMatrix a, SharedMatrix b, SharedMatrix c, int numWorkers, Consumer<List<Runnable>> runner) {
+        int m = a.rows();
+        int k = a.cols();
+        int n = b.cols();
+        if (k != b.rows()) {
+            throw new IllegalArgumentException("[StrassenKernel]: Left matrix columns don't match right matrix rows");
+        }
+        if (c.rows() != m || c.cols() != n || (m > 0 && c.getOrientation() != VectorOrientation.ROW_MAJOR)) {
+            throw new IllegalArgumentException("[StrassenKernel]: Output matrix has the wrong shape or orientation");
+        }
+        int depth = Math.min(levels(m, k, n), parallelDepth(numWorkers));
+        new StrassenKernel(runner).product(Block.of(a), Block.of(b), new Block(c.flatData(), 0, n, 1, m, n), depth);
+    }
+
+    // Number of Strassen levels an m x k by k x n product goes through before reaching the crossover
+    private static int levels(int m, int k, int n) {
+        int levels = 0;
+        while (Math.min(m, Math.min(k, n)) >= CROSSOVER) {
+            levels++;
+            m /= 2;
+            k /= 2;
+            n /= 2;
+        }
+        return levels;
+    }
+
+    // Levels to expand before the products are enough tasks for every worker: 7^depth >= numWorkers
+    private static int parallelDepth(int numWorkers) {
+        int depth = 1;
+        for (long products = 7; products < numWorkers; products *= 7) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Writes a x b into the row-major block c, overwriting it.
+     * The top parallelDepth levels run their 7 products concurrently, the levels below run on the calling thread.
+     */
+    private void product(Block a, Block b, Block c, int parallelDepth) {
+        int m = a.rows;
+        int k = a.cols;
+        int n = b.cols;
+        if (m == 0 || n == 0) {
+            return;
+        }
+        if (Math.min(m, Math.min(k, n)) < CROSSOVER) {
+            classic(a, b, c, 0, m, 0, n);
+            return;
+        }
+        int mh = m / 2;
+        int kh = k / 2;
+        int nh = n / 2;
+        Block[] quadrants = {
+                a.sub(0, 0, mh, kh), a.sub(0, kh, mh, kh), a.sub(mh, 0, mh, kh), a.sub(mh, kh, mh, kh),
+                b.sub(0, 0, kh, nh), b.sub(0, nh, kh, nh), b.sub(kh, 0, kh, nh), b.sub(kh, nh, kh, nh),
+                c.sub(0, 0, mh, nh), c.sub(0, nh, mh, nh), c.sub(mh, 0, mh, nh), c.sub(mh, nh, mh, nh)};
+        if (parallelDepth > 0) {
+            parallelLevel(quadrants, parallelDepth);
+        } else {
+            sequentialLevel(quadrants);
+        }
+        peel(a, b, c, 2 * mh, 2 * kh, 2 * nh);
+    }
+
+    // One level on the calling thread, with two temporaries and the quadrants of C as workspace
+    private void sequentialLevel(Block[] q) {
+        Block a11 = q[0], a12 = q[1], a21 = q[2], a22 = q[3];
+        Block b11 = q[4], b12 = q[5], b21 = q[6], b22 = q[7];
+        Block c11 = q[8], c12 = q[9], c21 = q[10], c22 = q[11];
+        int mh = a11.rows, kh = a11.cols, nh = b11.cols;
+        double[] xBuffer = new double[mh * Math.max(kh, nh)];
+        Block x = new Block(xBuffer, 0, kh, 1, mh, kh); // S3, S1, S2, S4 in turn
+        Block p1 = new Block(xBuffer, 0, nh, 1, mh, nh); // P1, once S4 is no longer needed
+        Block y = Block.allocate(kh, nh); // T3, T1, T2, T4 in turn
+
+        add(x, a11, -1, a21); // S3
+        add(y, b22, -1, b12); // T3
+        product(x, y, c21, 0); // P7
+        add(x, a21, 1, a22); // S1
+        add(y, b12, -1, b11); // T1
+        product(x, y, c22, 0); // P5
+        add(x, x, -1, a11); // S2 = S1 - A11
+        add(y, b22, -1, y); // T2 = B22 - T1
+        product(x, y, c12, 0); // P6
+        add(x, a12, -1, x); // S4 = A12 - S2
+        add(y, y, -1, b21); // T4 = T2 - B21
+        product(x, b22, c11, 0); // P3
+        product(a11, b11, p1, 0); // P1
+        add(c12, p1, 1, c12); // U2 = P1 + P6
+        add(c21, c12, 1, c21); // U3 = U2 + P7
+        add(c12, c12, 1, c22); // U4 = U2 + P5
+        add(c22, c21, 1, c22); // U7 = U3 + P5, C22
+        add(c12, c12, 1, c11); // U5 = U4 + P3, C12
+        product(a22, y, c11, 0); // P4
+        add(c21, c21, -1, c11); // U6 = U3 - P4, C21
+        product(a12, b21, c11, 0); // P2
+        add(c11, p1, 1, c11); // U1 = P1 + P2, C11
+    }
+
+    // One level whose 7 products run concurrently: as one batch of tasks, or expanded further on virtual threads
+    private void parallelLevel(Block[] q, int parallelDepth) {
+        Block a11 = q[0], a12 = q[1], a21 = q[2], a22 = q[3];
+        Block b11 = q[4], b12 = q[5], b21 = q[6], b22 = q[7];
+        Block c11 = q[8], c12 = q[9], c21 = q[10], c22 = q[11];
+        int mh = a11.rows, kh = a11.cols, nh = b11.cols;
+        Block s1 = Block.allocate(mh, kh), s2 = Block.allocate(mh, kh), s3 = Block.allocate(mh, kh), s4 = Block.allocate(mh, kh);
+        Block t1 = Block.allocate(kh, nh), t2 = Block.allocate(kh, nh), t3 = Block.allocate(kh, nh), t4 = Block.allocate(kh, nh);
+        add(s1, a21, 1, a22);
+        add(s2, s1, -1, a11);
+        add(s3, a11, -1, a21);
+        add(s4, a12, -1, s2);
+        add(t1, b12, -1, b11);
+        add(t2, b22, -1, t1);
+        add(t3, b22, -1, b12);
+        add(t4, t2, -1, b21);
+        // P1, P3, P4 and P5 go straight into the quadrants of C, which the combine below reads before writing
+        Block p2 = Block.allocate(mh, nh), p6 = Block.allocate(mh, nh), p7 = Block.allocate(mh, nh);
+        Block[][] products = {
+                {a11, b11, c11}, {a12, b21, p2}, {s4, b22, c12}, {a22, t4, c21}, {s1, t1, c22}, {s2, t2, p6}, {s3, t3, p7}};
+        if (parallelDepth == 1) {
+            List<Runnable> tasks = new ArrayList<>(products.length);
+            for (Block[] p : products) {
+                tasks.add(() -> product(p[0], p[1], p[2], 0));
+            }
+            runner.accept(tasks);
+        } else {
+            // each product expands its own levels and hands its tasks to the runner concurrently with the others
+            try (ExecutorService expanders = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<?>> expanded = new ArrayList<>(products.length);
+                for (Block[] p : products) {
+                    expanded.add(expanders.submit(() -> product(p[0], p[1], p[2], parallelDepth - 1)));
+                }
+                for (Future<?> future : expanded) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw new IllegalStateException("[StrassenKernel]: A product failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("[StrassenKernel]: Interrupted while multiplying", e);
+            }
+        }
+        combine(c11, p2, c12, c21, c22, p6, p7, c11, c12, c21, c22);
+    }
+
+    // Assembles the quadrants of C from the products P1..P7, which may be stored in those same quadrants
+    private static void combine(Block p1, Block p2, Block p3, Block p4, Block p5, Block p6, Block p7,
+                                Block c11, Block c12, Block c21, Block c22) {
+        for (int i = 0; i < c11.rows; i++) {
+            for (int j = 0; j < c11.cols; j++) {
+                double v1 = p1.get(i, j), v2 = p2.get(i, j), v3 = p3.get(i, j), v4 = p4.get(i, j);
+                double v5 = p5.get(i, j), v6 = p6.get(i, j), v7 = p7.get(i, j);
+                double u2 = v1 + v6;
+                double u3 = u2 + v7;
+                c11.set(i, j, v1 + v2);
+                c12.set(i, j, u2 + v5 + v3);
+                c21.set(i, j, u3 - v4);
+                c22.set(i, j, u3 + v5);
+            }
+        }
+    }
+
+    // Adds what the even-sized Strassen product of a and b left out: the odd last inner index, column and row
+    private static void peel(Block a, Block b, Block c, int m2, int k2, int n2) {
+        int m = a.rows;
+        int k = a.cols;
+        int n = b.cols;
+        if (k2 < k) {
+            for (int i = 0; i < m2; i++) {
+                double aik = a.get(i, k - 1);
+                for (int j = 0; j < n2; j++) {
+                    c.set(i, j, c.get(i, j) + aik * b.get(k - 1, j));
+                }
+            }
+        }
+        if (n2 < n) {
+            classic(a, b, c, 0, m2, n2, n);
+        }
+        if (m2 < m) {
+            classic(a, b, c, m2, m, 0, n);
+        }
+    }
+
+    // Rows [i0, i1) and columns [j0, j1) of a x b into c with the blocked kernel
+    private static void classic(Block a, Block b, Block c, int i0, int i1, int j0, int j1) {
+        GemmKernel.multiplyTile(a.operand(), b.operand(), a.cols, c.data, c.offset, c.rowStride, i0, i1, j0, j1);
+    }
+
+    // out = x + sign*y element by element; out may be x or y itself
+    private static void add(Block out, Block x, double sign, Block y) {
+        for (int i = 0; i < out.rows; i++) {
+            int o = out.offset + i * out.rowStride;
+            int xi = x.offset + i * x.rowStride;
+            int yi = y.offset + i * y.rowStride;
+            if (sign == 1) {
+                for (int j = 0; j < out.cols; j++) {
+                    out.data[o + j] = x.data[xi + j * x.colStride] + y.data[yi + j * y.colStride];
+                }
+            } else {
+                for (int j = 0; j < out.cols; j++) {
+                    out.data[o + j] = x.data[xi + j * x.colStride] - y.data[yi + j * y.colStride];
+                }
+            }
+        }
+    }
+
+    /**
+     * A strided view of rows x cols elements: element (i, j) is data[offset + i*rowStride + j*colStride].
+     * Blocks that are written to are always row-major (colStride 1).
+     */
+    private record Block(double[] data, int offset, int rowStride, int colStride, int rows, int cols) {
+
+        static Block of(SharedMatrix matrix) {
+            GemmKernel.Operand operand = new GemmKernel.Operand(matrix);
+            return new Block(operand.data, operand.offset, operand.rowStride, operand.colStride, matrix.rows(), matrix.cols());
+        }
+
+        static Block allocate(int rows, int cols) {
+            return new Block(new double[rows * cols], 0, cols, 1, rows, cols);
+        }
+
+        Block sub(int i0, int j0, int rows, int cols) {
+            return new Block(data, offset + i0 * rowStride + j0 * colStride, rowStride, colStride, rows, cols);
+        }
+
+        double get(int i, int j) {
+            return data[offset + i * rowStride + j * colStride];
+        }
+
+        void set(int i, int j, double value) {
+            data[offset + i * rowStride + j * colStride] = value;
+        }
+
+        GemmKernel.Operand operand() {
+            return new GemmKernel.Operand(data, offset, rowStride, colStride);
+        }
+    }
+}
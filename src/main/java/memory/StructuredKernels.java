@@ -0,0 +1,150 @@
+package memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Multiply kernels for operands with known structure, built on the tiles of GemmKernel:
+ * <ul>
+ *     <li>Gram products A x A^T and A^T x A are symmetric, so only the tiles on and below the diagonal are computed
+ *     and each is mirrored above it (SYRK): about half the multiply-adds of the general product.</li>
+ *     <li>A triangular operand limits every output tile to the inner indices where it is non-zero,
+ *     which skips about half the multiply-adds (three quarters when both operands are triangular).</li>
+ *     <li>A diagonal operand scales the rows or columns of the other one, with one multiplication per element.</li>
+ * </ul>
+ * Skipped terms are products with exact zeros, so results are those of the full product, except that an infinite
+ * or NaN element facing a skipped zero does not turn the result into NaN. Like GemmKernel, every kernel writes a
+ * ROW_MAJOR output, overwriting its previous contents, and reads operands stored in either orientation.
+ */
+public final class StructuredKernels {
+
+    private StructuredKernels() {}
+
+    /**
+     * Returns the tasks computing a x a^T (or a^T x a if transposeFirst) into the square matrix c,
+     * one task per tile on or below the diagonal. Tiles are at most GemmKernel.TILE_ROWS wide, so the diagonal tiles,
+     * computed in full, are a small share of the work.
+     */
+    public static List<Runnable> createGramTasks(SharedMatrix a, boolean transposeFirst, SharedMatrix c, int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("[createGramTasks]: Tile size must be positive");
+        }
+        int tile = Math.min(tileSize, GemmKernel.TILE_ROWS);
+        int n = transposeFirst ? a.cols() : a.rows();
+        int k = transposeFirst ? a.rows() : a.cols();
+        checkOutput(c, n, n, "createGramTasks");
+        GemmKernel.Operand stored = new GemmKernel.Operand(a);
+        GemmKernel.Operand transposed = transposed(stored);
+        GemmKernel.Operand left = transposeFirst ? transposed : stored;
+        GemmKernel.Operand right = transposeFirst ? stored : transposed;
+        double[] out = c.flatData();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i0 = 0; i0 < n; i0 += tile) {
+            int i1 = Math.min(i0 + tile, n);
+            for (int j0 = 0; j0 <= i0; j0 += tile) {
+                int j1 = Math.min(j0 + tile, n);
+                int rowStart = i0, colStart = j0;
+                tasks.add(() -> {
+                    GemmKernel.multiplyTile(left, right, k, out, 0, n, rowStart, i1, colStart, j1);
+                    // mirror the tile above the diagonal; a diagonal tile mirrors its own lower half, so c is exactly symmetric
+                    for (int i = rowStart; i < i1; i++) {
+                        for (int j = colStart; j < Math.min(j1, i); j++) {
+                            out[j * n + i] = out[i * n + j];
+                        }
+                    }
+                });
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Returns the tasks computing a x b into c, one task per tile of tileRows x tileCols, where each operand has the
+     * given structure (GENERAL, LOWER_TRIANGULAR or UPPER_TRIANGULAR; a triangular operand is square).
+     * Each tile only runs over the inner indices where both operands may be non-zero; tiles along a triangular
+     * operand are at most GemmKernel.TILE_ROWS wide, as the zeros inside a tile's range are still multiplied.
+     */
+    public static List<Runnable> createTriangularTasks(SharedMatrix a, MatrixStructure aStructure, SharedMatrix b,
+                                                       MatrixStructure bStructure, SharedMatrix c, int tileRows, int tileCols) {
+        if (tileRows <= 0 || tileCols <= 0) {
+            throw new IllegalArgumentException("[createTriangularTasks]: Tile sizes must be positive");
+        }
+        int m = a.rows();
+        int k = a.cols();
+        int n = b.cols();
+        if (k != b.rows()) {
+            throw new IllegalArgumentException("[createTriangularTasks]: Left matrix columns don't match right matrix rows");
+        }
+        checkOutput(c, m, n, "createTriangularTasks");
+        if (aStructure != MatrixStructure.GENERAL) {
+            tileRows = Math.min(tileRows, GemmKernel.TILE_ROWS);
+        }
+        if (bStructure != MatrixStructure.GENERAL) {
+            tileCols = Math.min(tileCols, GemmKernel.TILE_ROWS);
+        }
+        GemmKernel.Operand left = new GemmKernel.Operand(a);
+        GemmKernel.Operand right = new GemmKernel.Operand(b);
+        double[] out = c.flatData();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i0 = 0; i0 < m; i0 += tileRows) {
+            int i1 = Math.min(i0 + tileRows, m);
+            for (int j0 = 0; j0 < n; j0 += tileCols) {
+                int j1 = Math.min(j0 + tileCols, n);
+                // a(i, p) is zero for p > i when lower and p < i when upper; b(p, j) for p < j when lower and p > j when upper
+                int pFrom = Math.max(aStructure == MatrixStructure.UPPER_TRIANGULAR ? i0 : 0,
+                        bStructure == MatrixStructure.LOWER_TRIANGULAR ? j0 : 0);
+                int pTo = Math.min(aStructure == MatrixStructure.LOWER_TRIANGULAR ? i1 : k,
+                        bStructure == MatrixStructure.UPPER_TRIANGULAR ? j1 : k);
+                int rowStart = i0, colStart = j0;
+                GemmKernel.Operand aPart = new GemmKernel.Operand(left.data, left.offset + pFrom * left.colStride, left.rowStride, left.colStride);
+                GemmKernel.Operand bPart = new GemmKernel.Operand(right.data, right.offset + pFrom * right.rowStride, right.rowStride, right.colStride);
+                tasks.add(() -> GemmKernel.multiplyTile(aPart, bPart, Math.max(0, pTo - pFrom), out, 0, n, rowStart, i1, colStart, j1));
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Returns at most numTasks tasks computing d x b (or b x d if diagonalFirst is false) into c, for a diagonal d.
+     */
+    public static List<Runnable> createDiagonalTasks(SharedMatrix d, SharedMatrix b, boolean diagonalFirst, SharedMatrix c, int numTasks) {
+        int m = diagonalFirst ? d.rows() : b.rows();
+        int n = diagonalFirst ? b.cols() : d.cols();
+        if (diagonalFirst ? d.cols() != b.rows() : b.cols() != d.rows()) {
+            throw new IllegalArgumentException("[createDiagonalTasks]: Left matrix columns don't match right matrix rows");
+        }
+        checkOutput(c, m, n, "createDiagonalTasks");
+        double[] dData = d.flatData();
+        int dSize = d.rows();
+        GemmKernel.Operand other = new GemmKernel.Operand(b);
+        double[] out = c.flatData();
+        List<Runnable> tasks = new ArrayList<>();
+        int count = Math.max(1, Math.min(numTasks, m));
+        for (int t = 0; t < count; t++) {
+            int from = (int) ((long) m * t / count);
+            int to = (int) ((long) m * (t + 1) / count);
+            tasks.add(() -> {
+                for (int i = from; i < to; i++) {
+                    int src = other.offset + i * other.rowStride;
+                    double scale = diagonalFirst ? dData[i * dSize + i] : 1;
+                    for (int j = 0; j < n; j++) {
+                        double factor = diagonalFirst ? scale : dData[j * dSize + j];
+                        // added to zero like the general product's sum, so a zero times a negative stays 0 rather than -0
+                        out[i * n + j] = 0.0 + factor * other.data[src + j * other.colStride];
+                    }
+                }
+            });
+        }
+        return tasks;
+    }
+
+    private static GemmKernel.Operand transposed(GemmKernel.Operand operand) {
+        return new GemmKernel.Operand(operand.data, operand.offset, operand.colStride, operand.rowStride);
+    }
+
+    private static void checkOutput(SharedMatrix c, int rows, int cols, String name) {
+        if (c.rows() != rows || c.cols() != cols || (rows > 0 && c.getOrientation() != VectorOrientation.ROW_MAJOR)) {
+            throw new IllegalArgumentException("[" + name + "]: Output matrix has the wrong shape or orientation");
+        }
+    }
+}
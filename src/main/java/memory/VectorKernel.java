@@ -0,0 +1,33 @@
+package memory;
+
+/**
+ * The innermost loops of the vector and matrix operations, on raw buffer ranges.
+ * Implemented by ScalarVectorKernel and, when the JDK Vector API is available, by SimdVectorKernel;
+ * VectorKernels.INSTANCE is the one in use.
+ */
+interface VectorKernel {
+
+    /**
+     * y[yOff .. yOff+len) += alpha * x[xOff .. xOff+len)
+     */
+    void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int len);
+
+    /**
+     * x[off .. off+len) = -x[off .. off+len)
+     */
+    void negate(double[] x, int off, int len);
+
+    /**
+     * Sum of x[xOff+i] * y[yOff+i] for i in [0, len). The summation order is up to the implementation.
+     */
+    double dot(double[] x, int xOff, double[] y, int yOff, int len);
+
+    /**
+     * The GEMM micro-kernel: multiplies a packed MR x kc panel of A by a packed kc x NR panel of B (see GemmKernel),
+     * adding the product to (or overwriting) the mr x nr block of c starting at co, with row stride ldc.
+     */
+    void microKernel(int kc, double[] a, int ao, double[] b, int bo, double[] c, int co, int ldc,
+                     int mr, int nr, boolean overwrite);
+
+    String name();
+}
@@ -0,0 +1,97 @@
+package memory;
+
+import java.util.SplittableRandom;
+
+/**
+ * Chooses the VectorKernel used by the whole memory package, once, when the class is first used.
+ * The SIMD kernels are used if the jdk.incubator.vector module is resolved, which needs
+ * {@code java --add-modules jdk.incubator.vector ...}, unless the system property lae.simd is false.
+ * Before being used they are compared with the scalar kernels on random data, and any mismatch beyond
+ * rounding (or any failure to load them) falls back to the scalar kernels.
+ */
+final class VectorKernels {
+
+    static final String SIMD_PROPERTY = "lae.simd";
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String SIMD_CLASS = "memory.SimdVectorKernel";
+    private static final double TOLERANCE = 1e-12; // relative to the sum of the magnitudes of the terms
+
+    static final VectorKernel INSTANCE = select();
+
+    private VectorKernels() {}
+
+    private static VectorKernel select() {
+        ScalarVectorKernel scalar = new ScalarVectorKernel();
+        if (!Boolean.parseBoolean(System.getProperty(SIMD_PROPERTY, "true"))
+                || ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+            return scalar;
+        }
+        try {
+            // loaded by name so that nothing links against the incubator module unless it is present
+            VectorKernel simd = (VectorKernel) Class.forName(SIMD_CLASS).getDeclaredConstructor().newInstance();
+            return agrees(simd, scalar) ? simd : scalar;
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return scalar;
+        }
+    }
+
+    // Runs every kernel of both implementations on the same random inputs, with lengths covering the vector tails
+    private static boolean agrees(VectorKernel candidate, VectorKernel reference) {
+        SplittableRandom random = new SplittableRandom(42);
+        int[] lengths = {0, 1, 3, 4, 7, 8, 15, 16, 17, 31, 64, 100, 1027};
+        for (int len : lengths) {
+            double[] x = randomArray(random, len + 3);
+            double[] y = randomArray(random, len + 5);
+            double[] y2 = y.clone();
+            candidate.axpy(-1.5, x, 3, y, 5, len);
+            reference.axpy(-1.5, x, 3, y2, 5, len);
+            if (!close(y, y2, 0))
+                return false;
+            candidate.negate(y, 1, len);
+            reference.negate(y2, 1, len);
+            if (!close(y, y2, 0))
+                return false;
+            double magnitude = 0;
+            for (int i = 0; i < len; i++) {
+                magnitude += Math.abs(x[3 + i] * y[5 + i]);
+            }
+            double expected = reference.dot(x, 3, y, 5, len);
+            if (Math.abs(candidate.dot(x, 3, y, 5, len) - expected) > TOLERANCE * magnitude)
+                return false;
+        }
+        int kc = 37, ldc = 11;
+        double[] a = randomArray(random, kc * GemmKernel.MR);
+        double[] b = randomArray(random, kc * GemmKernel.NR);
+        for (int shape = 0; shape < 4; shape++) {
+            int mr = shape < 2 ? GemmKernel.MR : 3;
+            int nr = shape < 2 ? GemmKernel.NR : 2;
+            boolean overwrite = shape % 2 == 0;
+            double[] c = randomArray(random, 2 + GemmKernel.MR * ldc);
+            double[] c2 = c.clone();
+            candidate.microKernel(kc, a, 0, b, 0, c, 2, ldc, mr, nr, overwrite);
+            reference.microKernel(kc, a, 0, b, 0, c2, 2, ldc, mr, nr, overwrite);
+            if (!close(c, c2, kc))
+                return false;
+        }
+        return true;
+    }
+
+    private static double[] randomArray(SplittableRandom random, int length) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextDouble(-10, 10);
+        }
+        return values;
+    }
+
+    // Element-wise comparison, allowing a rounding error per summed term
+    private static boolean close(double[] actual, double[] expected, int terms) {
+        for (int i = 0; i < actual.length; i++) {
+            double allowed = TOLERANCE * Math.max(1, terms) * Math.max(1, Math.abs(expected[i]));
+            if (Math.abs(actual[i] - expected[i]) > allowed)
+                return false;
+        }
+        return true;
+    }
+}
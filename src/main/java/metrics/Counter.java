@@ -0,0 +1,36 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count of events, such as contended lock acquisitions. Safe to update from any thread.
+ */
+public final class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    Counter() {}
+
+    /**
+     * Adds one, when metrics are enabled.
+     */
+    public void increment() {
+        if (Metrics.ENABLED) {
+            value.increment();
+        }
+    }
+
+    public void add(long amount) {
+        if (Metrics.ENABLED) {
+            value.add(amount);
+        }
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    void reset() {
+        value.reset();
+    }
+}
@@ -0,0 +1,194 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Process-wide metrics: named timers and counters, per-worker utilization, and JFR events for nodes and stages.
+ * Recording is switched on with the system property lae.metrics=true. The switch is a static final constant,
+ * so when it is off every guarded recording site is removed by the JIT compiler and costs nothing.
+ * The JFR events are only committed while a flight recording is running, e.g. java -XX:StartFlightRecording.
+ * <p>
+ * Names in use:
+ * <ul>
+ *     <li>stage.parse, stage.optimize, stage.run, stage.write: the stages of a job (write reads back the result).</li>
+ *     <li>node.load.OP.RxC, node.compute.OP.RxC: per node, by operation and result shape, the time spent getting the operands
+ *     ready and the time spent in the executor. Sparse evaluations are named OP-sparse and counted as compute only.</li>
+ *     <li>task.queueWait, task.run: per task, the time between submission and start, and the run time.</li>
+ *     <li>lock.read.contended, lock.write.contended, lock.optimistic.failed: SharedVector lock acquisitions that had to wait,
+ *     and optimistic reads that fell back to the read lock.</li>
+ * </ul>
+ */
+public final class Metrics {
+
+    public static final String ENABLED_PROPERTY = "lae.metrics";
+
+    /**
+     * Path to write the JSON dump to at the end of a run (see Main); without it the dump goes to standard error.
+     */
+    public static final String OUTPUT_PROPERTY = "lae.metrics.out";
+
+    public static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<Integer, LongAdder[]> workers = new ConcurrentSkipListMap<>(); // id -> {busy, idle}
+
+    private Metrics() {}
+
+    /**
+     * Start time for a measurement, to be passed to Timer.recordSince or one of the record methods.
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Returns the timer with the given name, creating it on first use. Sites that record often should keep the timer.
+     */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * Records a stage of a job that started at startNanos, and commits a StageEvent for it.
+     */
+    public static void recordStage(String stage, long startNanos) {
+        if (!ENABLED) {
+            return;
+        }
+        long end = System.nanoTime();
+        timer("stage." + stage).record(end - startNanos);
+        StageEvent event = new StageEvent();
+        if (event.shouldCommit()) {
+            event.stage = stage;
+            event.stageNanos = end - startNanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records the evaluation of a node whose operands took from loadStart to computeStart to prepare,
+     * and which was computed from computeStart until now, producing a rows x cols result.
+     */
+    public static void recordNode(String operation, int rows, int cols, long loadStart, long computeStart) {
+        if (!ENABLED) {
+            return;
+        }
+        long end = System.nanoTime();
+        String shape = operation + "." + rows + "x" + cols;
+        timer("node.load." + shape).record(computeStart - loadStart);
+        timer("node.compute." + shape).record(end - computeStart);
+        NodeEvent event = new NodeEvent();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.rows = rows;
+            event.cols = cols;
+            event.loadNanos = computeStart - loadStart;
+            event.computeNanos = end - computeStart;
+            event.commit();
+        }
+    }
+
+    /**
+     * Adds a worker's busy and idle time, reported by the executors when they shut down.
+     */
+    public static void recordWorker(int id, long busyNanos, long idleNanos) {
+        if (!ENABLED) {
+            return;
+        }
+        LongAdder[] times = workers.computeIfAbsent(id, key -> new LongAdder[]{new LongAdder(), new LongAdder()});
+        times[0].add(busyNanos);
+        times[1].add(idleNanos);
+    }
+
+    /**
+     * Current timers by name, in name order.
+     */
+    public static Map<String, Timer> timers() {
+        return new TreeMap<>(timers);
+    }
+
+    /**
+     * Current counters by name, in name order.
+     */
+    public static Map<String, Counter> counters() {
+        return new TreeMap<>(counters);
+    }
+
+    /**
+     * Utilization (busy / (busy + idle)) of every worker that has reported, by worker id.
+     */
+    public static Map<Integer, Double> workerUtilization() {
+        Map<Integer, Double> utilization = new TreeMap<>();
+        workers.forEach((id, times) -> {
+            long busy = times[0].sum();
+            long total = busy + times[1].sum();
+            utilization.put(id, total == 0 ? 0 : (double) busy / total);
+        });
+        return utilization;
+    }
+
+    /**
+     * Clears every recorded value; timers and counters held by callers stay valid.
+     */
+    public static void reset() {
+        timers.values().forEach(Timer::reset);
+        counters.values().forEach(Counter::reset);
+        workers.clear();
+    }
+
+    /**
+     * Writes all metrics as one JSON object: timers (count, total, max and mean nanos), counters, and workers.
+     */
+    public static void writeJson(OutputStream out) throws IOException {
+        try (JsonGenerator generator = new JsonFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("timers");
+            for (Map.Entry<String, Timer> entry : timers().entrySet()) {
+                Timer timer = entry.getValue();
+                generator.writeObjectFieldStart(entry.getKey());
+                generator.writeNumberField("count", timer.getCount());
+                generator.writeNumberField("totalNanos", timer.getTotalNanos());
+                generator.writeNumberField("maxNanos", timer.getMaxNanos());
+                generator.writeNumberField("meanNanos", timer.getCount() == 0 ? 0 : timer.getTotalNanos() / timer.getCount());
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("counters");
+            for (Map.Entry<String, Counter> entry : counters().entrySet()) {
+                generator.writeNumberField(entry.getKey(), entry.getValue().get());
+            }
+            generator.writeEndObject();
+            generator.writeArrayFieldStart("workers");
+            for (Map.Entry<Integer, LongAdder[]> entry : workers.entrySet()) {
+                long busy = entry.getValue()[0].sum();
+                long idle = entry.getValue()[1].sum();
+                generator.writeStartObject();
+                generator.writeNumberField("id", entry.getKey());
+                generator.writeNumberField("busyNanos", busy);
+                generator.writeNumberField("idleNanos", idle);
+                generator.writeNumberField("utilization", busy + idle == 0 ? 0 : (double) busy / (busy + idle));
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        out.flush();
+    }
+}
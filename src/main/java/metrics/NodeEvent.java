@@ -0,0 +1,34 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for the evaluation of one node of the computation tree.
+ */
+@Name("lae.Node")
+@Label("Node Evaluation")
+@Category("Linear Algebra Engine")
+@Description("Loading the operands of one node and computing it")
+class NodeEvent extends jdk.jfr.Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Rows")
+    int rows;
+
+    @Label("Columns")
+    int cols;
+
+    @Label("Load Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long loadNanos;
+
+    @Label("Compute Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long computeNanos;
+}
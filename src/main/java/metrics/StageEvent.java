@@ -0,0 +1,24 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for one stage of a job, such as parsing the input or writing the result.
+ */
+@Name("lae.Stage")
+@Label("Job Stage")
+@Category("Linear Algebra Engine")
+@Description("One stage of a job: parse, optimize, run or write")
+class StageEvent extends jdk.jfr.Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Stage Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long stageNanos;
+}
@@ -0,0 +1,133 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import memory.SharedMatrix;
+import memory.SharedVector;
+import memory.VectorOrientation;
+
+/**
+ * A fast binary matrix container: a 32 byte header followed by the raw little-endian doubles, read and written
+ * through memory mapped regions so no text is parsed or formatted.
+ * Reading is not zero-copy: SharedMatrix computes on a heap double[], so the doubles are bulk-copied from the mapping
+ * into a new buffer, which costs one copy of the data and limits a file to fewer than 2^31 elements.
+ * <pre>
+ * offset  size  field
+ *  0      4     magic "LAEM"
+ *  4      1     format version (1)
+ *  5      1     element type (1 = float64)
+ *  6      1     orientation (0 = row major, 1 = column major)
+ *  7      1     reserved (0)
+ *  8      8     rows (int64)
+ *  16     8     columns (int64)
+ *  24     8     reserved (0)
+ *  32     ...   rows * columns doubles in storage order: row after row, or column after column
+ * </pre>
+ * The stored orientation is kept on load, so a column-major file becomes a column-major SharedMatrix.
+ * Reading rejects any other orientation value and non-zero reserved bytes, which only a corrupt file or a future
+ * format would contain.
+ */
+public class BinaryMatrixFile {
+
+    public static final String EXTENSION = ".lam";
+
+    private static final int MAGIC = 0x4D45414C; // "LAEM" read as a little-endian int
+    private static final byte VERSION = 1;
+    private static final byte FLOAT64 = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final long MAX_CHUNK_BYTES = (Integer.MAX_VALUE / Double.BYTES) * (long) Double.BYTES; // a mapping is at most 2 GB
+
+    private BinaryMatrixFile() {}
+
+    public static SharedMatrix read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a binary matrix file (too short): " + path);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a binary matrix file (bad magic): " + path);
+            }
+            if (header.get(4) != VERSION || header.get(5) != FLOAT64) {
+                throw new IOException("Unsupported binary matrix version or element type: " + path);
+            }
+            byte storedOrientation = header.get(6);
+            if (storedOrientation != 0 && storedOrientation != 1) {
+                throw new IOException("Unsupported binary matrix orientation " + storedOrientation + ": " + path);
+            }
+            if (header.get(7) != 0 || header.getLong(24) != 0) {
+                throw new IOException("Binary matrix header has non-zero reserved bytes: " + path);
+            }
+            VectorOrientation orientation = storedOrientation == 0 ? VectorOrientation.ROW_MAJOR : VectorOrientation.COLUMN_MAJOR;
+            long rows = header.getLong(8);
+            long cols = header.getLong(16);
+            if (rows < 0 || cols < 0 || rows > Integer.MAX_VALUE || cols > Integer.MAX_VALUE || rows * cols > Integer.MAX_VALUE - 8) {
+                throw new IOException("Binary matrix shape is invalid or too large for a single buffer: " + rows + "x" + cols);
+            }
+            long elements = rows * cols;
+            if (channel.size() < HEADER_SIZE + elements * Double.BYTES) {
+                throw new IOException("Binary matrix file is truncated: " + path);
+            }
+            double[] data = new double[(int) elements];
+            int done = 0;
+            while (done < elements) {
+                long bytes = Math.min(MAX_CHUNK_BYTES, (elements - done) * Double.BYTES);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + (long) done * Double.BYTES, bytes);
+                DoubleBuffer doubles = chunk.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                int count = doubles.remaining();
+                doubles.get(data, done, count);
+                done += count;
+            }
+            if (orientation == VectorOrientation.ROW_MAJOR) {
+                return new SharedMatrix(data, (int) rows, (int) cols, orientation);
+            }
+            return new SharedMatrix(data, (int) cols, (int) rows, orientation);
+        }
+    }
+
+    /**
+     * Writes the matrix in its current storage orientation, so nothing is transposed on the way out.
+     */
+    public static void write(SharedMatrix matrix, Path path) throws IOException {
+        int numVectors = matrix.length();
+        int vectorLength = numVectors == 0 ? 0 : matrix.get(0).length();
+        VectorOrientation orientation = numVectors == 0 ? VectorOrientation.ROW_MAJOR : matrix.getOrientation();
+        long elements = (long) numVectors * vectorLength;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, MAGIC);
+            header.put(4, VERSION);
+            header.put(5, FLOAT64);
+            header.put(6, (byte) (orientation == VectorOrientation.ROW_MAJOR ? 0 : 1));
+            header.putLong(8, matrix.rows());
+            header.putLong(16, matrix.cols());
+            double[] row = new double[vectorLength];
+            long position = HEADER_SIZE;
+            int vector = 0;
+            while (vector < numVectors) {
+                // map as many whole vectors as fit in one region
+                int count = (int) Math.max(1, Math.min(numVectors - vector, MAX_CHUNK_BYTES / Math.max(1, (long) vectorLength * Double.BYTES)));
+                long bytes = (long) count * vectorLength * Double.BYTES;
+                DoubleBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, position, bytes).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                for (int i = 0; i < count; i++) {
+                    SharedVector current = matrix.get(vector + i);
+                    current.copyInto(row, 0);
+                    chunk.put(row);
+                }
+                vector += count;
+                position += bytes;
+            }
+            if (elements == 0) {
+                channel.truncate(HEADER_SIZE);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import memory.SharedMatrix;
+import memory.SparseMatrix;
+import metrics.Counter;
+import metrics.Metrics;
+
+/**
+ * Turns a computation tree into a DAG in which every distinct subexpression occurs once (hash-consing),
+ * so that repeated subexpressions, such as A * B used in several sums or one literal matrix inlined many times,
+ * are evaluated once and their result is shared by all consumers.
+ * <ul>
+ *     <li>Leaves are equal when they hold the same elements in the same shape and storage, compared exactly
+ *     after a content hash.</li>
+ *     <li>Operator nodes are equal when they have the same type and the same children, in the same order,
+ *     once those children are shared.</li>
+ * </ul>
+ * The tree is rewritten in place: children lists are redirected to the first occurrence of each subexpression,
+ * so the root stays the same node. Consumers of a shared node must not modify its result in place
+ * while others still need it; the engine counts them (see LinearAlgebraEngine).
+ */
+public class CommonSubexpressions {
+
+    private static final Counter eliminated = Metrics.counter("cse.eliminated");
+
+    /**
+     * An operator node by its type, power and already shared children, compared by identity.
+     */
+    private record OperatorKey(ComputationNodeType type, int power, List<ComputationNode> children) {}
+
+    private final Map<ComputationNode, ComputationNode> shared = new IdentityHashMap<>(); // node -> its representative
+    private final Map<OperatorKey, ComputationNode> operators = new HashMap<>();
+    private final Map<Integer, List<ComputationNode>> leaves = new HashMap<>(); // by content hash
+
+    public ComputationNode eliminate(ComputationNode root) {
+        return share(root);
+    }
+
+    // Returns the representative of the node's subexpression, sharing its children first
+    private ComputationNode share(ComputationNode node) {
+        ComputationNode representative = shared.get(node);
+        if (representative != null) {
+            return representative;
+        }
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            representative = shareLeaf(node);
+        } else {
+            List<ComputationNode> children = new ArrayList<>(node.getChildren().size());
+            for (ComputationNode child : node.getChildren()) {
+                children.add(share(child));
+            }
+            node.replaceChildren(children);
+            representative = operators.putIfAbsent(new OperatorKey(node.getNodeType(), node.getPower(), children), node);
+            if (representative == null) {
+                representative = node;
+            }
+        }
+        if (representative != node) {
+            eliminated.increment();
+        }
+        shared.put(node, representative);
+        return representative;
+    }
+
+    private ComputationNode shareLeaf(ComputationNode leaf) {
+        SparseMatrix sparse = leaf.getSparseMatrix();
+        SharedMatrix dense = sparse == null ? leaf.getSharedMatrix() : null;
+        int hash = sparse != null ? sparse.contentHash() : dense.contentHash();
+        List<ComputationNode> candidates = leaves.computeIfAbsent(hash, key -> new ArrayList<>());
+        for (ComputationNode candidate : candidates) {
+            SparseMatrix otherSparse = candidate.getSparseMatrix();
+            boolean equal = sparse != null
+                    ? otherSparse != null && sparse.contentEquals(otherSparse)
+                    : otherSparse == null && dense.contentEquals(candidate.getSharedMatrix());
+            if (equal) {
+                return candidate;
+            }
+        }
+        candidates.add(leaf);
+        return leaf;
+    }
+}
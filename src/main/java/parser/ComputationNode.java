@@ -2,11 +2,18 @@ package parser;
 
 import java.util.List;
 
+import memory.SharedMatrix;
+import memory.SparseMatrix;
+import memory.VectorOrientation;
+
 public class ComputationNode {
 
     private ComputationNodeType nodeType;
     private List<ComputationNode> children = null;
-    private double[][] matrix = null; // only used for MATRIX nodes
+    private double[][] matrix = null; // only used for MATRIX nodes given as arrays
+    private SharedMatrix sharedMatrix = null; // only used for MATRIX nodes holding a live matrix
+    private SparseMatrix sparseMatrix = null; // only used for MATRIX nodes stored sparse
+    private int power = 0; // only used for POW nodes
 
     public ComputationNode(String operatorStr, List<ComputationNode> children) throws IllegalArgumentException {
         this.nodeType = mapOperator(operatorStr);
@@ -23,21 +30,46 @@ public class ComputationNode {
                 return ComputationNodeType.NEGATE;
             case "T":
                 return ComputationNodeType.TRANSPOSE;
+            case "^":
+                return ComputationNodeType.POW;
             default:
                 throw new IllegalArgumentException("Unknown operator: " + operatorStr);
         }
     }
 
+    /**
+     * Creates an operator node with a power, which only POW nodes keep.
+     */
+    public ComputationNode(String operatorStr, List<ComputationNode> children, int power) throws IllegalArgumentException {
+        this(operatorStr, children);
+        this.power = nodeType == ComputationNodeType.POW ? power : 0;
+    }
+
     public ComputationNode(ComputationNodeType nodeType, List<ComputationNode> children) {
         this.nodeType = nodeType;
         this.children = children;
     }
 
+    public ComputationNode(ComputationNodeType nodeType, List<ComputationNode> children, int power) {
+        this(nodeType, children);
+        this.power = nodeType == ComputationNodeType.POW ? power : 0;
+    }
+
     public ComputationNode(double[][] matrix) {
         this.nodeType = ComputationNodeType.MATRIX;
         this.matrix = matrix;
     }
 
+    public ComputationNode(SharedMatrix matrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.sharedMatrix = matrix;
+    }
+
+    public ComputationNode(SparseMatrix matrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.sparseMatrix = matrix;
+    }
+
     public ComputationNodeType getNodeType() {
         return nodeType;
     }
@@ -46,6 +78,18 @@ public class ComputationNode {
         return children;
     }
 
+    /**
+     * Returns the exponent of a POW node (0 for other nodes).
+     */
+    public int getPower() {
+        return power;
+    }
+
+    // Redirects the node to other (equivalent) children, used when the tree is turned into a DAG
+    void replaceChildren(List<ComputationNode> children) {
+        this.children = children;
+    }
+
     /**
      * Recursively finds the first resolvable node in the tree.
      * A resolvable node is defined as a node that is not of type MATRIX,
@@ -84,17 +128,106 @@ public class ComputationNode {
     /**
      * Resolves this node by setting its type to MATRIX and storing the computed matrix.
      */
-    public void resolve(double[][] matrix) {
+    public synchronized void resolve(double[][] matrix) {
         this.nodeType = ComputationNodeType.MATRIX;
         this.children = null;
         this.matrix = matrix;
+        this.sharedMatrix = null;
+        this.sparseMatrix = null;
+    }
+
+    /**
+     * Resolves this node to a live matrix, such as the result of the engine's last operation on it.
+     * Nothing is copied; the matrix is only turned into an array if getMatrix() is called.
+     */
+    public synchronized void resolve(SharedMatrix matrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.sharedMatrix = matrix;
+        this.sparseMatrix = null;
+    }
+
+    /**
+     * Resolves this node to a sparse matrix, which stays sparse until getMatrix() or getSharedMatrix() is called.
+     */
+    public synchronized void resolve(SparseMatrix matrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.sharedMatrix = null;
+        this.sparseMatrix = matrix;
     }
 
-    public double[][] getMatrix() {
-        if (matrix == null) {
+    /**
+     * Returns the node's matrix as an array. For a node holding a live matrix this is a fresh row-major copy.
+     */
+    public synchronized double[][] getMatrix() {
+        if (matrix == null && sharedMatrix == null && sparseMatrix == null) {
             throw new IllegalStateException("This node does not contain a matrix.");
         }
-        return matrix;
+        if (matrix != null) {
+            return matrix;
+        }
+        if (sparseMatrix != null) {
+            return sparseMatrix.toDense().readRowMajor();
+        }
+        return sharedMatrix.readRowMajor();
+    }
+
+    /**
+     * Returns the node's matrix as a live SharedMatrix, wrapping an array matrix on first use.
+     * The engine may modify the returned matrix in place, so it belongs to the node's (single) consumer.
+     */
+    public synchronized SharedMatrix getSharedMatrix() {
+        if (sparseMatrix != null) {
+            sharedMatrix = sparseMatrix.toDense();
+            sparseMatrix = null;
+        }
+        if (sharedMatrix == null) {
+            sharedMatrix = new SharedMatrix(getMatrix());
+            matrix = null; // from now on the live matrix is the node's value
+        }
+        return sharedMatrix;
+    }
+
+    /**
+     * Returns the node's matrix if it is stored sparse, or null if it is dense (or not resolved yet).
+     */
+    public synchronized SparseMatrix getSparseMatrix() {
+        return sparseMatrix;
+    }
+
+    /**
+     * Returns {rows, cols} of a MATRIX node's value, without converting it to another representation.
+     */
+    public synchronized int[] getShape() {
+        if (sparseMatrix != null) {
+            return new int[]{sparseMatrix.rows(), sparseMatrix.cols()};
+        }
+        if (sharedMatrix != null) {
+            return new int[]{sharedMatrix.rows(), sharedMatrix.cols()};
+        }
+        if (matrix != null) {
+            return new int[]{matrix.length, matrix.length == 0 ? 0 : matrix[0].length};
+        }
+        throw new IllegalStateException("This node does not contain a matrix.");
+    }
+
+    /**
+     * Returns the storage orientation of a MATRIX node's value (arrays are row major), without converting it.
+     */
+    public synchronized VectorOrientation getOrientation() {
+        if (sparseMatrix != null) {
+            return sparseMatrix.getOrientation();
+        }
+        if (sharedMatrix != null) {
+            return sharedMatrix.length() == 0 ? VectorOrientation.ROW_MAJOR : sharedMatrix.getOrientation();
+        }
+        if (matrix != null) {
+            return VectorOrientation.ROW_MAJOR;
+        }
+        throw new IllegalStateException("This node does not contain a matrix.");
     }
 
 
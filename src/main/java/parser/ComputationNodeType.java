@@ -3,11 +3,15 @@ package parser;
 /**
  * Computation nodes hold either an operation to be applied, or a matrix (2D array).
  * Matrices are always leaf nodes, while operation nodes have children.
+ * SUBTRACT is never parsed, it is produced by the TreeOptimizer from additions of negated operands.
+ * POW raises its single (square) operand to the node's power, see ComputationNode.getPower.
  */
 public enum ComputationNodeType {
     ADD,
     MULTIPLY,
     NEGATE,
+    SUBTRACT,
     TRANSPOSE,
+    POW,
     MATRIX,
 }
\ No newline at end of file
@@ -1,68 +1,286 @@
 package parser;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import memory.SharedMatrix;
+import memory.SparseMatrix;
+import memory.VectorOrientation;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.text.ParseException;
 import java.util.*;
 
+/**
+ * Parses the input JSON with Jackson's streaming token API.
+ * Matrix elements are written straight into the flat buffer of the leaf's SharedMatrix as they are read,
+ * so no per-element objects are created and row widths are validated while streaming.
+ * An operand may also be {"file": "path"}, naming a binary matrix file (see BinaryMatrixFile)
+ * relative to the input file's directory, which is loaded instead of an inline array.
+ * Sparse operands can be given as {"rows": r, "cols": c, "entries": [[row, col, value], ...]} (duplicates are summed),
+ * and inline arrays that are mostly zeros are stored sparse as well (see SparseMatrix.isSparseEnough).
+ * The "^" operator takes one square operand and a non-negative integer "power" field: {"operator": "^", "power": k, ...}.
+ */
 public class InputParser {
 
+    private static final int INITIAL_CAPACITY = 1024;
+
     private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFactory factory = JsonFactory.builder()
+            .enable(StreamReadFeature.USE_FAST_DOUBLE_PARSER)
+            .build();
+
+    private Path baseDirectory; // directory that referenced matrix files are resolved against
+    private long inputLength; // bytes of the input file, to estimate how many rows a matrix has left
 
     public ComputationNode parse(String inputPath) throws ParseException {
-        try {
-            File inputFile = new File(inputPath);
-            JsonNode rootJsonNode = mapper.readTree(inputFile);
-            ComputationNode root = parseJsonNode(rootJsonNode);
+        File inputFile = new File(inputPath);
+        Path parent = inputFile.getAbsoluteFile().toPath().getParent();
+        baseDirectory = parent == null ? Path.of("") : parent;
+        inputLength = inputFile.length();
+        try (JsonParser parser = factory.createParser(inputFile)) {
+            parser.nextToken();
+            ComputationNode root = parseJsonNode(parser);
             return root;
         } catch (IOException e) {
             throw new ParseException("Failed to read the input JSON file: " + e.getMessage(), 0);
         }
     }
 
-    private ComputationNode parseJsonNode(JsonNode jsonNode) throws ParseException {
-        if (jsonNode.has("operator") && jsonNode.has("operands")) {
-            String operatorStr = jsonNode.get("operator").asText();
-            ArrayNode operandJsonNodes = (ArrayNode) jsonNode.get("operands");
-            List<ComputationNode> operands = new ArrayList<>();
-            for (int i = 0; i < operandJsonNodes.size(); i++) {
-                operands.add(parseJsonNode(operandJsonNodes.get(i)));
+    // Parses the value starting at the parser's current token, leaving the parser on its last token
+    private ComputationNode parseJsonNode(JsonParser parser) throws ParseException, IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            String operatorStr = null;
+            String matrixFile = null;
+            List<ComputationNode> operands = null;
+            int rows = -1;
+            int cols = -1;
+            int power = -1;
+            SparseEntries entries = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (field.equals("operator")) {
+                    operatorStr = parser.getValueAsString();
+                    parser.skipChildren();
+                }
+                else if (field.equals("file") && value == JsonToken.VALUE_STRING) {
+                    matrixFile = parser.getText();
+                }
+                else if (field.equals("rows") && value == JsonToken.VALUE_NUMBER_INT) {
+                    rows = parser.getIntValue();
+                }
+                else if (field.equals("cols") && value == JsonToken.VALUE_NUMBER_INT) {
+                    cols = parser.getIntValue();
+                }
+                else if (field.equals("power") && value == JsonToken.VALUE_NUMBER_INT) {
+                    power = parser.getIntValue();
+                }
+                else if (field.equals("entries") && value == JsonToken.START_ARRAY) {
+                    entries = parseEntries(parser);
+                }
+                else if (field.equals("operands") && value == JsonToken.START_ARRAY) {
+                    operands = new ArrayList<>();
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        operands.add(parseJsonNode(parser));
+                    }
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+            if (matrixFile != null && operatorStr == null && operands == null) {
+                return loadMatrixFile(matrixFile);
+            }
+            if (entries != null && operatorStr == null && operands == null) {
+                return sparseNode(rows, cols, entries);
+            }
+            if (operatorStr == null || operands == null) {
+                throw new ParseException("Invalid node structure: an operator node needs \"operator\" and \"operands\" fields"
+                        + " (at " + describe(parser) + ")", 0);
+            }
+            if (operatorStr.equals("^") && power < 0) {
+                throw new ParseException("Invalid node structure: the \"^\" operator needs a non-negative integer \"power\" field"
+                        + " (at " + describe(parser) + ")", 0);
             }
-            return new ComputationNode(operatorStr, operands);
+            return new ComputationNode(operatorStr, operands, power);
         }
-        else if (jsonNode.isArray()) {
-            if (jsonNode.size() == 0) {
+        else if (token == JsonToken.START_ARRAY) {
+            JsonToken first = parser.nextToken();
+            if (first == JsonToken.END_ARRAY) {
                 throw new ParseException("Empty array cannot be parsed as DataNode.", 0);
             }
             // Check if it's a vector (1D array)
-            if (jsonNode.get(0).isNumber()) {
+            if (first.isNumeric()) {
                 throw new ParseException("Vectors (1D arrays) are not supported as standalone nodes.", 0);
             }
             // Otherwise, it's a matrix (2D array)
-            else {
-                double[][] matrix = new double[jsonNode.size()][];
-                int width = jsonNode.get(0).size();
-                for (int i = 0; i < jsonNode.size(); i++) {
-                    JsonNode rowJsonNode = jsonNode.get(i);
-                    if (rowJsonNode.size() != width) {
-                        throw new ParseException("Inconsistent row sizes in matrix.", 0);
-                    }
-                    if (!rowJsonNode.isArray()) {
-                        throw new ParseException("Invalid matrix row: " + rowJsonNode.toString(), 0);
-                    }
-                    matrix[i] = new double[rowJsonNode.size()];
-                    for (int j = 0; j < rowJsonNode.size(); j++) {
-                        matrix[i][j] = rowJsonNode.get(j).asDouble();
-                    }
+            return parseMatrix(parser);
+        }
+        else {
+            throw new ParseException("Invalid node structure: " + mapper.readTree(parser), 0);
+        }
+    }
+
+    private ComputationNode loadMatrixFile(String matrixFile) throws ParseException {
+        Path path = baseDirectory.resolve(matrixFile);
+        try {
+            return new ComputationNode(BinaryMatrixFile.read(path));
+        } catch (IOException e) {
+            throw new ParseException("Failed to read the matrix file " + matrixFile + ": " + e.getMessage(), 0);
+        }
+    }
+
+    // Reads the rows of a matrix, the parser being on the first row's token, and stores it dense or sparse.
+    // The first time the buffer fills after the first row it is sized for the whole matrix (see estimateCapacity),
+    // so a matrix whose rows are written alike is kept without trimming. Matrices that fit the initial buffer,
+    // such as the many small operands of a long sum, never allocate the estimate.
+    private ComputationNode parseMatrix(JsonParser parser) throws ParseException, IOException {
+        double[] data = new double[INITIAL_CAPACITY];
+        int size = 0;
+        int rows = 0;
+        int width = -1;
+        int estimate = 0;
+        long firstRowStart = offset(parser.currentTokenLocation());
+        for (JsonToken row = parser.currentToken(); row != JsonToken.END_ARRAY; row = parser.nextToken()) {
+            if (row != JsonToken.START_ARRAY) {
+                throw new ParseException("Invalid matrix row: " + mapper.readTree(parser), 0);
+            }
+            int rowWidth = 0;
+            for (JsonToken element = parser.nextToken(); element != JsonToken.END_ARRAY; element = parser.nextToken()) {
+                if (!element.isNumeric()) {
+                    throw new ParseException("Invalid matrix element: " + mapper.readTree(parser), 0);
+                }
+                if (size == data.length) {
+                    data = Arrays.copyOf(data, Math.max(grow(data.length), estimate));
+                    estimate = 0;
                 }
-                return new ComputationNode(matrix);
+                data[size++] = parser.getDoubleValue();
+                rowWidth++;
+                if (width >= 0 && rowWidth > width) {
+                    throw new ParseException("Inconsistent row sizes in matrix.", 0);
+                }
+            }
+            if (width < 0) {
+                width = rowWidth;
+                estimate = estimateCapacity(firstRowStart, offset(parser.currentLocation()), width);
             }
+            else if (rowWidth != width) {
+                throw new ParseException("Inconsistent row sizes in matrix.", 0);
+            }
+            rows++;
+        }
+        if (SparseMatrix.isSparseEnough(SparseMatrix.countNonZeros(data, size), size)) {
+            return new ComputationNode(SparseMatrix.compress(data, rows, width, VectorOrientation.ROW_MAJOR));
+        }
+        if (data.length - size > size / 8) { // only trim when a noticeable part of the buffer is unused
+            data = Arrays.copyOf(data, size);
+        }
+        return new ComputationNode(new SharedMatrix(data, rows, width, VectorOrientation.ROW_MAJOR));
+    }
+
+    /**
+     * The (row, column, value) triples of a sparse operand, in the order they were given.
+     */
+    private static class SparseEntries {
+        int[] rows = new int[INITIAL_CAPACITY];
+        int[] cols = new int[INITIAL_CAPACITY];
+        double[] values = new double[INITIAL_CAPACITY];
+        int size = 0;
+
+        void add(int row, int col, double value) {
+            if (size == values.length) {
+                int capacity = grow(size);
+                rows = Arrays.copyOf(rows, capacity);
+                cols = Arrays.copyOf(cols, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            rows[size] = row;
+            cols[size] = col;
+            values[size++] = value;
+        }
+    }
+
+    // Reads the [row, col, value] triples of a sparse operand, the parser being on the array's start
+    private SparseEntries parseEntries(JsonParser parser) throws ParseException, IOException {
+        SparseEntries entries = new SparseEntries();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_ARRAY
+                    || parser.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+                throw new ParseException("Invalid sparse entry: expected [row, col, value] (at " + describe(parser) + ")", 0);
+            }
+            int row = parser.getIntValue();
+            if (parser.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+                throw new ParseException("Invalid sparse entry: expected [row, col, value] (at " + describe(parser) + ")", 0);
+            }
+            int col = parser.getIntValue();
+            if (!parser.nextToken().isNumeric()) {
+                throw new ParseException("Invalid sparse entry: expected [row, col, value] (at " + describe(parser) + ")", 0);
+            }
+            double value = parser.getDoubleValue();
+            if (parser.nextToken() != JsonToken.END_ARRAY) {
+                throw new ParseException("Invalid sparse entry: expected [row, col, value] (at " + describe(parser) + ")", 0);
+            }
+            entries.add(row, col, value);
+        }
+        return entries;
+    }
+
+    // Builds the node of a sparse operand, stored dense if it turns out not to be sparse enough
+    private ComputationNode sparseNode(int rows, int cols, SparseEntries entries) throws ParseException {
+        if (rows <= 0 || cols <= 0) {
+            throw new ParseException("Invalid sparse matrix: \"rows\" and \"cols\" must be positive integers", 0);
+        }
+        SparseMatrix matrix;
+        try {
+            matrix = SparseMatrix.fromEntries(rows, cols, entries.rows, entries.cols, entries.values, entries.size);
+        } catch (IndexOutOfBoundsException e) {
+            throw new ParseException("Invalid sparse matrix: " + e.getMessage(), 0);
+        }
+        if (!SparseMatrix.isSparseEnough(matrix.nonZeros(), (long) rows * cols)) {
+            return new ComputationNode(matrix.toDense());
+        }
+        return new ComputationNode(matrix);
+    }
+
+    // Elements of a matrix whose first row of width elements took the input from firstRowStart to firstRowEnd,
+    // supposing the rest of the input is rows written alike, plus 1/16 for rows written a little longer.
+    // Input after the matrix makes this an overestimate, trimmed once the matrix is read.
+    private int estimateCapacity(long firstRowStart, long firstRowEnd, int width) {
+        long rowBytes = firstRowEnd - firstRowStart;
+        if (firstRowStart < 0 || rowBytes <= 0 || inputLength <= firstRowEnd) {
+            return 0;
         }
-        else { throw new ParseException("Invalid node structure: " + jsonNode.toString(), 0); }
+        long rows = 1 + (inputLength - firstRowEnd) / rowBytes;
+        long capacity = rows * width;
+        return (int) Math.min(capacity + (capacity >> 4), Integer.MAX_VALUE - 8);
+    }
+
+    // Offset of the location in the input, -1 if the parser doesn't track it
+    private static long offset(JsonLocation location) {
+        return location.getByteOffset() >= 0 ? location.getByteOffset() : location.getCharOffset();
+    }
+
+    private static int grow(int capacity) {
+        int grown = capacity + (capacity >> 1);
+        if (grown < 0 || grown > Integer.MAX_VALUE - 8) {
+            if (capacity >= Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("[InputParser]: Matrix is too large for a single buffer");
+            }
+            grown = Integer.MAX_VALUE - 8;
+        }
+        return grown;
+    }
+
+    private static String describe(JsonParser parser) {
+        return "line " + parser.currentLocation().getLineNr() + ", column " + parser.currentLocation().getColumnNr();
     }
 
-}
\ No newline at end of file
+}
@@ -1,19 +1,54 @@
 package parser;
 
-import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+
+import memory.SharedMatrix;
+
+/**
+ * Writes results with a streaming JsonGenerator, row by row, without building the whole document in memory.
+ * Output is pretty printed like before unless the lae.output.compact system property is true,
+ * and it is gzip compressed when the file name ends with ".gz".
+ * Doubles are formatted with the shortest representation that reads back to the same value.
+ * A result written to a file ending with ".lam" uses the binary format of BinaryMatrixFile instead (errors stay JSON).
+ */
 public class OutputWriter {
 
-    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    /**
+     * System property that switches to compact output (no whitespace).
+     */
+    public static final String COMPACT_PROPERTY = "lae.output.compact";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int ROW_BLOCK_ELEMENTS = 1 << 14; // elements copied out of a SharedMatrix at a time
+
+    private static final JsonFactory factory = JsonFactory.builder()
+            .enable(StreamWriteFeature.USE_FAST_DOUBLE_WRITER)
+            .build();
 
+    /**
+     * The result document as the former ObjectMapper-based writer serialized it; write streams the same document.
+     */
+    @Deprecated
     public static class ResultMatrix {
         public double[][] result;
         public ResultMatrix(double[][] result) { this.result = result; }
     }
 
+    /**
+     * The error document as the former ObjectMapper-based writer serialized it; write streams the same document.
+     */
+    @Deprecated
     public static class ErrorMessage {
         public String error;
         public ErrorMessage(String error) { this.error = error; }
@@ -22,13 +57,64 @@ public class OutputWriter {
     public OutputWriter() {}
 
     public static void write(double[][] matrix, String filePath) throws IOException {
-        File file = new File(filePath);
-        mapper.writerWithDefaultPrettyPrinter().writeValue(file, new ResultMatrix(matrix));
+        try (JsonGenerator generator = open(filePath)) {
+            generator.writeStartObject();
+            generator.writeFieldName("result");
+            generator.writeStartArray();
+            for (double[] row : matrix) {
+                generator.writeArray(row, 0, row.length);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes a result straight from the matrix's storage, a block of rows at a time.
+     */
+    public static void write(SharedMatrix matrix, String filePath) throws IOException {
+        if (filePath.endsWith(BinaryMatrixFile.EXTENSION)) {
+            BinaryMatrixFile.write(matrix, Path.of(filePath));
+            return;
+        }
+        int rows = matrix.rows();
+        int cols = matrix.cols();
+        int blockRows = Math.max(1, ROW_BLOCK_ELEMENTS / Math.max(1, cols));
+        double[] block = new double[Math.min(rows, blockRows) * cols];
+        try (JsonGenerator generator = open(filePath)) {
+            generator.writeStartObject();
+            generator.writeFieldName("result");
+            generator.writeStartArray();
+            for (int from = 0; from < rows; from += blockRows) {
+                int to = Math.min(from + blockRows, rows);
+                matrix.copyRows(from, to, block);
+                for (int r = 0; r < to - from; r++) {
+                    generator.writeArray(block, r * cols, cols);
+                }
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
     }
 
     public static void write(String error, String filePath) throws IOException {
-        File file = new File(filePath);
-        mapper.writerWithDefaultPrettyPrinter().writeValue(file, new ErrorMessage(error));
+        try (JsonGenerator generator = open(filePath)) {
+            generator.writeStartObject();
+            generator.writeStringField("error", error);
+            generator.writeEndObject();
+        }
+    }
+
+    private static JsonGenerator open(String filePath) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(filePath), BUFFER_SIZE);
+        if (filePath.endsWith(".gz")) {
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8);
+        if (!Boolean.getBoolean(COMPACT_PROPERTY)) {
+            generator.setPrettyPrinter(new DefaultPrettyPrinter());
+        }
+        return generator;
     }
 
 }
@@ -0,0 +1,26 @@
+package parser;
+
+/**
+ * Arithmetic on non-negative costs and sizes that saturates at Long.MAX_VALUE instead of wrapping negative,
+ * for estimates over huge (e.g. sparse) shapes that can exceed a long.
+ */
+public final class Saturating {
+
+    private Saturating() {}
+
+    public static long add(long a, long b) {
+        try {
+            return Math.addExact(a, b);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    public static long multiply(long a, long b) {
+        try {
+            return Math.multiplyExact(a, b);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
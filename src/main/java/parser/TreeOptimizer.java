@@ -0,0 +1,253 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites a parsed computation tree into a cheaper equivalent one before it is executed:
+ * <ul>
+ *     <li>T(T(A)) becomes A and -(-A) becomes A.</li>
+ *     <li>T(A * B) becomes T(B) * T(A), so transposes move onto the operands of a product.</li>
+ *     <li>Negated operands of a sum become subtractions, e.g. A + (-B) becomes A - B.</li>
+ *     <li>Multiplication chains are re-parenthesized with the matrix-chain-order dynamic program.</li>
+ *     <li>(A^j)^k becomes A^(j*k), and A^1 becomes A.</li>
+ * </ul>
+ * The returned tree only contains binary ADD, SUBTRACT and MULTIPLY nodes where it was rewritten.
+ * A rewritten sum adds its positive operands first and then subtracts the negated ones, whatever their order as
+ * written, so its floating point rounding can differ from the original order.
+ * Subtrees whose shapes don't fit are left as written, so the engine reports the mismatch as before.
+ */
+public class TreeOptimizer {
+
+    private static final int MAX_DP_OPERANDS = 512; // the dynamic program is cubic in the chain length
+
+    private final Map<ComputationNode, int[]> shapes = new IdentityHashMap<>();
+
+    public ComputationNode optimize(ComputationNode node) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            return node;
+        }
+        List<ComputationNode> children = new ArrayList<>();
+        for (ComputationNode child : node.getChildren()) {
+            children.add(optimize(child));
+        }
+        switch (node.getNodeType()) {
+            case TRANSPOSE:
+                return children.size() == 1 ? transpose(children.get(0)) : node(ComputationNodeType.TRANSPOSE, children);
+            case NEGATE:
+                return children.size() == 1 ? negate(children.get(0)) : node(ComputationNodeType.NEGATE, children);
+            case ADD:
+                return sum(children);
+            case MULTIPLY:
+                return product(children);
+            case POW:
+                return children.size() == 1 ? power(children.get(0), node.getPower()) : node(node, children);
+            default:
+                return node(node, children);
+        }
+    }
+
+    private ComputationNode transpose(ComputationNode operand) {
+        if (operand.getNodeType() == ComputationNodeType.TRANSPOSE && operand.getChildren().size() == 1) {
+            return operand.getChildren().get(0);
+        }
+        if (operand.getNodeType() == ComputationNodeType.MULTIPLY && operand.getChildren().size() == 2) {
+            ComputationNode left = operand.getChildren().get(0);
+            ComputationNode right = operand.getChildren().get(1);
+            return node(ComputationNodeType.MULTIPLY, List.of(transpose(right), transpose(left)));
+        }
+        return node(ComputationNodeType.TRANSPOSE, List.of(operand));
+    }
+
+    private ComputationNode negate(ComputationNode operand) {
+        if (operand.getNodeType() == ComputationNodeType.NEGATE && operand.getChildren().size() == 1) {
+            return operand.getChildren().get(0);
+        }
+        if (operand.getNodeType() == ComputationNodeType.SUBTRACT) {
+            return node(ComputationNodeType.SUBTRACT, List.of(operand.getChildren().get(1), operand.getChildren().get(0)));
+        }
+        return node(ComputationNodeType.NEGATE, List.of(operand));
+    }
+
+    private ComputationNode power(ComputationNode operand, int power) {
+        int[] shape = shape(operand);
+        if (shape == null || shape[0] != shape[1]) { // keep as written, for the engine to report
+            return new ComputationNode(ComputationNodeType.POW, new ArrayList<>(List.of(operand)), power);
+        }
+        if (power == 1) {
+            return operand;
+        }
+        if (operand.getNodeType() == ComputationNodeType.POW) {
+            long combined = (long) operand.getPower() * power;
+            if (combined <= Integer.MAX_VALUE) {
+                return power(operand.getChildren().get(0), (int) combined);
+            }
+        }
+        return new ComputationNode(ComputationNodeType.POW, new ArrayList<>(List.of(operand)), power);
+    }
+
+    // a1 + ... + an - b1 - ... - bm, where the bi were the negated operands
+    private ComputationNode sum(List<ComputationNode> operands) {
+        List<ComputationNode> positive = new ArrayList<>();
+        List<ComputationNode> negative = new ArrayList<>();
+        for (ComputationNode operand : operands) {
+            if (operand.getNodeType() == ComputationNodeType.NEGATE && operand.getChildren().size() == 1) {
+                negative.add(operand.getChildren().get(0));
+            } else {
+                positive.add(operand);
+            }
+        }
+        ComputationNode sum = node(ComputationNodeType.ADD, operands);
+        if (negative.isEmpty() || operands.size() < 2 || shape(sum) == null) { // mismatched shapes are kept as written
+            return sum;
+        }
+        if (positive.isEmpty()) { // -a - b = -(a + b), one negation instead of many
+            return node(ComputationNodeType.NEGATE, List.of(leftNested(ComputationNodeType.ADD, negative)));
+        }
+        ComputationNode result = leftNested(ComputationNodeType.ADD, positive);
+        for (ComputationNode subtrahend : negative) {
+            result = node(ComputationNodeType.SUBTRACT, List.of(result, subtrahend));
+        }
+        return result;
+    }
+
+    private ComputationNode product(List<ComputationNode> operands) {
+        List<ComputationNode> chain = new ArrayList<>();
+        for (ComputationNode operand : operands) { // multiplication is associative, so nested products join the chain
+            if (operand.getNodeType() == ComputationNodeType.MULTIPLY) {
+                chain.addAll(operand.getChildren());
+            } else {
+                chain.add(operand);
+            }
+        }
+        int n = chain.size();
+        if (n < 3) {
+            return node(ComputationNodeType.MULTIPLY, chain);
+        }
+        long[] dims = new long[n + 1];
+        for (int i = 0; i < n; i++) {
+            int[] shape = shape(chain.get(i));
+            if (shape == null || (i > 0 && shape[0] != dims[i])) {
+                return node(ComputationNodeType.MULTIPLY, operands); // unknown or mismatched shapes, keep as written
+            }
+            dims[i] = shape[0];
+            dims[i + 1] = shape[1];
+        }
+        boolean uniform = true;
+        for (long dim : dims) {
+            uniform &= dim == dims[0];
+        }
+        if (uniform) { // every order costs the same, a balanced tree exposes the most parallelism
+            return balanced(chain, 0, n - 1);
+        }
+        if (n > MAX_DP_OPERANDS) {
+            return node(ComputationNodeType.MULTIPLY, operands);
+        }
+        // cost[i][j] = cheapest number of multiply-adds for operands i..j, split[i][j] = where to split them
+        long[][] cost = new long[n][n];
+        int[][] split = new int[n][n];
+        for (int length = 2; length <= n; length++) {
+            for (int i = 0; i + length - 1 < n; i++) {
+                int j = i + length - 1;
+                cost[i][j] = Long.MAX_VALUE;
+                split[i][j] = i; // kept if every split saturates
+                for (int k = i; k < j; k++) {
+                    // costs of huge (e.g. sparse) shapes saturate instead of wrapping negative
+                    long c = Saturating.add(Saturating.add(cost[i][k], cost[k + 1][j]),
+                            Saturating.multiply(Saturating.multiply(dims[i], dims[k + 1]), dims[j + 1]));
+                    if (c < cost[i][j]) {
+                        cost[i][j] = c;
+                        split[i][j] = k;
+                    }
+                }
+            }
+        }
+        return fromSplits(chain, split, 0, n - 1);
+    }
+
+    private ComputationNode fromSplits(List<ComputationNode> chain, int[][] split, int i, int j) {
+        if (i == j) {
+            return chain.get(i);
+        }
+        int k = split[i][j];
+        return node(ComputationNodeType.MULTIPLY, List.of(fromSplits(chain, split, i, k), fromSplits(chain, split, k + 1, j)));
+    }
+
+    private ComputationNode balanced(List<ComputationNode> chain, int i, int j) {
+        if (i == j) {
+            return chain.get(i);
+        }
+        int mid = (i + j) / 2;
+        return node(ComputationNodeType.MULTIPLY, List.of(balanced(chain, i, mid), balanced(chain, mid + 1, j)));
+    }
+
+    private static ComputationNode leftNested(ComputationNodeType type, List<ComputationNode> operands) {
+        ComputationNode result = operands.get(0);
+        for (int i = 1; i < operands.size(); i++) {
+            result = node(type, List.of(result, operands.get(i)));
+        }
+        return result;
+    }
+
+    /**
+     * Returns {rows, cols} of the node's result, or null if it can't be computed because shapes don't fit.
+     */
+    private int[] shape(ComputationNode node) {
+        if (shapes.containsKey(node)) {
+            return shapes.get(node);
+        }
+        int[] shape = null;
+        List<ComputationNode> children = node.getChildren();
+        switch (node.getNodeType()) {
+            case MATRIX:
+                shape = node.getShape();
+                break;
+            case TRANSPOSE: {
+                int[] operand = shape(children.get(0));
+                shape = operand == null ? null : new int[]{operand[1], operand[0]};
+                break;
+            }
+            case NEGATE:
+                shape = shape(children.get(0));
+                break;
+            case POW: {
+                int[] operand = children.size() == 1 ? shape(children.get(0)) : null;
+                shape = operand == null || operand[0] != operand[1] ? null : operand;
+                break;
+            }
+            case ADD:
+            case SUBTRACT:
+                shape = shape(children.get(0));
+                for (ComputationNode child : children) {
+                    int[] other = shape(child);
+                    if (shape == null || other == null || other[0] != shape[0] || other[1] != shape[1]) {
+                        shape = null;
+                        break;
+                    }
+                }
+                break;
+            case MULTIPLY:
+                shape = shape(children.get(0));
+                for (int i = 1; i < children.size() && shape != null; i++) {
+                    int[] other = shape(children.get(i));
+                    shape = other == null || other[0] != shape[1] ? null : new int[]{shape[0], other[1]};
+                }
+                break;
+            default:
+                break;
+        }
+        shapes.put(node, shape);
+        return shape;
+    }
+
+    private static ComputationNode node(ComputationNodeType type, List<ComputationNode> children) {
+        return new ComputationNode(type, new ArrayList<>(children)); // associativeNesting needs a mutable list
+    }
+
+    // A copy of the node, power included, over the given children
+    private static ComputationNode node(ComputationNode node, List<ComputationNode> children) {
+        return new ComputationNode(node.getNodeType(), new ArrayList<>(children), node.getPower());
+    }
+}
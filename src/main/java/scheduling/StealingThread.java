@@ -0,0 +1,80 @@
+package scheduling;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A worker of the WorkStealingExecutor.
+ * It runs tasks from its own deque (newest first) and, once that is empty, steals the oldest tasks of other workers.
+ * Fatigue is accounted exactly like in TiredThread.
+ */
+public class StealingThread extends TiredThread {
+
+    private final WorkStealingExecutor pool;
+    private final ConcurrentLinkedDeque<Runnable> deque = new ConcurrentLinkedDeque<>();
+    private final AtomicLong tasksStolen = new AtomicLong(0); // Tasks this worker took from other workers
+    private volatile boolean running = true;
+
+    public StealingThread(int id, double fatigueFactor, WorkStealingExecutor pool) {
+        super(id, fatigueFactor);
+        this.pool = pool;
+    }
+
+    void push(Runnable task) {
+        deque.addLast(task);
+    }
+
+    /**
+     * Called by thieves: takes the oldest task of this worker, or null if it has none.
+     */
+    Runnable steal() {
+        return deque.pollFirst();
+    }
+
+    boolean hasQueuedTasks() {
+        return !deque.isEmpty();
+    }
+
+    public long getTasksStolen() {
+        return tasksStolen.get();
+    }
+
+    @Override
+    public boolean isBusy() {
+        return super.isBusy() || !deque.isEmpty();
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(this);
+    }
+
+    @Override
+    public void run() {
+        while(running){
+            Runnable task = deque.pollLast();
+            if(task == null){
+                task = pool.steal(this);
+                if(task != null){
+                    tasksStolen.incrementAndGet();
+                }
+            }
+            if(task == null){
+                // re-checked right before parking, since the steal backoff may have consumed a wakeup permit
+                if(running && deque.isEmpty()){
+                    LockSupport.park(this); // woken up by the executor when new tasks are submitted
+                }
+                continue;
+            }
+            markBusy(true);
+            try{
+                runTimed(task);
+            }
+            finally{
+                markBusy(false);
+            }
+        }
+    }
+}
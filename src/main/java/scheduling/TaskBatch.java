@@ -0,0 +1,68 @@
+package scheduling;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import metrics.Metrics;
+import metrics.Timer;
+
+/**
+ * Completion tracking for one submitAll call.
+ * Every task is wrapped so that it counts down when it finishes and records the first failure instead of
+ * killing its worker. Each batch waits only for its own tasks, so several threads may submit at the same time.
+ * With metrics enabled, the wrapper also records how long each task waited to start and how long it ran.
+ */
+final class TaskBatch {
+
+    private static final Timer queueWait = Metrics.timer("task.queueWait");
+    private static final Timer runTime = Metrics.timer("task.run");
+
+    private final CountDownLatch done;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    TaskBatch(int size) {
+        done = new CountDownLatch(size);
+    }
+
+    Runnable wrap(Runnable task) {
+        long submitted = Metrics.start();
+        return () -> {
+            queueWait.recordSince(submitted);
+            long started = Metrics.start();
+            try{
+                task.run();
+            }
+            catch(Throwable t){
+                failure.compareAndSet(null, t);
+            }
+            finally{
+                runTime.recordSince(started);
+                done.countDown();
+            }
+        };
+    }
+
+    /**
+     * Waits for all tasks of the batch, then rethrows the first failure if there was one.
+     * An interrupt throws IllegalStateException with the interrupt flag kept set, since the batch may be incomplete.
+     */
+    void await() {
+        try{
+            done.await();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("[submitAll]: Interrupted before the batch finished", e);
+        }
+        Throwable t = failure.get();
+        if(t instanceof RuntimeException){
+            throw (RuntimeException) t;
+        }
+        if(t instanceof Error){
+            throw (Error) t;
+        }
+        if(t != null){
+            throw new IllegalStateException("[submitAll]: A task has failed: " + t.getMessage(), t);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package scheduling;
+
+/**
+ * A pool of worker threads that the engine hands its compute tasks to.
+ * Implementations differ in how tasks reach the workers, see TiredExecutor and WorkStealingExecutor.
+ */
+public interface TaskExecutor {
+
+    /**
+     * Runs all the given tasks on the pool and returns once every one of them has finished.
+     * If the caller is interrupted first, it throws IllegalStateException instead and keeps the interrupt flag set.
+     */
+    void submitAll(Iterable<Runnable> tasks);
+
+    /**
+     * Stops all workers after their current task and waits for them to exit.
+     */
+    void shutdown() throws InterruptedException;
+
+    /**
+     * Number of worker threads, used to size the tasks handed to submitAll.
+     */
+    int getNumThreads();
+
+    /**
+     * Returns readable statistics for each worker.
+     */
+    String getWorkerReport();
+}
@@ -2,15 +2,20 @@ package scheduling;
 
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 
-public class TiredExecutor {
+import metrics.Metrics;
+
+/**
+ * Hands tasks one at a time to the least tired idle worker.
+ * Idle workers wait in a min-heap keyed by fatigue. A worker puts itself back into the heap when it finishes a task,
+ * after its fatigue was updated, and its fatigue cannot change while it is idle, so the heap order is never stale.
+ * Dispatch costs one heap operation, independent of the number of workers, and no global monitor is involved.
+ */
+public class TiredExecutor implements TaskExecutor {
 
     private final TiredThread[] workers;
     private final PriorityBlockingQueue<TiredThread> idleMinHeap = new PriorityBlockingQueue<>();
-    private final AtomicInteger inFlight = new AtomicInteger(0);
 
     public TiredExecutor(int numThreads) {
         if(numThreads <= 0){
@@ -18,57 +23,44 @@ public class TiredExecutor {
         }
         workers = new TiredThread[numThreads];
         for(int i = 0; i < workers.length; i++){
-            TiredThread thread = new TiredThread(i, Math.random()+0.5);
+            TiredThread thread = new TiredThread(i, Math.random()+0.5, idleMinHeap::put);
             workers[i] = thread;
             idleMinHeap.put(thread);
             thread.start();
         }
     }
 
+    /**
+     * Hands a single task to the least tired idle worker, waiting for one to become idle if needed.
+     * Unlike submitAll, this does not wait for the task to finish.
+     * @throws IllegalStateException if interrupted while waiting, with the interrupt flag kept set; the task is not run
+     */
     public void submit(Runnable task) {
         // TODO
-        synchronized(TiredExecutor.class){
-            updateWorkers();
-            while(idleMinHeap.isEmpty()){
-                try{
-                    TiredExecutor.class.wait();
-                    updateWorkers();
-                }
-                catch(InterruptedException e){
-                    Thread.currentThread().interrupt(); //TiredExecutor.interrupt() shouldn't happen.
-                    return;
-                }
-            }
+        TiredThread work;
+        try{
+            work = idleMinHeap.take();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("[submit]: Interrupted while waiting for an idle worker", e);
         }
-        TiredThread work = idleMinHeap.poll();
-        inFlight.incrementAndGet();
         work.newTask(task);
     }
 
+    @Override
     public void submitAll(Iterable<Runnable> tasks){
         // TODO: submit tasks one by one and wait until all finish
-        Iterator<Runnable> iter = tasks.iterator();
-        while(iter.hasNext()){
-            this.submit(iter.next());
-        }
-        while(inFlight.get() > 0){
-            synchronized(TiredExecutor.class){
-                updateWorkers();
-                if(inFlight.get() == 0){
-                    break;
-                }
-                try{
-                    TiredExecutor.class.wait();
-                    updateWorkers();
-                }
-                catch(InterruptedException e){
-                    Thread.currentThread().interrupt(); //TiredExecutor.interrupt() shouldn't happen.
-                    return;
-                }
-            }
+        List<Runnable> batch = new ArrayList<>();
+        tasks.forEach(batch::add);
+        TaskBatch completion = new TaskBatch(batch.size());
+        for(Runnable task : batch){
+            this.submit(completion.wrap(task));
         }
+        completion.await();
     }
 
+    @Override
     public void shutdown() throws InterruptedException {
         // TODO
         for(int i=0;i<workers.length;i++){
@@ -78,8 +70,19 @@ public class TiredExecutor {
         for(int i=0;i<workers.length;i++){
             workers[i].join();
         }
+        if(Metrics.ENABLED){
+            for(TiredThread worker : workers){
+                Metrics.recordWorker(worker.getWorkerId(), worker.getTimeUsed(), worker.getTimeIdle());
+            }
+        }
     }
 
+    @Override
+    public int getNumThreads() {
+        return workers.length;
+    }
+
+    @Override
     public synchronized String getWorkerReport() {
         // TODO: return readable statistics for each worker
         String output = "";
@@ -93,17 +96,4 @@ public class TiredExecutor {
         }
         return output;
     }
-
-    private void updateWorkers(){
-        for(int i = 0; i < workers.length; i++){ //Handles fetching non-busy workers
-            if(workers[i].getState().equals(Thread.State.TERMINATED)){
-                throw new IllegalThreadStateException("[updateWorkers]: A thread has crashed and been terminated."); 
-            }
-            if(!workers[i].isBusy() && !idleMinHeap.contains(workers[i])){
-                idleMinHeap.put(workers[i]);
-                inFlight.decrementAndGet();
-            }
-            
-        }
-    }
 }
@@ -4,6 +4,7 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class TiredThread extends Thread implements Comparable<TiredThread> {      //test
 
@@ -23,9 +24,16 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
     private final AtomicLong timeIdle = new AtomicLong(0); // Total time spent idle
     private final AtomicLong idleStartTime = new AtomicLong(0); // Timestamp when the worker became idle
 
+    private final Consumer<TiredThread> onIdle; // Called after each task, once the worker can accept a new one
+
     public TiredThread(int id, double fatigueFactor) {
+        this(id, fatigueFactor, null);
+    }
+
+    public TiredThread(int id, double fatigueFactor, Consumer<TiredThread> onIdle) {
         this.id = id;
         this.fatigueFactor = fatigueFactor;
+        this.onIdle = onIdle;
         this.idleStartTime.set(System.nanoTime());
         setName(String.format("FF=%.2f", fatigueFactor));
     }
@@ -78,33 +86,56 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
     @Override
     public void run() {
        while(alive.get()){
+            Runnable curtask;
             try{
-                Runnable curtask=handoff.take();
-                busy.set(true);
-                if(curtask==POISON_PILL){
-                    alive.set(false); 
-                    break;
-                }
-                long curStartTime=(System.nanoTime());
-                timeIdle.addAndGet(System.nanoTime()-idleStartTime.get());
-                curtask.run();
-                long curStopTime=(System.nanoTime());
-                long TaskDuration=curStopTime-curStartTime;
-                timeUsed.addAndGet(TaskDuration);
-                idleStartTime.set(System.nanoTime());
+                curtask=handoff.take();
+            }
+            catch(InterruptedException e){ //No task was taken, e.g. the previous one restored its interrupt flag: clear it and wait again
+                Thread.interrupted();
+                continue;
+            }
+            if(curtask==POISON_PILL){
+                alive.set(false);
+                break;
+            }
+            busy.set(true);
+            try{
+                runTimed(curtask);
             }
-            catch(InterruptedException e){
-                Thread.currentThread().interrupt(); //Shouldn't happen in our project.
+            catch(Throwable t){ //A task given to submit() failed: report it and keep the worker, which goes back to the idle heap
+                getUncaughtExceptionHandler().uncaughtException(this, t);
             }
             finally{ //Notify executor that a task has finished/crashed
                 busy.set(false);
-                synchronized(TiredExecutor.class){
-                    TiredExecutor.class.notifyAll();
+                if(onIdle != null && alive.get()){
+                    onIdle.accept(this);
                 }
             }
        }
     }
 
+    /**
+     * Runs a task on the calling worker, charging its duration to timeUsed (and so to fatigue)
+     * and the gap since the previous task to timeIdle.
+     */
+    protected final void runTimed(Runnable task) {
+        long curStartTime=(System.nanoTime());
+        timeIdle.addAndGet(curStartTime-idleStartTime.get());
+        try{
+            task.run();
+        }
+        finally{
+            long curStopTime=(System.nanoTime());
+            long TaskDuration=curStopTime-curStartTime;
+            timeUsed.addAndGet(TaskDuration);
+            idleStartTime.set(System.nanoTime());
+        }
+    }
+
+    protected final void markBusy(boolean value) {
+        busy.set(value);
+    }
+
     @Override
     public int compareTo(TiredThread o) {
         double res= getFatigue()-o.getFatigue();
@@ -0,0 +1,126 @@
+package scheduling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import metrics.Metrics;
+
+/**
+ * An executor where every worker owns a deque of tasks, in the style of a ForkJoinPool.
+ * A submitted batch is split into contiguous runs across the deques, less tired workers getting theirs first.
+ * A worker that runs out of tasks steals from the others, so one long task no longer leaves the rest idle.
+ * Tired workers back off before stealing, which lets the fresher workers pick up the leftover work first.
+ */
+public final class WorkStealingExecutor implements TaskExecutor {
+
+    private static final long STEAL_BACKOFF_NANOS = 2_000; // extra wait per worker that is less tired than the thief
+
+    private final StealingThread[] workers;
+
+    public WorkStealingExecutor(int numThreads) {
+        if(numThreads <= 0){
+            throw new IllegalArgumentException("[WorkStealingExecutor]: Number of threads must be positive!");
+        }
+        workers = new StealingThread[numThreads];
+        for(int i = 0; i < workers.length; i++){
+            workers[i] = new StealingThread(i, Math.random()+0.5, this);
+        }
+        for(StealingThread worker : workers){
+            worker.start();
+        }
+    }
+
+    @Override
+    public void submitAll(Iterable<Runnable> tasks) {
+        List<Runnable> batch = new ArrayList<>();
+        tasks.forEach(batch::add);
+        if(batch.isEmpty()){
+            return;
+        }
+        TaskBatch completion = new TaskBatch(batch.size());
+
+        StealingThread[] byFatigue = workers.clone();
+        Arrays.sort(byFatigue, Comparator.comparingDouble(TiredThread::getFatigue));
+        int numWorkers = Math.min(byFatigue.length, batch.size());
+        for(int i = 0; i < batch.size(); i++){ //contiguous runs keep neighbouring tasks on the same worker
+            byFatigue[(int)((long)i * numWorkers / batch.size())].push(completion.wrap(batch.get(i)));
+        }
+        for(StealingThread worker : workers){
+            LockSupport.unpark(worker);
+        }
+        completion.await();
+    }
+
+    /**
+     * Finds a task for an idle worker in the other workers' deques, or returns null if there is none.
+     */
+    Runnable steal(StealingThread thief) {
+        int fresher = 0;
+        boolean workLeft = false;
+        for(StealingThread worker : workers){
+            if(worker != thief){
+                if(worker.getFatigue() < thief.getFatigue()){
+                    fresher++;
+                }
+                workLeft |= worker.hasQueuedTasks();
+            }
+        }
+        if(!workLeft){
+            return null;
+        }
+        if(fresher > 0){
+            LockSupport.parkNanos(fresher * STEAL_BACKOFF_NANOS);
+        }
+        int start = ThreadLocalRandom.current().nextInt(workers.length);
+        for(int i = 0; i < workers.length; i++){
+            StealingThread victim = workers[(start + i) % workers.length];
+            if(victim != thief){
+                Runnable task = victim.steal();
+                if(task != null){
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void shutdown() throws InterruptedException {
+        for(StealingThread worker : workers){
+            worker.shutdown();
+        }
+        for(StealingThread worker : workers){
+            worker.join();
+        }
+        if(Metrics.ENABLED){
+            for(StealingThread worker : workers){
+                Metrics.recordWorker(worker.getWorkerId(), worker.getTimeUsed(), worker.getTimeIdle());
+            }
+            Metrics.counter("tasks.stolen").add(Arrays.stream(workers).mapToLong(StealingThread::getTasksStolen).sum());
+        }
+    }
+
+    @Override
+    public int getNumThreads() {
+        return workers.length;
+    }
+
+    @Override
+    public synchronized String getWorkerReport() {
+        String output = "";
+        for(int i = 0; i < workers.length; i++){
+            StealingThread cur = workers[i];
+            output += "Worker " + i + ":\n";
+            output += "\tFatigue: " + cur.getFatigue() + "\n";
+            output += "\tTime Used (ns): " + cur.getTimeUsed() + "\n";
+            output += "\tTime Idle (ns): " + cur.getTimeIdle() + "\n";
+            output += "\tTasks Stolen: " + cur.getTasksStolen() + "\n";
+            output += "\tIs Busy: " + cur.isBusy() + "\n";
+        }
+        return output;
+    }
+}
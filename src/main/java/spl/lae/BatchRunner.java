@@ -0,0 +1,168 @@
+package spl.lae;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import metrics.Metrics;
+import parser.ComputationNode;
+import parser.OutputWriter;
+import scheduling.TaskExecutor;
+
+/**
+ * Runs many jobs in one process on a single shared executor, as a pipeline:
+ * the next PARSE_AHEAD inputs are parsed on virtual threads while the current tree is computed,
+ * and results are written on virtual threads while the following trees are computed.
+ * Each job is isolated: a job that fails to parse, compute or write gets its error message as output,
+ * and the batch goes on.
+ */
+public class BatchRunner implements AutoCloseable {
+
+    private static final int PARSE_AHEAD = 4; // parsed trees waiting to be computed
+    private static final int WRITE_BEHIND = 4; // computed results waiting to be written
+
+    /**
+     * One input file and the file its result is written to.
+     */
+    public record Job(String inputPath, String outputPath) {}
+
+    private final TaskExecutor executor;
+    private final LinearAlgebraEngine engine;
+    private final ExecutorService io = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore writeSlots = new Semaphore(WRITE_BEHIND);
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public BatchRunner(int numThreads) {
+        executor=LinearAlgebraEngine.createExecutor(numThreads);
+        engine=new LinearAlgebraEngine(executor);
+    }
+
+    /**
+     * Runs the jobs in order and returns once every result is written.
+     * @return the number of jobs whose output is an error message, or that could not be written at all
+     */
+    public int run(List<Job> jobs) throws InterruptedException {
+        failed.set(0);
+        ArrayDeque<Future<ComputationNode>> parsed=new ArrayDeque<>();
+        int next=0;
+        for(Job job : jobs){
+            while(next<jobs.size() && parsed.size()<PARSE_AHEAD){
+                String inputPath=jobs.get(next++).inputPath();
+                parsed.add(io.submit(() -> Main.parseJob(inputPath)));
+            }
+            ComputationNode result=null;
+            Throwable error=null;
+            try{
+                ComputationNode root=parsed.remove().get();
+                long start=Metrics.start();
+                result=engine.run(root);
+                Metrics.recordStage("run", start);
+            }
+            catch(ExecutionException e){
+                error=e.getCause()==null ? e : e.getCause();
+            }
+            catch(RuntimeException | Error e){ // such as a StackOverflowError on a deep tree, which fails only this job
+                error=e;
+            }
+            writeSlots.acquire();
+            ComputationNode output=result;
+            Throwable failure=error;
+            io.execute(() -> {
+                try{
+                    write(job, output, failure);
+                }
+                finally{
+                    writeSlots.release();
+                }
+            });
+        }
+        writeSlots.acquire(WRITE_BEHIND); // waits for the last writes
+        writeSlots.release(WRITE_BEHIND);
+        return failed.get();
+    }
+
+    private void write(Job job, ComputationNode result, Throwable error) {
+        try{
+            if(error==null){
+                try{
+                    Main.writeResult(result, job.outputPath());
+                    engine.recycle(result);
+                    return;
+                }
+                catch(Exception | Error e){
+                    error=e;
+                }
+            }
+            failed.incrementAndGet();
+            OutputWriter.write(Main.errorMessage(error), job.outputPath());
+        }
+        catch(IOException e){
+            System.err.println("[Batch]: Could not write " + job.outputPath() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * One job per .json file of the input directory, in name order, written under the same name to the output
+     * directory, which is created if needed.
+     */
+    public static List<Job> directoryJobs(Path inputDirectory, Path outputDirectory) throws IOException {
+        Files.createDirectories(outputDirectory);
+        if(Files.isSameFile(inputDirectory, outputDirectory))
+            throw new IOException("[directoryJobs]: The output directory must differ from the input directory");
+        List<Job> jobs=new ArrayList<>();
+        try(Stream<Path> files=Files.list(inputDirectory)){
+            files.filter(path -> path.getFileName().toString().endsWith(".json") && Files.isRegularFile(path))
+                    .sorted()
+                    .forEach(path -> jobs.add(new Job(path.toString(), outputDirectory.resolve(path.getFileName()).toString())));
+        }
+        return jobs;
+    }
+
+    /**
+     * Reads a manifest with one "input output" pair per line, separated by a tab or, if the line has no tab,
+     * by spaces. Blank lines and lines starting with # are skipped; relative paths are resolved against
+     * the manifest's directory.
+     */
+    public static List<Job> manifestJobs(Path manifest) throws IOException {
+        Path parent=manifest.toAbsolutePath().getParent();
+        List<String> lines=Files.readAllLines(manifest);
+        List<Job> jobs=new ArrayList<>(lines.size());
+        for(int i=0;i<lines.size();i++){
+            String line=lines.get(i).strip();
+            if(line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] paths=line.indexOf('\t')>=0 ? line.split("\t+") : line.split(" +");
+            if(paths.length!=2)
+                throw new IOException("[manifestJobs]: Line " + (i+1) + " of " + manifest + " is not an input/output pair");
+            jobs.add(new Job(parent.resolve(paths[0].strip()).toString(), parent.resolve(paths[1].strip()).toString()));
+        }
+        return jobs;
+    }
+
+    /**
+     * Waits for any pending writes and shuts the shared executor down.
+     * If interrupted while waiting, it stops waiting, still shuts the executor down and keeps the interrupt flag set.
+     */
+    @Override
+    public void close() {
+        io.shutdown();
+        try{
+            io.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        try{
+            executor.shutdown();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
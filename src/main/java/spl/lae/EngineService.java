@@ -0,0 +1,170 @@
+package spl.lae;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import parser.OutputWriter;
+import scheduling.TaskExecutor;
+
+/**
+ * Keeps one engine and its worker pool alive and runs the jobs that are dropped into a spool directory,
+ * so the JVM start-up, JIT warm-up and thread creation are paid once instead of per job:
+ * <pre>
+ *   spool/in/    jobs: input JSON files, picked up in name order
+ *   spool/out/   results, under the job's file name, moved in only once complete
+ *   spool/done/  inputs of the jobs that were run
+ * </pre>
+ * A job file must appear in spool/in/ complete, so clients should write it elsewhere (or under a name not ending
+ * in .json) and rename it in. At most maxJobs jobs run at a time, all sharing the pool; the rest wait in spool/in/.
+ * close() stops taking new jobs, lets the running ones finish and then shuts the pool down.
+ */
+public class EngineService implements AutoCloseable {
+
+    private static final String JOB_SUFFIX = ".json";
+    private static final long POLL_MILLIS = 500; // how often the loop checks whether it was closed
+
+    private final Path inbox;
+    private final Path outbox;
+    private final Path done;
+    private final TaskExecutor executor;
+    private final LinearAlgebraEngine engine;
+    private final Semaphore slots; // one permit per job that may run at once
+    private final ExecutorService jobs = Executors.newVirtualThreadPerTaskExecutor();
+    private final Set<Path> accepted = ConcurrentHashMap.newKeySet(); // taken but not yet moved to done/
+    private final CountDownLatch stopped = new CountDownLatch(1); // released when serve() returns
+    private final AtomicBoolean serving = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean running = true;
+
+    public EngineService(Path spool, int numThreads, int maxJobs) throws IOException {
+        if(maxJobs<=0)
+            throw new IllegalArgumentException("[EngineService]: maxJobs must be positive");
+        inbox=Files.createDirectories(spool.resolve("in"));
+        outbox=Files.createDirectories(spool.resolve("out"));
+        done=Files.createDirectories(spool.resolve("done"));
+        executor=LinearAlgebraEngine.createExecutor(numThreads);
+        engine=new LinearAlgebraEngine(executor);
+        slots=new Semaphore(maxJobs);
+    }
+
+    /**
+     * Runs the jobs already waiting in spool/in/ and then every job that arrives, until close() is called.
+     */
+    public void serve() throws IOException, InterruptedException {
+        if(!serving.compareAndSet(false, true))
+            throw new IllegalStateException("[serve]: The service is already serving");
+        try(WatchService watcher=inbox.getFileSystem().newWatchService()){
+            inbox.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            scan();
+            while(running){
+                WatchKey key=watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if(key==null)
+                    continue;
+                // any event, including an overflow, just triggers a rescan of the directory
+                key.pollEvents();
+                key.reset();
+                scan();
+            }
+        }
+        finally{
+            stopped.countDown();
+        }
+    }
+
+    // Starts every waiting job that is not running yet, blocking while all job slots are taken
+    private void scan() throws IOException, InterruptedException {
+        List<Path> waiting=new ArrayList<>();
+        try(Stream<Path> files=Files.list(inbox)){
+            files.filter(EngineService::isJob).sorted().forEach(waiting::add);
+        }
+        for(Path input : waiting){
+            if(accepted.contains(input))
+                continue;
+            while(!slots.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)){
+                if(!running)
+                    return;
+            }
+            if(!running){
+                slots.release();
+                return;
+            }
+            accepted.add(input);
+            jobs.execute(() -> runJob(input));
+        }
+    }
+
+    private static boolean isJob(Path path) {
+        String name=path.getFileName().toString();
+        return name.endsWith(JOB_SUFFIX) && !name.startsWith(".") && Files.isRegularFile(path);
+    }
+
+    // Runs one job, writing its result under a hidden name first so clients never see a partial file.
+    // Whatever happens, the input moves to done/ and the job gives its slot back. An input that cannot be moved stays
+    // accepted, so later scans skip it instead of running it again and again.
+    private void runJob(Path input) {
+        String name=input.getFileName().toString();
+        Path partial=outbox.resolve(".partial-" + name);
+        try{
+            try{
+                Main.runJob(engine, input.toString(), partial.toString());
+            }
+            catch(RuntimeException | Error e){ // what Main.runJob doesn't report itself, such as a StackOverflowError
+                System.err.println("[EngineService]: Job " + name + " failed: " + e);
+                OutputWriter.write("ERROR: " + (e.getMessage()==null ? e.getClass().getSimpleName() : e.getMessage()), partial.toString());
+            }
+            Files.move(partial, outbox.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(IOException | RuntimeException | Error e){
+            System.err.println("[EngineService]: Job " + name + " failed: " + e.getMessage());
+        }
+        finally{
+            boolean moved=false;
+            try{ // moved even when the job failed, so it is not picked up again
+                Files.move(input, done.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+                moved=true;
+            }
+            catch(IOException e){
+                System.err.println("[EngineService]: Could not move job " + name + " to done/, it will not be run again: " + e.getMessage());
+            }
+            finally{
+                if(moved)
+                    accepted.remove(input);
+                slots.release();
+            }
+        }
+    }
+
+    /**
+     * Stops taking jobs, waits for the running ones to finish and shuts the worker pool down.
+     * Safe to call more than once and from a shutdown hook. If interrupted while waiting, it stops waiting,
+     * still shuts everything down and keeps the interrupt flag set.
+     */
+    @Override
+    public void close() {
+        if(!closed.compareAndSet(false, true))
+            return;
+        running=false;
+        try{
+            if(serving.get())
+                stopped.await();
+            jobs.shutdown();
+            jobs.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            jobs.shutdown();
+        }
+        try{
+            executor.shutdown();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
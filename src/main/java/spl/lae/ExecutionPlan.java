@@ -0,0 +1,507 @@
+package spl.lae;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import memory.SparseMatrix;
+import memory.StrassenKernel;
+import memory.VectorOrientation;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+import parser.Saturating;
+
+/**
+ * A static plan of how the engine evaluates a prepared computation DAG (binary, with repeated subexpressions shared),
+ * made before anything runs:
+ * <ul>
+ *     <li>The shape of every node, so a tree whose dimensions don't fit is rejected up front, with the error
+ *     evaluation would have reported once it got there.</li>
+ *     <li>The floating point operations of every node.</li>
+ *     <li>The memory of every value over a sequential evaluation order (operands first): which results are computed in
+ *     place on an operand that has no other consumer left, which need a new buffer, and which dead value's buffer that
+ *     can be (best fit over liveness), as well as the temporaries of each operation and the resulting peak.</li>
+ * </ul>
+ * The plan also records the Gram products A * T(A) and T(A) * A, which the engine computes from A alone.
+ * Where the engine only decides at runtime, the plan estimates: a sum or product of two sparse operands is sized from
+ * their non-zeros (assumed spread evenly, and at most the dense size) and stays sparse if that estimate is sparse
+ * enough, though it is costed as a dense one; identity, diagonal or triangular operands are counted as general ones.
+ * Independent branches run concurrently, so the actual peak can exceed the sequential one by the results of the
+ * branches in flight at once.
+ * Counts and sizes too large for a long saturate at Long.MAX_VALUE.
+ */
+public final class ExecutionPlan {
+
+    private static final double STRASSEN_WORKSPACE = 2.75; // temporaries of StrassenKernel, relative to its output
+    private static final int NO_BUFFER = -1;
+
+    /**
+     * A Gram product A * T(A), or T(A) * A if transposeFirst, computed from A alone by the symmetric kernel.
+     */
+    record Gram(ComputationNode base, boolean transposeFirst) {}
+
+    /**
+     * One node of the plan, in evaluation order; leaves appear where they are first used.
+     * bytes is the size of the node's value, stored sparse if sparse, and buffer the dense buffer holding it (-1 for
+     * sparse values).
+     * An operation computed in place keeps the buffer of its first operand.
+     */
+    public record Step(int id, String operation, int rows, int cols, List<Integer> operands, long flops, long bytes,
+                       boolean sparse, long temporaryBytes, boolean inPlace, int buffer) {}
+
+    // What the plan knows of a node's value; builtOn is the operand whose storage it took over, if computed in place
+    // nonZeros is the (estimated) number of stored elements of a sparse value
+    private record Value(Step step, long nonZeros, VectorOrientation orientation, ComputationNode builtOn) {
+        boolean sparse() {
+            return step.sparse();
+        }
+    }
+
+    private final boolean strassen;
+    private final Map<ComputationNode, Gram> grams = new IdentityHashMap<>();
+    private final Map<ComputationNode, Integer> remaining = new IdentityHashMap<>(); // consumers left, while planning
+    private final Map<ComputationNode, Value> values = new IdentityHashMap<>();
+    private final Map<ComputationNode, Long> subtreeFlops = new IdentityHashMap<>();
+    private final List<Step> steps = new ArrayList<>();
+    private final List<Long> bufferSizes = new ArrayList<>(); // by buffer id
+    private final List<Integer> freeBuffers = new ArrayList<>();
+    private final ComputationNode root;
+    private long flops;
+    private long inputBytes;
+    private long liveBytes;
+    private long peakBytes;
+    private long newBufferBytes;
+    private int newBuffers;
+
+    private ExecutionPlan(ComputationNode root, boolean strassen) {
+        this.root = root;
+        this.strassen = strassen;
+    }
+
+    /**
+     * Plans a prepared DAG (see LinearAlgebraEngine.plan) for an engine using Strassen products if strassen is set.
+     * @throws IllegalArgumentException if the operands of a node don't fit
+     */
+    public static ExecutionPlan of(ComputationNode root, boolean strassen) {
+        ExecutionPlan plan = new ExecutionPlan(root, strassen);
+        plan.findGrams(root, Collections.newSetFromMap(new IdentityHashMap<>()));
+        plan.countConsumers(root);
+        plan.addInputs(root, Collections.newSetFromMap(new IdentityHashMap<>()));
+        plan.liveBytes = plan.inputBytes;
+        plan.peakBytes = plan.inputBytes;
+        plan.visit(root);
+        return plan;
+    }
+
+    // Finds the Gram products: once repeated subexpressions are shared, both sides refer to the same A
+    private void findGrams(ComputationNode node, Set<ComputationNode> visited) {
+        if(node.getNodeType() == ComputationNodeType.MATRIX || !visited.add(node)){
+            return;
+        }
+        List<ComputationNode> children = node.getChildren();
+        if(node.getNodeType() == ComputationNodeType.MULTIPLY && children.size() == 2){
+            ComputationNode left = children.getFirst();
+            ComputationNode right = children.getLast();
+            if(isTransposeOf(right, left)){
+                grams.put(node, new Gram(left, false));
+            }
+            else if(isTransposeOf(left, right)){
+                grams.put(node, new Gram(right, true));
+            }
+        }
+        for(ComputationNode child : operands(node)){
+            findGrams(child, visited);
+        }
+    }
+
+    private static boolean isTransposeOf(ComputationNode transpose, ComputationNode base) {
+        return transpose.getNodeType() == ComputationNodeType.TRANSPOSE && transpose.getChildren().size() == 1
+                && transpose.getChildren().getFirst() == base;
+    }
+
+    /**
+     * The nodes a node is computed from: its children, or A alone for a Gram product, whose T(A) is not evaluated for it.
+     */
+    List<ComputationNode> operands(ComputationNode node) {
+        Gram gram = grams.get(node);
+        return gram == null ? node.getChildren() : List.of(gram.base());
+    }
+
+    /**
+     * The Gram product computed at the node, or null.
+     */
+    Gram gram(ComputationNode node) {
+        return grams.get(node);
+    }
+
+    private void countConsumers(ComputationNode node) {
+        if(node.getNodeType() == ComputationNodeType.MATRIX){
+            return;
+        }
+        for(ComputationNode child : operands(node)){
+            Integer consumers = remaining.get(child);
+            remaining.put(child, consumers == null ? 1 : consumers + 1);
+            if(consumers == null){
+                countConsumers(child);
+            }
+        }
+    }
+
+    // Every leaf is loaded before evaluation starts, so all inputs are live from the beginning
+    private void addInputs(ComputationNode node, Set<ComputationNode> visited) {
+        if(!visited.add(node)){
+            return;
+        }
+        if(node.getNodeType() == ComputationNodeType.MATRIX){
+            inputBytes = Saturating.add(inputBytes, leafBytes(node));
+            return;
+        }
+        for(ComputationNode child : operands(node)){
+            addInputs(child, visited);
+        }
+    }
+
+    private static long leafBytes(ComputationNode leaf) {
+        SparseMatrix sparse = leaf.getSparseMatrix();
+        if(sparse != null){
+            return sparseBytes(sparse.nonZeros(), sparse.length());
+        }
+        int[] shape = leaf.getShape();
+        return denseBytes(shape[0], shape[1]);
+    }
+
+    private static long sparseBytes(long nonZeros, int vectors) {
+        return Saturating.add(Saturating.multiply(nonZeros, Double.BYTES + Integer.BYTES), (vectors + 1L) * Integer.BYTES);
+    }
+
+    private static long denseBytes(int rows, int cols) {
+        return Saturating.multiply((long) rows * cols, Double.BYTES);
+    }
+
+    private Value visit(ComputationNode node) {
+        Value value = values.get(node);
+        if(value != null){
+            return value;
+        }
+        if(node.getNodeType() == ComputationNodeType.MATRIX){
+            int[] shape = node.getShape();
+            boolean sparse = node.getSparseMatrix() != null;
+            long bytes = leafBytes(node);
+            Step step = new Step(steps.size(), "MATRIX", shape[0], shape[1], List.of(), 0, bytes, sparse, 0, false,
+                    sparse ? NO_BUFFER : newBuffer(bytes, false));
+            long nonZeros = sparse ? node.getSparseMatrix().nonZeros() : (long) shape[0] * shape[1];
+            return record(node, new Value(step, nonZeros, node.getOrientation(), null));
+        }
+        List<ComputationNode> children = operands(node);
+        List<Value> operands = new ArrayList<>();
+        for(ComputationNode child : children){
+            operands.add(visit(child));
+        }
+        value = plan(node, children, operands);
+        // the operands' last consumer frees them, unless the result was computed in place on one
+        for(ComputationNode child : children){
+            int consumers = remaining.merge(child, -1, Integer::sum);
+            Value operand = values.get(child);
+            if(consumers == 0 && child != value.builtOn()){
+                liveBytes -= operand.step().bytes();
+                if(operand.step().buffer() != NO_BUFFER){
+                    freeBuffers.add(operand.step().buffer());
+                }
+            }
+        }
+        return value;
+    }
+
+    // Plans an operator node whose operands are planned, mirroring the choices of LinearAlgebraEngine.evaluate
+    private Value plan(ComputationNode node, List<ComputationNode> children, List<Value> operands) {
+        ComputationNodeType type = node.getNodeType();
+        Gram gram = grams.get(node);
+        boolean unary = type == ComputationNodeType.NEGATE || type == ComputationNodeType.TRANSPOSE || type == ComputationNodeType.POW;
+        if(gram == null && operands.size() != (unary ? 1 : 2)){
+            throw new IllegalArgumentException("[ExecutionPlan]: " + type + " needs " + (unary ? "one operand" : "two operands")
+                    + ", got " + operands.size());
+        }
+        Value left = operands.getFirst();
+        Value right = operands.getLast();
+        int rows = left.step().rows();
+        int cols = left.step().cols();
+        int base = 0; // the operand an in-place operation works on
+        boolean sparse = false;
+        long nonZeros = left.nonZeros();
+        boolean inPlace = false;
+        VectorOrientation orientation = left.orientation();
+        long flops = 0;
+        long temporary = 0;
+        String operation = type.name();
+        if(gram != null){
+            operation = "MULTIPLY-gram";
+            int depth = gram.transposeFirst() ? rows : cols;
+            rows = gram.transposeFirst() ? cols : rows;
+            cols = rows;
+            flops = Saturating.multiply((long) rows * rows, depth);
+            orientation = VectorOrientation.ROW_MAJOR;
+            if(left.sparse()){ // the sparse product of a copy of A with its transpose
+                nonZeros = productNonZeros(left.nonZeros(), left.nonZeros(), depth, (long) rows * cols);
+                sparse = SparseMatrix.isSparseEnough(nonZeros, (long) rows * cols);
+                temporary = Saturating.add(left.step().bytes(), sparse ? 0 : sparseBytes(nonZeros, rows));
+            }
+        }
+        else if(type == ComputationNodeType.ADD || type == ComputationNodeType.SUBTRACT){
+            if(rows != right.step().rows() || cols != right.step().cols()){
+                String name = type == ComputationNodeType.ADD ? "createAddTasks" : "createSubtractTasks";
+                throw new IllegalArgumentException("[" + name + "]: Matrix lengths don't match");
+            }
+            flops = (long) rows * cols;
+            if(!left.sparse() && !right.sparse()){
+                inPlace = true;
+                // the right operand is copied when it is stored the other way, or is the left operand itself
+                if(children.getFirst() == children.getLast() || left.orientation() != right.orientation()){
+                    temporary = denseBytes(rows, cols);
+                }
+            }
+            else if(left.sparse() != right.sparse()){ // the sparse operand is added into the dense one
+                inPlace = true;
+                base = left.sparse() ? 1 : 0;
+                orientation = operands.get(base).orientation();
+            }
+            else{ // a sparse sum in the left operand's orientation, made dense if it fills in
+                nonZeros = Math.min(Saturating.add(left.nonZeros(), right.nonZeros()), (long) rows * cols);
+                sparse = SparseMatrix.isSparseEnough(nonZeros, (long) rows * cols);
+                if(!sparse){
+                    temporary = sparseBytes(nonZeros, orientation == VectorOrientation.ROW_MAJOR ? rows : cols);
+                }
+            }
+        }
+        else if(type == ComputationNodeType.MULTIPLY){
+            if(cols != right.step().rows()){
+                throw new IllegalArgumentException("[createMultiplyTasks]: Left matrix columns don't match right matrix rows");
+            }
+            flops = Saturating.multiply(Saturating.multiply(2L * rows, cols), right.step().cols());
+            if(strassen && !left.sparse() && !right.sparse() && StrassenKernel.applies(rows, cols, right.step().cols())){
+                temporary = (long) (STRASSEN_WORKSPACE * denseBytes(rows, right.step().cols()));
+            }
+            if(left.sparse() && right.sparse()){ // a sparse product, made dense if it fills in
+                nonZeros = productNonZeros(left.nonZeros(), right.nonZeros(), cols, (long) rows * right.step().cols());
+                sparse = SparseMatrix.isSparseEnough(nonZeros, (long) rows * right.step().cols());
+                if(!sparse){
+                    temporary = sparseBytes(nonZeros, rows);
+                }
+            }
+            cols = right.step().cols();
+            orientation = VectorOrientation.ROW_MAJOR;
+        }
+        else if(type == ComputationNodeType.NEGATE){
+            flops = (long) rows * cols;
+            sparse = left.sparse();
+            inPlace = true;
+        }
+        else if(type == ComputationNodeType.TRANSPOSE){
+            rows = left.step().cols();
+            cols = left.step().rows();
+            sparse = left.sparse();
+            inPlace = true;
+            orientation = left.orientation() == VectorOrientation.ROW_MAJOR ? VectorOrientation.COLUMN_MAJOR : VectorOrientation.ROW_MAJOR;
+        }
+        else if(type == ComputationNodeType.POW){
+            if(rows != cols){
+                throw new IllegalArgumentException("[computePower]: Only square matrices can be raised to a power");
+            }
+            int power = node.getPower();
+            if(power == 1){ // the operand itself
+                sparse = left.sparse();
+                inPlace = true;
+            }
+            else{
+                orientation = VectorOrientation.ROW_MAJOR;
+            }
+            if(power > 1){
+                // a squaring per bit below the top one, and a product with A per set bit among them
+                long products = 31 - Integer.numberOfLeadingZeros(power) + Integer.bitCount(power) - 1;
+                flops = Saturating.multiply(Saturating.multiply(products * 2L * rows, rows), rows);
+                // the second ping-pong buffer, and a dense copy of a sparse operand
+                temporary = Saturating.multiply(denseBytes(rows, rows), left.sparse() ? 2 : 1);
+                if(strassen && StrassenKernel.applies(rows, rows, rows)){
+                    temporary = Saturating.add(temporary, (long) (STRASSEN_WORKSPACE * denseBytes(rows, rows)));
+                }
+            }
+        }
+        else{
+            throw new IllegalArgumentException("[ExecutionPlan]: Unknown operation " + type);
+        }
+        // an operand still shared with other consumers is copied before it is modified
+        inPlace &= remaining.get(children.get(base)) == 1;
+        long bytes = !sparse ? denseBytes(rows, cols) : unary ? left.step().bytes()
+                : sparseBytes(nonZeros, orientation == VectorOrientation.ROW_MAJOR ? rows : cols);
+        long allocated = inPlace ? 0 : bytes;
+        peakBytes = Math.max(peakBytes, Saturating.add(Saturating.add(liveBytes, allocated), temporary));
+        liveBytes = Saturating.add(liveBytes, allocated);
+        int buffer = sparse ? NO_BUFFER : inPlace ? operands.get(base).step().buffer() : newBuffer(bytes, true);
+        List<Integer> ids = new ArrayList<>();
+        for(Value operand : operands){
+            ids.add(operand.step().id());
+        }
+        this.flops = Saturating.add(this.flops, flops);
+        Step step = new Step(steps.size(), operation, rows, cols, List.copyOf(ids), flops, bytes, sparse, temporary,
+                inPlace, buffer);
+        return record(node, new Value(step, sparse ? nonZeros : (long) rows * cols, orientation,
+                inPlace ? children.get(base) : null));
+    }
+
+    // Estimated non-zeros of a product of sparse operands, at most its dense size: each non-zero of the left operand
+    // meets the non-zeros of one row of the right one, assumed spread evenly over its depth rows as in
+    // LinearAlgebraEngine.computeSparse
+    private static long productNonZeros(long left, long right, int depth, long size) {
+        long perRow = Math.max(1, right / Math.max(1, depth));
+        return Math.min(Saturating.multiply(left, perRow), size);
+    }
+
+    private Value record(ComputationNode node, Value value) {
+        values.put(node, value);
+        steps.add(value.step());
+        return value;
+    }
+
+    // The smallest free buffer that holds bytes, or a new one; inputs always get their own
+    private int newBuffer(long bytes, boolean reuse) {
+        int best = -1;
+        for(int i = 0; reuse && i < freeBuffers.size(); i++){
+            long size = bufferSizes.get(freeBuffers.get(i));
+            if(size >= bytes && (best < 0 || size < bufferSizes.get(freeBuffers.get(best)))){
+                best = i;
+            }
+        }
+        if(best >= 0){
+            return freeBuffers.remove(best);
+        }
+        if(reuse){
+            newBuffers++;
+            newBufferBytes = Saturating.add(newBufferBytes, bytes);
+        }
+        bufferSizes.add(bytes);
+        return bufferSizes.size() - 1;
+    }
+
+    /**
+     * Floating point operations of the node and everything below it (shared subexpressions counted at each use),
+     * 0 for a leaf or a node outside the plan.
+     */
+    long subtreeFlops(ComputationNode node) {
+        Value value = values.get(node);
+        if(value == null || node.getNodeType() == ComputationNodeType.MATRIX){
+            return 0;
+        }
+        Long known = subtreeFlops.get(node);
+        if(known != null){
+            return known;
+        }
+        long total = value.step().flops();
+        for(ComputationNode child : operands(node)){
+            total = Saturating.add(total, subtreeFlops(child));
+        }
+        subtreeFlops.put(node, total);
+        return total;
+    }
+
+    public List<Step> steps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    public long flops() {
+        return flops;
+    }
+
+    /**
+     * Bytes of all the leaves, live from the start.
+     */
+    public long inputBytes() {
+        return inputBytes;
+    }
+
+    /**
+     * Largest number of bytes live at once over the sequential order, temporaries included.
+     */
+    public long peakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * Number and total size of the buffers intermediate results need beyond the reused ones.
+     */
+    public int newBuffers() {
+        return newBuffers;
+    }
+
+    public long newBufferBytes() {
+        return newBufferBytes;
+    }
+
+    /**
+     * Writes the plan as one JSON object: the result shape, totals, and every step.
+     */
+    public void writeJson(OutputStream out) throws IOException {
+        try(JsonGenerator generator = open(out)){
+            Step result = values.get(root).step();
+            generator.writeStartObject();
+            generator.writeBooleanField("valid", true);
+            generator.writeNumberField("rows", result.rows());
+            generator.writeNumberField("cols", result.cols());
+            generator.writeNumberField("flops", flops);
+            generator.writeNumberField("inputBytes", inputBytes);
+            generator.writeNumberField("peakBytes", peakBytes);
+            generator.writeNumberField("newBuffers", newBuffers);
+            generator.writeNumberField("newBufferBytes", newBufferBytes);
+            generator.writeArrayFieldStart("steps");
+            for(Step step : steps){
+                generator.writeStartObject();
+                generator.writeNumberField("id", step.id());
+                generator.writeStringField("operation", step.operation());
+                generator.writeNumberField("rows", step.rows());
+                generator.writeNumberField("cols", step.cols());
+                generator.writeArrayFieldStart("operands");
+                for(int operand : step.operands()){
+                    generator.writeNumber(operand);
+                }
+                generator.writeEndArray();
+                generator.writeNumberField("flops", step.flops());
+                generator.writeNumberField("bytes", step.bytes());
+                generator.writeBooleanField("sparse", step.sparse());
+                generator.writeNumberField("temporaryBytes", step.temporaryBytes());
+                generator.writeBooleanField("inPlace", step.inPlace());
+                generator.writeNumberField("buffer", step.buffer());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the answer of a dry run for a job that cannot run: {"valid": false, "error": message}.
+     */
+    public static void writeInvalid(String message, OutputStream out) throws IOException {
+        try(JsonGenerator generator = open(out)){
+            generator.writeStartObject();
+            generator.writeBooleanField("valid", false);
+            generator.writeStringField("error", message);
+            generator.writeEndObject();
+        }
+        out.flush();
+    }
+
+    private static JsonGenerator open(OutputStream out) throws IOException {
+        JsonGenerator generator = new JsonFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.useDefaultPrettyPrinter();
+        return generator;
+    }
+}
@@ -3,118 +3,821 @@ package spl.lae;
 import parser.*;
 import memory.*;
 import scheduling.*;
+import metrics.Counter;
+import metrics.Metrics;
 
 import java.util.ArrayList; //imported for code structure
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LinearAlgebraEngine {
 
+    /**
+     * System property selecting the executor: "tired" (default) or "stealing" for the WorkStealingExecutor.
+     */
+    public static final String EXECUTOR_PROPERTY = "lae.executor";
+
+    /**
+     * System property selecting the dense multiply: "classic" (default) for the blocked kernel, or "strassen"
+     * for StrassenKernel on products whose every dimension reaches StrassenKernel.CROSSOVER (see its accuracy notes).
+     */
+    public static final String MULTIPLY_PROPERTY = "lae.multiply";
+
+    /**
+     * System property turning common-subexpression elimination (see CommonSubexpressions) off when set to false.
+     */
+    public static final String CSE_PROPERTY = "lae.cse";
+
+    /**
+     * System property bounding the estimated peak memory of a job (see ExecutionPlan.peakBytes), in megabytes:
+     * run() rejects a job over it before evaluating anything. Unbounded when not set or 0.
+     */
+    public static final String MAX_PEAK_PROPERTY = "lae.maxPeakMB";
+
+    // Cost model used to size tasks, in units of one element-wise floating point operation
+    private static final long MIN_TASK_COST = 32_768; // below this, dispatching a task costs more than running it
+    private static final int TASKS_PER_WORKER = 4; // spare tasks so uneven workers still finish together
+    private static final long ELEMENTWISE_COST = 1; // per element of add/negate
+    private static final long TRANSPOSE_COST = 64; // per vector, transpose only flips its orientation
+    private static final long MULTIPLY_COST = 2; // per multiply-add of the product
+    private static final int POOL_HEAP_SHARE = 4; // the buffer pool keeps at most 1/POOL_HEAP_SHARE of the heap
+
+    private static final Counter gramProducts = Metrics.counter("structure.gram");
+    private static final Counter identityProducts = Metrics.counter("structure.identity");
+    private static final Counter diagonalProducts = Metrics.counter("structure.diagonal");
+    private static final Counter triangularProducts = Metrics.counter("structure.triangular");
+    private static final Counter powerProducts = Metrics.counter("power.products");
+
     private SharedMatrix leftMatrix = new SharedMatrix();
     private SharedMatrix rightMatrix = new SharedMatrix();
-    private TiredExecutor executor;
+    private TaskExecutor executor;
+    private final boolean ownsExecutor; // an engine shuts down only the executor it created
+    private final boolean strassen = useStrassen();
+    private final boolean cse = useCse();
+    private final long maxPeakBytes = Math.multiplyExact(Long.getLong(MAX_PEAK_PROPERTY, 0), 1L << 20);
+    private final BufferPool pool = new BufferPool(Runtime.getRuntime().maxMemory() / POOL_HEAP_SHARE);
+    private final ResultCache cache = ResultCache.fromProperties(); // null unless ResultCache.DIRECTORY_PROPERTY is set
 
+    /**
+     * Creates a one-shot engine with its own executor, which run() shuts down once the tree is resolved.
+     */
     public LinearAlgebraEngine(int numThreads) {
         // TODO: create executor with given thread count
-        executor = new TiredExecutor(numThreads);
+        this(createExecutor(numThreads), true);
+    }
+
+    /**
+     * Creates an engine on an executor owned by the caller, which stays alive so the engine can run any number of trees,
+     * concurrently if needed. The caller shuts the executor down when done.
+     */
+    public LinearAlgebraEngine(TaskExecutor executor) {
+        this(executor, false);
+    }
+
+    private LinearAlgebraEngine(TaskExecutor executor, boolean ownsExecutor) {
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Creates the executor selected by the EXECUTOR_PROPERTY system property.
+     */
+    static TaskExecutor createExecutor(int numThreads) {
+        String mode = System.getProperty(EXECUTOR_PROPERTY, "tired");
+        switch (mode) {
+            case "tired":
+                return new TiredExecutor(numThreads);
+            case "stealing":
+                return new WorkStealingExecutor(numThreads);
+            default:
+                throw new IllegalArgumentException("[LinearAlgebraEngine]: Unknown executor: " + mode);
+        }
+    }
+
+    private static boolean useCse() {
+        return Boolean.parseBoolean(System.getProperty(CSE_PROPERTY, "true"));
     }
 
+    private static boolean useStrassen() {
+        String mode = System.getProperty(MULTIPLY_PROPERTY, "classic");
+        switch (mode) {
+            case "classic":
+                return false;
+            case "strassen":
+                return true;
+            default:
+                throw new IllegalArgumentException("[LinearAlgebraEngine]: Unknown multiply: " + mode);
+        }
+    }
+
+    /**
+     * Resolves the whole tree into a single matrix.
+     * Repeated subexpressions are merged first, so the tree becomes a DAG whose shared nodes are evaluated once.
+     * The DAG is then planned (see ExecutionPlan), which rejects mismatched shapes and jobs over MAX_PEAK_PROPERTY
+     * before any work, and costly subexpressions found in the result cache (if one is configured) are resolved from it.
+     * Every node becomes ready once its children are resolved, and all ready nodes are evaluated concurrently,
+     * each with its own operand matrices, so independent branches share the executor instead of waiting in line.
+     */
     public ComputationNode run(ComputationNode computationRoot) {
         // TODO: resolve computation tree step by step until final matrix is produced
         try{
-            while(computationRoot.getNodeType() != ComputationNodeType.MATRIX){
-                ComputationNode compNode = computationRoot.findResolvable(); 
-                compNode.associativeNesting();
-                compNode = compNode.findResolvable();
-                loadAndCompute(compNode);
-                compNode.resolve(leftMatrix.readRowMajor());
+            prepare(computationRoot, cse);
+            ExecutionPlan plan = ExecutionPlan.of(computationRoot, strassen);
+            if(maxPeakBytes > 0 && plan.peakBytes() > maxPeakBytes){
+                throw new IllegalArgumentException("[LinearAlgebraEngine]: The job needs about " + (plan.peakBytes() >> 20)
+                        + " MB of memory at its peak, over the limit of " + (maxPeakBytes >> 20) + " MB");
+            }
+            Map<ComputationNode, String> uncached = cache == null ? Map.of() : lookupCached(computationRoot, plan);
+            Consumers consumers = new Consumers(computationRoot, plan);
+            // node evaluation mostly waits on the executor, so every ready node gets its own virtual thread
+            try(ExecutorService coordinators = Executors.newVirtualThreadPerTaskExecutor()){
+                schedule(computationRoot, coordinators, consumers, uncached, plan, new IdentityHashMap<>()).join();
+            }
+            catch(CompletionException e){
+                Throwable cause = e.getCause();
+                if(cause instanceof RuntimeException){
+                    throw (RuntimeException) cause;
+                }
+                if(cause instanceof Error){
+                    throw (Error) cause;
+                }
+                throw e;
             }
         }
         finally{
-            try{
-                executor.shutdown();
-            }
-            catch(InterruptedException e){
-                Thread.currentThread().interrupt();
+            if(ownsExecutor){
+                try{
+                    executor.shutdown();
+                }
+                catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
             }
         }
         return computationRoot;
     }
 
+    /**
+     * Prepares the tree the way run() does and plans it, without evaluating anything, for dry runs.
+     * @throws IllegalArgumentException if the shapes of the tree don't match
+     */
+    public static ExecutionPlan plan(ComputationNode root) {
+        prepare(root, useCse());
+        return ExecutionPlan.of(root, useStrassen());
+    }
+
+    private static void prepare(ComputationNode root, boolean cse) {
+        nestAll(root, Collections.newSetFromMap(new IdentityHashMap<>()));
+        if(cse){
+            new CommonSubexpressions().eliminate(root);
+        }
+    }
+
+    // Makes every n-ary operation in the tree binary, see ComputationNode.associativeNesting
+    private static void nestAll(ComputationNode node, Set<ComputationNode> visited) {
+        if(node.getNodeType() == ComputationNodeType.MATRIX || !visited.add(node)){
+            return;
+        }
+        node.associativeNesting();
+        for(ComputationNode child : node.getChildren()){
+            nestAll(child, visited);
+        }
+    }
+
+    /**
+     * Resolves from the result cache the outermost subexpressions whose planned flops reach the cache's threshold,
+     * so nothing below them is evaluated. Returns the key of every such subexpression that missed,
+     * to store its result once evaluated. Keys are taken before evaluation, which modifies operands in place.
+     */
+    private Map<ComputationNode, String> lookupCached(ComputationNode root, ExecutionPlan plan) {
+        long start = Metrics.start();
+        Map<ComputationNode, String> keys = new IdentityHashMap<>();
+        Map<ComputationNode, String> uncached = new IdentityHashMap<>();
+        List<ComputationNode> pending = new ArrayList<>(List.of(root));
+        Set<ComputationNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        // products round differently under each algorithm and crossover, so they must not share entries
+        String multiply = strassen ? "strassen-" + StrassenKernel.CROSSOVER : "classic";
+        while(!pending.isEmpty()){
+            ComputationNode node = pending.removeLast();
+            // a node's flops include its children's, so nothing below a cheap node can reach the threshold either
+            if(node.getNodeType() == ComputationNodeType.MATRIX || plan.subtreeFlops(node) < cache.minCost() || !visited.add(node)){
+                continue;
+            }
+            String key = cacheKey(node, keys, multiply);
+            SharedMatrix cached = cache.load(key);
+            if(cached != null){
+                node.resolve(cached);
+            }
+            else{
+                uncached.put(node, key);
+                pending.addAll(node.getChildren());
+            }
+        }
+        Metrics.recordStage("cache", start);
+        return uncached;
+    }
+
+    private static String cacheKey(ComputationNode node, Map<ComputationNode, String> keys, String multiply) {
+        String key = keys.get(node);
+        if(key != null){
+            return key;
+        }
+        if(node.getNodeType() == ComputationNodeType.MATRIX){
+            key = ResultCache.leafKey(node);
+        }
+        else{
+            List<String> childKeys = new ArrayList<>();
+            for(ComputationNode child : node.getChildren()){
+                childKeys.add(cacheKey(child, keys, multiply));
+            }
+            key = ResultCache.operatorKey(node.getNodeType(), node.getPower(), multiply, childKeys);
+        }
+        keys.put(node, key);
+        return key;
+    }
+
+    /**
+     * The consumers (parent edges) each node of the DAG still has to serve. A node's result is shared while more than
+     * one of them remains: it must then be copied before being modified in place. The last consumer may modify it,
+     * and recycles its buffer once done.
+     */
+    private static final class Consumers {
+        private final Map<ComputationNode, AtomicInteger> remaining = new IdentityHashMap<>();
+
+        Consumers(ComputationNode root, ExecutionPlan plan) {
+            count(root, plan);
+        }
+
+        private void count(ComputationNode node, ExecutionPlan plan) {
+            if(node.getNodeType() == ComputationNodeType.MATRIX){
+                return;
+            }
+            for(ComputationNode child : plan.operands(node)){
+                AtomicInteger consumers = remaining.get(child);
+                if(consumers == null){
+                    remaining.put(child, new AtomicInteger(1));
+                    count(child, plan);
+                }
+                else{
+                    consumers.incrementAndGet();
+                }
+            }
+        }
+
+        boolean isShared(ComputationNode node) {
+            AtomicInteger consumers = remaining.get(node);
+            return consumers != null && consumers.get() > 1;
+        }
+
+        // Records that one consumer is done with the node, returning whether it was the last one
+        boolean consume(ComputationNode node) {
+            AtomicInteger consumers = remaining.get(node);
+            return consumers == null || consumers.decrementAndGet() == 0;
+        }
+    }
+
+    // Returns a future that completes once the node is resolved, after all of its children; each node is scheduled once
+    private CompletableFuture<Void> schedule(ComputationNode node, ExecutorService coordinators, Consumers consumers,
+                                             Map<ComputationNode, String> uncached, ExecutionPlan plan,
+                                             Map<ComputationNode, CompletableFuture<Void>> scheduled) {
+        if(node.getNodeType() == ComputationNodeType.MATRIX){
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> future = scheduled.get(node);
+        if(future != null){
+            return future;
+        }
+        List<ComputationNode> children = plan.operands(node);
+        CompletableFuture<?>[] ready = new CompletableFuture<?>[children.size()];
+        for(int i = 0; i < children.size(); i++){
+            ready[i] = schedule(children.get(i), coordinators, consumers, uncached, plan, scheduled);
+        }
+        String cacheKey = uncached.get(node);
+        ExecutionPlan.Gram gram = plan.gram(node);
+        future = CompletableFuture.allOf(ready)
+                .thenRunAsync(() -> evaluate(node, gram, consumers, cacheKey), coordinators);
+        scheduled.put(node, future);
+        return future;
+    }
+
+    // Resolves a node whose children are all resolved, with the sparse kernels if any operand is stored sparse,
+    // and stores a dense result in the cache under cacheKey if given, before any consumer can modify it
+    private void evaluate(ComputationNode node, ExecutionPlan.Gram gram, Consumers consumers, String cacheKey) {
+        List<ComputationNode> children = gram == null ? node.getChildren() : List.of(gram.base());
+        boolean sparse = false;
+        for(ComputationNode child : children){
+            sparse |= child.getSparseMatrix() != null;
+        }
+        if(gram != null){
+            computeGram(node, gram);
+        }
+        else if(node.getNodeType() == ComputationNodeType.POW){
+            computePower(node, consumers);
+        }
+        else if(sparse){
+            String operation = node.getNodeType() + "-sparse";
+            long start = Metrics.start();
+            computeSparse(node, consumers);
+            if(Metrics.ENABLED){
+                int[] shape = node.getShape();
+                Metrics.recordNode(operation, shape[0], shape[1], start, start);
+            }
+        }
+        else{
+            node.resolve(compute(node, consumers));
+        }
+        if(cacheKey != null && node.getSparseMatrix() == null){
+            cache.store(cacheKey, node.getSharedMatrix());
+        }
+        releaseOperands(node, children, consumers);
+    }
+
+    // Consumes the node's operands: the last consumer of a dense operand hands its buffer back to the pool,
+    // unless the node's own result was built on it
+    private void releaseOperands(ComputationNode node, List<ComputationNode> children, Consumers consumers) {
+        SharedMatrix result = node.getSparseMatrix() == null ? node.getSharedMatrix() : null;
+        for(ComputationNode child : children){
+            if(consumers.consume(child) && child.getSparseMatrix() == null){
+                SharedMatrix operand = child.getSharedMatrix();
+                if(operand != result){
+                    pool.release(operand);
+                }
+            }
+        }
+    }
+
+    private static boolean isShared(Consumers consumers, ComputationNode node) {
+        return consumers != null && consumers.isShared(node);
+    }
+
+    /**
+     * Loads copies of the node's resolved operands into leftMatrix and rightMatrix, builds the tasks over them with
+     * the matching create*Tasks method and runs them, after which leftMatrix holds the result and rightMatrix the right
+     * operand (empty for unary nodes). A POW node has no such method and is raised from its copy in leftMatrix.
+     * The node itself and its operands are left as they are.
+     * run() does not go through these fields, so concurrent nodes never share them; this method is not thread safe.
+     */
     public void loadAndCompute(ComputationNode node) {
         // TODO: load operand matrices
         // TODO: create compute tasks & submit tasks to executor
         ComputationNodeType nodeType = node.getNodeType();
         List<ComputationNode> listNode = node.getChildren();
+        SharedMatrix left = listNode.getFirst().getSharedMatrix();
+        leftMatrix = left.copy(left.getOrientation());
+        rightMatrix = new SharedMatrix();
+        if(nodeType.equals(ComputationNodeType.POW)){
+            ComputationNode power = new ComputationNode(nodeType, List.of(new ComputationNode(leftMatrix)), node.getPower());
+            computePower(power, null);
+            leftMatrix = power.getSharedMatrix();
+            return;
+        }
+        if(listNode.size() > 1){
+            // element-wise ops need both operands stored the same way, multiply reads either orientation
+            SharedMatrix right = listNode.getLast().getSharedMatrix();
+            rightMatrix = right.copy(nodeType.equals(ComputationNodeType.MULTIPLY) ? right.getOrientation() : left.getOrientation());
+        }
         List<Runnable> toSubmit = new ArrayList<>();
         if(nodeType.equals(ComputationNodeType.ADD)){
-            leftMatrix.loadRowMajor(listNode.getFirst().getMatrix());
-            rightMatrix.loadRowMajor(listNode.getLast().getMatrix());
             toSubmit = createAddTasks();
         }
+        if(nodeType.equals(ComputationNodeType.SUBTRACT)){
+            toSubmit = createSubtractTasks(leftMatrix, rightMatrix);
+        }
         if(nodeType.equals(ComputationNodeType.MULTIPLY)){
-            leftMatrix.loadRowMajor(listNode.getFirst().getMatrix());
-            rightMatrix.loadColumnMajor(listNode.getLast().getMatrix());
             toSubmit = createMultiplyTasks();
         }
         if(nodeType.equals(ComputationNodeType.TRANSPOSE)){
-            leftMatrix.loadRowMajor(listNode.getFirst().getMatrix());
             toSubmit = createTransposeTasks();
         }
         if(nodeType.equals(ComputationNodeType.NEGATE)){
-            leftMatrix.loadRowMajor(listNode.getFirst().getMatrix());
             toSubmit = createNegateTasks();
         }
         executor.submitAll(toSubmit);
     }
 
-    public List<Runnable> createAddTasks() {
-        // TODO: return tasks that perform row-wise addition
-        List<Runnable> addOutput = new ArrayList<>();
-        if(leftMatrix.length() != rightMatrix.length()){
-            throw new IllegalArgumentException("[createAddTasks]: Matrix lengths don't match");
+    /**
+     * Computes a node whose children are all resolved and returns the matrix holding its result.
+     * The children's live matrices are used as operands without copying: add, subtract, negate and transpose
+     * work in place on the left operand (transpose only flips the orientation of its vectors), and multiply
+     * reads both operands in whatever orientation they are stored. A left operand still shared with other consumers
+     * is copied before it is modified. Safe to call for several nodes at once.
+     */
+    private SharedMatrix compute(ComputationNode node, Consumers consumers) {
+        long loadStart = Metrics.start();
+        ComputationNodeType nodeType = node.getNodeType();
+        List<ComputationNode> listNode = node.getChildren();
+        SharedMatrix left = listNode.getFirst().getSharedMatrix();
+        SharedMatrix right = listNode.size() > 1 ? listNode.getLast().getSharedMatrix() : null;
+        if(!nodeType.equals(ComputationNodeType.MULTIPLY) && isShared(consumers, listNode.getFirst())){
+            left = left.copy(left.getOrientation(), pool); // copy-on-write, other consumers still read the shared result
+        }
+        SharedMatrix result = left;
+        List<Runnable> toSubmit = new ArrayList<>();
+        SharedMatrix strassenRight = null; // set when the product goes through StrassenKernel instead of tile tasks
+        SharedMatrix rightCopy = null; // temporary copy of the right operand, stored like the left one
+        if(nodeType.equals(ComputationNodeType.ADD) || nodeType.equals(ComputationNodeType.SUBTRACT)){
+            SharedMatrix operand = right;
+            if(left.length() > 0 && right.length() > 0 && (right == left || right.getOrientation() != left.getOrientation())){
+                rightCopy = right.copy(left.getOrientation(), pool); // element-wise ops need both operands stored the same way
+                operand = rightCopy;
+            }
+            toSubmit = nodeType.equals(ComputationNodeType.ADD) ? createAddTasks(left, operand) : createSubtractTasks(left, operand);
+        }
+        if(nodeType.equals(ComputationNodeType.MULTIPLY)){
+            MatrixStructure leftStructure = MatrixStructure.of(left);
+            MatrixStructure rightStructure = MatrixStructure.of(right);
+            if(leftStructure == MatrixStructure.IDENTITY || rightStructure == MatrixStructure.IDENTITY){
+                if(left.cols() != right.rows()){
+                    throw new IllegalArgumentException("[createMultiplyTasks]: Left matrix columns don't match right matrix rows");
+                }
+                // the product is the other operand, copied only if it is still shared
+                ComputationNode otherNode = leftStructure == MatrixStructure.IDENTITY ? listNode.getLast() : listNode.getFirst();
+                result = leftStructure == MatrixStructure.IDENTITY ? right : left;
+                if(isShared(consumers, otherNode)){
+                    result = result.copy(result.getOrientation(), pool);
+                }
+                identityProducts.increment();
+            }
+            else if(leftStructure == MatrixStructure.DIAGONAL || rightStructure == MatrixStructure.DIAGONAL){
+                result = createProduct(left, right);
+                boolean diagonalFirst = leftStructure == MatrixStructure.DIAGONAL;
+                toSubmit = StructuredKernels.createDiagonalTasks(diagonalFirst ? left : right, diagonalFirst ? right : left,
+                        diagonalFirst, result, taskCount(ELEMENTWISE_COST * result.rows() * result.cols(), result.rows()));
+                diagonalProducts.increment();
+            }
+            else if(isTriangular(leftStructure) || isTriangular(rightStructure)){
+                result = createProduct(left, right);
+                toSubmit = createMultiplyTasks(left, leftStructure, right, rightStructure, result);
+                triangularProducts.increment();
+            }
+            else if(strassen && StrassenKernel.applies(left.rows(), left.cols(), right.cols())){
+                result = createProduct(left, right);
+                strassenRight = right;
+            }
+            else{
+                result = createProduct(left, right);
+                toSubmit = createMultiplyTasks(left, right, result);
+            }
+        }
+        if(nodeType.equals(ComputationNodeType.TRANSPOSE)){
+            toSubmit = createTransposeTasks(left);
+        }
+        if(nodeType.equals(ComputationNodeType.NEGATE)){
+            toSubmit = createNegateTasks(left);
+        }
+        long computeStart = Metrics.start();
+        if(strassenRight != null){
+            StrassenKernel.multiply(left, strassenRight, result, executor.getNumThreads(), executor::submitAll);
+        }
+        else{
+            executor.submitAll(toSubmit);
+        }
+        if(Metrics.ENABLED){
+            Metrics.recordNode(nodeType.name(), result.rows(), result.cols(), loadStart, computeStart);
+        }
+        if(rightCopy != null){
+            pool.release(rightCopy);
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a Gram product from its resolved base A. A dense A goes through the symmetric kernel, which computes
+     * the tiles on and below the diagonal; a sparse one through the sparse product with its (free) transpose.
+     */
+    private void computeGram(ComputationNode node, ExecutionPlan.Gram gram) {
+        long loadStart = Metrics.start();
+        SparseMatrix sparse = gram.base().getSparseMatrix();
+        if(sparse != null){
+            SparseMatrix transposed = sparse.copy().transpose();
+            SparseMatrix left = gram.transposeFirst() ? transposed : sparse;
+            SparseMatrix right = gram.transposeFirst() ? sparse : transposed;
+            long cost = MULTIPLY_COST * left.nonZeros() * Math.max(1, right.nonZeros() / Math.max(1, right.rows()));
+            resolveSparse(node, SparseMatrix.multiply(left, right, taskCount(cost, left.rows()), executor::submitAll));
+            return;
+        }
+        SharedMatrix base = gram.base().getSharedMatrix();
+        int size = gram.transposeFirst() ? base.cols() : base.rows();
+        int depth = gram.transposeFirst() ? base.rows() : base.cols();
+        SharedMatrix result = new SharedMatrix(pool.acquire(Math.multiplyExact(size, size)), size, size, VectorOrientation.ROW_MAJOR);
+        long cost = MULTIPLY_COST * size * size * Math.max(1, depth) / 2;
+        int blocks = Math.ceilDiv(size, GemmKernel.MR);
+        int numTasks = taskCount(cost, Math.max(1, (long) blocks * (blocks + 1) / 2));
+        // a grid of g x g tiles has g(g+1)/2 on and below the diagonal
+        int grid = (int) Math.max(1, Math.min(blocks, Math.round(Math.sqrt(2.0 * numTasks))));
+        int tileSize = Math.max(1, roundUp(Math.ceilDiv(size, grid), GemmKernel.MR));
+        long computeStart = Metrics.start();
+        executor.submitAll(StructuredKernels.createGramTasks(base, gram.transposeFirst(), result, tileSize));
+        gramProducts.increment();
+        if(Metrics.ENABLED){
+            Metrics.recordNode("MULTIPLY-gram", size, size, loadStart, computeStart);
+        }
+        node.resolve(result);
+    }
+
+    /**
+     * Resolves A^k from its resolved operand A by exponentiation by squaring, over the bits of k from the top:
+     * each bit squares the partial power, and each set bit then multiplies it by A, for at most 2 log2(k) products
+     * on the parallel multiply path. The products alternate between two buffers taken from the pool, so no step
+     * allocates, and the one not holding the result goes back to the pool. A^0 is the identity and A^1 is A itself,
+     * copied if shared; a sparse A is raised in dense form, its powers filling in quickly.
+     */
+    private void computePower(ComputationNode node, Consumers consumers) {
+        long loadStart = Metrics.start();
+        ComputationNode operand = node.getChildren().getFirst();
+        int power = node.getPower();
+        int[] shape = operand.getShape();
+        if(shape[0] != shape[1]){
+            throw new IllegalArgumentException("[computePower]: Only square matrices can be raised to a power");
+        }
+        int n = shape[0];
+        SparseMatrix sparse = operand.getSparseMatrix();
+        if(power == 1){
+            if(sparse != null){
+                node.resolve(isShared(consumers, operand) ? sparse.copy() : sparse);
+            }
+            else{
+                SharedMatrix matrix = operand.getSharedMatrix();
+                node.resolve(isShared(consumers, operand) ? matrix.copy(matrix.getOrientation(), pool) : matrix);
+            }
+            return;
+        }
+        long computeStart = Metrics.start();
+        SharedMatrix result;
+        if(power == 0){
+            double[] identity = pool.acquire(Math.multiplyExact(n, n));
+            Arrays.fill(identity, 0, n * n, 0);
+            for(int i = 0; i < n; i++){
+                identity[i * n + i] = 1;
+            }
+            result = new SharedMatrix(identity, n, n, VectorOrientation.ROW_MAJOR);
+        }
+        else{
+            SharedMatrix[] buffers = {createProduct(n, n, n, n), createProduct(n, n, n, n)};
+            SharedMatrix base = sparse != null ? sparse.toDense() : operand.getSharedMatrix();
+            result = base;
+            int next = 0;
+            for(int bit = 30 - Integer.numberOfLeadingZeros(power); bit >= 0; bit--){
+                multiplyInto(result, result, buffers[next]);
+                result = buffers[next];
+                next ^= 1;
+                powerProducts.increment();
+                if((power >>> bit & 1) != 0){
+                    multiplyInto(result, base, buffers[next]);
+                    result = buffers[next];
+                    next ^= 1;
+                    powerProducts.increment();
+                }
+            }
+            pool.release(buffers[next]);
+            if(sparse != null){
+                pool.release(base);
+            }
+        }
+        if(Metrics.ENABLED){
+            Metrics.recordNode("POW", n, n, loadStart, computeStart);
+        }
+        node.resolve(result);
+    }
+
+    // Computes left x right into product, overwriting it: through StrassenKernel if selected and the product is large
+    // enough, or the tile tasks otherwise
+    private void multiplyInto(SharedMatrix left, SharedMatrix right, SharedMatrix product) {
+        if(strassen && StrassenKernel.applies(left.rows(), left.cols(), right.cols())){
+            StrassenKernel.multiply(left, right, product, executor.getNumThreads(), executor::submitAll);
+        }
+        else{
+            executor.submitAll(createMultiplyTasks(left, right, product));
+        }
+    }
+
+    /**
+     * Hands the storage of a resolved node back to the engine's buffer pool, to be reused by later runs.
+     * Meant for results that were fully consumed, such as a root already written out: neither the node's matrix
+     * nor any matrix read from it may be used afterwards.
+     */
+    public void recycle(ComputationNode node) {
+        if(node.getNodeType() == ComputationNodeType.MATRIX && node.getSparseMatrix() == null){
+            pool.release(node.getSharedMatrix());
+        }
+    }
+
+    /**
+     * Computes and resolves a node with at least one sparse operand, in time proportional to the non-zeros where possible:
+     * transpose flips the orientation, negate touches only the non-zeros, sparse + sparse and sparse x sparse stay sparse
+     * (unless the result is denser than SparseMatrix.DENSITY_THRESHOLD), and mixed operations produce a dense matrix.
+     */
+    private void computeSparse(ComputationNode node, Consumers consumers) {
+        ComputationNodeType nodeType = node.getNodeType();
+        List<ComputationNode> listNode = node.getChildren();
+        SparseMatrix first = listNode.getFirst().getSparseMatrix();
+        // copy-on-write: the transpose shares the operand's arrays, and negate works in place
+        SparseMatrix left = first != null && listNode.size() == 1 && isShared(consumers, listNode.getFirst()) ? first.copy() : first;
+        SparseMatrix right = listNode.getLast().getSparseMatrix();
+        if(nodeType.equals(ComputationNodeType.TRANSPOSE)){
+            node.resolve(left.transpose());
+            return;
+        }
+        if(nodeType.equals(ComputationNodeType.NEGATE)){
+            int numTasks = taskCount((long) left.nonZeros() * ELEMENTWISE_COST, left.nonZeros());
+            executor.submitAll(RangeTasks.create(1, left.nonZeros(), numTasks, (i, from, to) -> left.negate(from, to)));
+            node.resolve(left);
+            return;
+        }
+        if(nodeType.equals(ComputationNodeType.ADD) || nodeType.equals(ComputationNodeType.SUBTRACT)){
+            String name = nodeType.equals(ComputationNodeType.ADD) ? "createAddTasks" : "createSubtractTasks";
+            double sign = nodeType.equals(ComputationNodeType.ADD) ? 1 : -1;
+            if(left != null && right != null){
+                if(left.rows() != right.rows() || left.cols() != right.cols()){
+                    throw new IllegalArgumentException("[" + name + "]: Matrix lengths don't match");
+                }
+                long cost = ELEMENTWISE_COST * ((long) left.nonZeros() + right.nonZeros());
+                resolveSparse(node, SparseMatrix.add(left, right, sign, taskCount(cost, left.length()), executor::submitAll));
+                return;
+            }
+            // one dense operand: the sparse one is added into it in place
+            ComputationNode denseNode = left == null ? listNode.getFirst() : listNode.getLast();
+            SharedMatrix dense = denseNode.getSharedMatrix();
+            if(isShared(consumers, denseNode)){
+                dense = dense.copy(dense.getOrientation(), pool); // copy-on-write, the sparse operand is added in place
+            }
+            SparseMatrix sparse = left == null ? right : left;
+            if(dense.rows() != sparse.rows() || dense.cols() != sparse.cols()){
+                throw new IllegalArgumentException("[" + name + "]: Matrix lengths don't match");
+            }
+            if(left != null && sign < 0){
+                executor.submitAll(createNegateTasks(dense)); // sparse - dense = sparse + (-dense)
+                sign = 1;
+            }
+            executor.submitAll(SparseMatrix.createAddToTasks(sparse, dense, sign,
+                    taskCount(ELEMENTWISE_COST * sparse.nonZeros(), dense.length())));
+            node.resolve(dense);
+            return;
         }
-        for(int i = 0; i < leftMatrix.length(); i++){
-            SharedVector left = leftMatrix.get(i);
-            SharedVector right = rightMatrix.get(i);
-            Runnable addRun = () -> {left.add(right);};
-            addOutput.add(addRun);
+        if(nodeType.equals(ComputationNodeType.MULTIPLY)){
+            if(left != null && right != null){
+                if(left.cols() != right.rows()){
+                    throw new IllegalArgumentException("[createMultiplyTasks]: Left matrix columns don't match right matrix rows");
+                }
+                // estimate of the multiply-adds, assuming the non-zeros of the right operand are spread evenly over its rows
+                long cost = MULTIPLY_COST * left.nonZeros() * Math.max(1, right.nonZeros() / Math.max(1, right.rows()));
+                resolveSparse(node, SparseMatrix.multiply(left, right, taskCount(cost, left.rows()), executor::submitAll));
+                return;
+            }
+            if(left != null){
+                SharedMatrix dense = listNode.getLast().getSharedMatrix();
+                SharedMatrix product = createProduct(left.rows(), left.cols(), dense.rows(), dense.cols());
+                long cost = MULTIPLY_COST * left.nonZeros() * Math.max(1, dense.cols());
+                executor.submitAll(SparseMatrix.createMultiplyTasks(left, dense, product, taskCount(cost, left.rows())));
+                node.resolve(product);
+                return;
+            }
+            SharedMatrix dense = listNode.getFirst().getSharedMatrix();
+            SharedMatrix product = createProduct(dense.rows(), dense.cols(), right.rows(), right.cols());
+            long cost = MULTIPLY_COST * Math.max(1, dense.rows()) * ((long) right.nonZeros() + right.rows());
+            executor.submitAll(SparseMatrix.createMultiplyTasks(dense, right, product, taskCount(cost, dense.rows())));
+            node.resolve(product);
         }
-        return addOutput;
+    }
+
+    // Resolves the node to a sparse result, or to its dense form if it has too many non-zeros to be worth keeping sparse
+    private static void resolveSparse(ComputationNode node, SparseMatrix result) {
+        if(SparseMatrix.isSparseEnough(result.nonZeros(), (long) result.rows() * result.cols())){
+            node.resolve(result);
+        }
+        else{
+            node.resolve(result.toDense());
+        }
+    }
+
+    public List<Runnable> createAddTasks() {
+        // TODO: return tasks that perform row-wise addition
+        return createAddTasks(leftMatrix, rightMatrix);
+    }
+
+    private List<Runnable> createAddTasks(SharedMatrix left, SharedMatrix right) {
+        return SharedMatrix.createAddTasks(left, right, elementwiseTaskCount(left));
     }
  
+    private List<Runnable> createSubtractTasks(SharedMatrix left, SharedMatrix right) {
+        return SharedMatrix.createSubtractTasks(left, right, elementwiseTaskCount(left));
+    }
+
     public List<Runnable> createMultiplyTasks() {
         // TODO: return tasks that perform row × matrix multiplication
-        List<Runnable> mulOutput = new ArrayList<>();
-        for(int i = 0; i < leftMatrix.length(); i++){
-            SharedVector left = leftMatrix.get(i);
-            Runnable mulRun = () -> {left.vecMatMul(rightMatrix);};
-            mulOutput.add(mulRun);
-        }
+        // Each task fills one tile of the product, which then replaces the left operand as the step's result
+        SharedMatrix product = createProduct(leftMatrix, rightMatrix);
+        List<Runnable> mulOutput = createMultiplyTasks(leftMatrix, rightMatrix, product);
+        leftMatrix = product;
         return mulOutput;
     }
 
+    private SharedMatrix createProduct(SharedMatrix left, SharedMatrix right) {
+        return createProduct(left.rows(), left.cols(), right.rows(), right.cols());
+    }
+
+    // The output of a product, its buffer taken from the pool: the multiply kernels overwrite every element
+    private SharedMatrix createProduct(int leftRows, int leftCols, int rightRows, int rightCols) {
+        if(leftCols != rightRows){
+            throw new IllegalArgumentException("[createMultiplyTasks]: Left matrix columns don't match right matrix rows");
+        }
+        int rows = leftRows;
+        int cols = rightCols;
+        return new SharedMatrix(pool.acquire(Math.multiplyExact(rows, cols)), rows, cols, VectorOrientation.ROW_MAJOR);
+    }
+
+    private List<Runnable> createMultiplyTasks(SharedMatrix left, SharedMatrix right, SharedMatrix product) {
+        return createMultiplyTasks(left, MatrixStructure.GENERAL, right, MatrixStructure.GENERAL, product);
+    }
+
+    // Tiles the product for the executor; triangular operands go through StructuredKernels, which skips their zero half
+    private List<Runnable> createMultiplyTasks(SharedMatrix left, MatrixStructure leftStructure, SharedMatrix right,
+                                               MatrixStructure rightStructure, SharedMatrix product) {
+        int rows = product.rows();
+        int cols = product.cols();
+        long cost = MULTIPLY_COST * rows * cols * Math.max(1, left.cols());
+        int rowBlocks = Math.ceilDiv(rows, GemmKernel.MR);
+        int colBlocks = Math.ceilDiv(cols, GemmKernel.NR);
+        int numTasks = taskCount(cost, Math.max(1, (long) rowBlocks * colBlocks));
+        // split the task count between rows and columns so that tiles stay roughly square
+        int tileGridRows = (int) Math.max(1, Math.min(rowBlocks, Math.round(Math.sqrt((double) numTasks * rows / Math.max(1, cols)))));
+        int tileGridCols = Math.max(1, Math.min(colBlocks, Math.ceilDiv(numTasks, tileGridRows)));
+        int tileRows = Math.max(1, roundUp(Math.ceilDiv(rows, tileGridRows), GemmKernel.MR));
+        int tileCols = Math.max(1, roundUp(Math.ceilDiv(cols, tileGridCols), GemmKernel.NR));
+        if(isTriangular(leftStructure) || isTriangular(rightStructure)){
+            return StructuredKernels.createTriangularTasks(left, leftStructure, right, rightStructure, product, tileRows, tileCols);
+        }
+        return GemmKernel.createTileTasks(left, right, product, tileRows, tileCols);
+    }
+
+    private static boolean isTriangular(MatrixStructure structure) {
+        return structure == MatrixStructure.LOWER_TRIANGULAR || structure == MatrixStructure.UPPER_TRIANGULAR;
+    }
+
     public List<Runnable> createNegateTasks() {
         // TODO: return tasks that negate rows
-        List<Runnable> negateOutput = new ArrayList<>();
-        for(int i = 0; i < leftMatrix.length(); i++){
-            SharedVector negateVector = leftMatrix.get(i);
-            Runnable negRun = () -> {negateVector.negate();};
-            negateOutput.add(negRun);
-        }
-        return negateOutput;
+        return createNegateTasks(leftMatrix);
+    }
+
+    private List<Runnable> createNegateTasks(SharedMatrix matrix) {
+        return SharedMatrix.createNegateTasks(matrix, elementwiseTaskCount(matrix));
     }
 
     public List<Runnable> createTransposeTasks() {
         // TODO: return tasks that transpose rows
+        return createTransposeTasks(leftMatrix);
+    }
+
+    private List<Runnable> createTransposeTasks(SharedMatrix matrix) {
+        int numVectors = matrix.length();
+        int numTasks = taskCount(TRANSPOSE_COST * numVectors, numVectors);
         List<Runnable> transOutput = new ArrayList<>();
-        for(int i = 0; i < leftMatrix.length(); i++){
-            SharedVector transVector = leftMatrix.get(i);
-            Runnable transRun = () -> {transVector.transpose();};
+        for(int t = 0; t < numTasks; t++){
+            int from = (int) ((long) numVectors * t / numTasks);
+            int to = (int) ((long) numVectors * (t + 1) / numTasks);
+            Runnable transRun = () -> {
+                for(int i = from; i < to; i++){
+                    matrix.get(i).transpose();
+                }
+            };
             transOutput.add(transRun);
         }
         return transOutput;
     }
 
+    // Number of element-wise tasks over the matrix; RangeTasks spreads its elements evenly across them
+    private int elementwiseTaskCount(SharedMatrix matrix) {
+        long total = (long) matrix.length() * vectorLength(matrix);
+        return taskCount(total * ELEMENTWISE_COST, Math.max(1, total));
+    }
+
+    /**
+     * Number of tasks for an operation of the given total cost that can be split into at most maxUnits pieces:
+     * enough to keep every worker busy, but none so small that dispatch dominates.
+     */
+    private int taskCount(long totalCost, long maxUnits) {
+        long byCost = Math.max(1, totalCost / MIN_TASK_COST);
+        long byWorkers = (long) executor.getNumThreads() * TASKS_PER_WORKER;
+        return (int) Math.max(1, Math.min(Math.min(byCost, byWorkers), maxUnits));
+    }
+
+    private static int vectorLength(SharedMatrix matrix) {
+        return matrix.length() == 0 ? 0 : matrix.get(0).length();
+    }
+
+    private static int roundUp(int value, int multiple) {
+        return Math.ceilDiv(value, multiple) * multiple;
+    }
+
     public String getWorkerReport() {
         // TODO: return summary of worker activity
         return executor.getWorkerReport();
@@ -1,13 +1,32 @@
 package spl.lae;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.ParseException;
+import java.util.List;
 
+import metrics.Metrics;
 import parser.*;
+import scheduling.TaskExecutor;
 import scheduling.TiredExecutor;
 
 public class Main {
     public static void main(String[] args) throws IOException {
       // TODO: main
+      if(args.length > 0 && args[0].equals("--serve")){
+          serve(args);
+          return;
+      }
+      if(args.length > 0 && args[0].equals("--batch")){
+          batch(args);
+          return;
+      }
+      if(args.length > 0 && args[0].equals("--dry-run")){
+          dryRun(args);
+          return;
+      }
       if(args.length != 3){
         throw new IOException("[Usage error] This is how to use: java -jar target/lga-1.0.jar <number of threads>" + 
         "<path/to/input/file> <path/to/output/file>");
@@ -15,22 +34,166 @@ public class Main {
       int numOfThreads = Integer.parseInt(args[0]);
       String inputPath = args[1];
       String outputPath = args[2];
-      InputParser parser = new InputParser();
+      // the job may fail before the engine runs, so the executor is shut down here rather than by run()
+      TaskExecutor executor = LinearAlgebraEngine.createExecutor(numOfThreads);
       try{
-          ComputationNode root = parser.parse(inputPath);
-          LinearAlgebraEngine lae = new LinearAlgebraEngine(numOfThreads);
-          ComputationNode nodeResult = lae.run(root);
-          double[][] result = nodeResult.getMatrix();
-          OutputWriter.write(result, outputPath);
+          runJob(new LinearAlgebraEngine(executor), inputPath, outputPath);
       }
-      catch(ParseException e){
-          OutputWriter.write(e.getMessage(), outputPath);
+      finally{
+          try{
+              executor.shutdown();
+          }
+          catch(InterruptedException e){
+              Thread.currentThread().interrupt();
+          }
       }
-      catch(Exception e){
-          OutputWriter.write("ERROR: " + e.getMessage(), outputPath);
+      if(Metrics.ENABLED){
+          dumpMetrics();
       }
       
       
       
     }
+
+    // --batch <number of threads> <input directory> <output directory>, or --batch <number of threads> <manifest file>
+    private static void batch(String[] args) throws IOException {
+      if(args.length != 3 && args.length != 4){
+        throw new IOException("[Usage error] This is how to use: java -jar target/lga-1.0.jar --batch <number of threads>" +
+        " <path/to/input/directory> <path/to/output/directory>, or --batch <number of threads> <path/to/manifest>");
+      }
+      int numOfThreads = Integer.parseInt(args[1]);
+      Path source = Path.of(args[2]);
+      List<BatchRunner.Job> jobs;
+      if(Files.isDirectory(source)){
+          if(args.length != 4){
+            throw new IOException("[Usage error] An input directory needs an output directory");
+          }
+          jobs = BatchRunner.directoryJobs(source, Path.of(args[3]));
+      }
+      else{
+          if(args.length != 3){
+            throw new IOException("[Usage error] A manifest takes no output directory");
+          }
+          jobs = BatchRunner.manifestJobs(source);
+      }
+      try(BatchRunner runner = new BatchRunner(numOfThreads)){
+          int failed = runner.run(jobs);
+          if(failed > 0){
+              System.err.println("[Batch]: " + failed + " of " + jobs.size() + " jobs failed");
+          }
+      }
+      catch(InterruptedException e){
+          Thread.currentThread().interrupt();
+      }
+      if(Metrics.ENABLED){
+          dumpMetrics();
+      }
+    }
+
+    // --dry-run <input file> [output file]: plans the job without running it and writes the plan as JSON,
+    // to standard output by default, so the job's heap can be sized or the job refused beforehand
+    private static void dryRun(String[] args) throws IOException {
+      if(args.length != 2 && args.length != 3){
+        throw new IOException("[Usage error] This is how to use: java -jar target/lga-1.0.jar --dry-run" +
+        " <path/to/input/file> [path/to/output/file]");
+      }
+      try(OutputStream out = args.length == 3 ? new FileOutputStream(args[2]) : null){
+          OutputStream target = out == null ? System.out : out;
+          ExecutionPlan plan;
+          try{
+              plan = LinearAlgebraEngine.plan(parseJob(args[1]));
+          }
+          catch(Exception e){
+              ExecutionPlan.writeInvalid(errorMessage(e), target);
+              return;
+          }
+          plan.writeJson(target);
+      }
+    }
+
+    // --serve <number of threads> <spool directory> [max concurrent jobs]: runs jobs until the process is stopped
+    private static void serve(String[] args) throws IOException {
+      if(args.length != 3 && args.length != 4){
+        throw new IOException("[Usage error] This is how to use: java -jar target/lga-1.0.jar --serve <number of threads>" +
+        " <path/to/spool/directory> [max concurrent jobs]");
+      }
+      int numOfThreads = Integer.parseInt(args[1]);
+      int maxJobs = args.length == 4 ? Integer.parseInt(args[3]) : Math.max(1, numOfThreads / 2);
+      EngineService service = new EngineService(Path.of(args[2]), numOfThreads, maxJobs);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+          try{
+              service.close();
+              if(Metrics.ENABLED){
+                  dumpMetrics();
+              }
+          }
+          catch(IOException e){
+              System.err.println("[EngineService]: Shutdown was not clean: " + e.getMessage());
+          }
+      }));
+      try{
+          service.serve();
+      }
+      catch(InterruptedException e){
+          Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * Runs one job: parses the input, optimizes and evaluates the tree with the given engine, and writes the result,
+     * or the error message, to the output file. Several jobs may run at once on an engine with a shared executor.
+     */
+    static void runJob(LinearAlgebraEngine lae, String inputPath, String outputPath) throws IOException {
+      try{
+          ComputationNode root = parseJob(inputPath);
+          long start = Metrics.start();
+          ComputationNode nodeResult = lae.run(root);
+          Metrics.recordStage("run", start);
+          writeResult(nodeResult, outputPath);
+          lae.recycle(nodeResult);
+      }
+      catch(Exception e){
+          OutputWriter.write(errorMessage(e), outputPath);
+      }
+    }
+
+    // Parses a job's input and, unless lae.optimize is false, optimizes the tree
+    static ComputationNode parseJob(String inputPath) throws ParseException {
+      long start = Metrics.start();
+      ComputationNode root = new InputParser().parse(inputPath);
+      Metrics.recordStage("parse", start);
+      if(Boolean.parseBoolean(System.getProperty("lae.optimize", "true"))){
+          start = Metrics.start();
+          root = new TreeOptimizer().optimize(root);
+          Metrics.recordStage("optimize", start);
+      }
+      return root;
+    }
+
+    static void writeResult(ComputationNode nodeResult, String outputPath) throws IOException {
+      long start = Metrics.start();
+      OutputWriter.write(nodeResult.getSharedMatrix(), outputPath);
+      Metrics.recordStage("write", start);
+    }
+
+    // The message written for a failed job: parse errors as they are, anything else prefixed with ERROR,
+    // named by its class if it has no message (such as a StackOverflowError)
+    static String errorMessage(Throwable e) {
+      if(e instanceof ParseException){
+          return e.getMessage();
+      }
+      return "ERROR: " + (e.getMessage() == null && e instanceof Error ? e.getClass().getSimpleName() : e.getMessage());
+    }
+
+    // Writes the metrics as JSON to the file named by lae.metrics.out, or to standard error
+    private static void dumpMetrics() throws IOException {
+        String path = System.getProperty(Metrics.OUTPUT_PROPERTY);
+        if(path == null){
+            Metrics.writeJson(System.err);
+            return;
+        }
+        try(OutputStream out = new FileOutputStream(path)){
+            Metrics.writeJson(out);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,277 @@
+package spl.lae;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import memory.SharedMatrix;
+import memory.SparseMatrix;
+import metrics.Counter;
+import metrics.Metrics;
+import parser.BinaryMatrixFile;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+/**
+ * An on-disk cache of resolved subexpressions, shared by every engine and every process using the same directory,
+ * so a job repeating a large subexpression of an earlier job loads its result instead of computing it.
+ * <ul>
+ *     <li>A subexpression is keyed by the SHA-256 digest of its canonical form: the operator structure, the multiply
+ *     algorithm of every product, and the storage, shape and exact elements of every leaf. Equal keys mean bit for bit
+ *     equal inputs computed the same way, since classic and Strassen products round differently.</li>
+ *     <li>Results are stored as BinaryMatrixFile files named after their key, written under a temporary name and
+ *     atomically moved in, so other processes see either no entry or a complete one.</li>
+ *     <li>A hit refreshes the entry's modification time. Once the entries exceed maxBytes, the least recently used ones
+ *     are deleted until they fit in EVICT_TO of the bound; one process evicts at a time, holding the lock file.</li>
+ * </ul>
+ * Only subexpressions whose planned flops reach minCost are looked up and stored (see LinearAlgebraEngine), cheaper
+ * ones being faster to recompute than to hash, read and write. Sparse results are not stored, the file format being dense.
+ * A cache failure never fails a job: an unreadable entry is a miss and is removed, and a failed store is skipped.
+ */
+public class ResultCache {
+
+    /**
+     * System property naming the cache directory; the cache is disabled when it is not set.
+     */
+    public static final String DIRECTORY_PROPERTY = "lae.cache";
+
+    /**
+     * System property bounding the size of the cache entries, in megabytes.
+     */
+    public static final String MAX_SIZE_PROPERTY = "lae.cache.maxMB";
+
+    /**
+     * System property setting the cost from which a subexpression is cached, in floating point operations of the
+     * subexpression and everything below it, as counted by ExecutionPlan (a multiply-add counts two).
+     */
+    public static final String MIN_COST_PROPERTY = "lae.cache.minCost";
+
+    public static final long DEFAULT_MAX_MB = 1024;
+    public static final long DEFAULT_MIN_COST = 1L << 26; // about a 320 x 320 x 320 product
+
+    private static final String LOCK_FILE = ".lock";
+    private static final String TEMPORARY_PREFIX = "."; // entries being written, skipped by lookups and eviction
+    private static final double EVICT_TO = 0.9;
+    private static final Duration STALE_TEMPORARY = Duration.ofHours(1); // left behind by a process that died mid-write
+    private static final byte[] KEY_VERSION = "lae-cache-2".getBytes(StandardCharsets.US_ASCII);
+
+    private static final Counter hits = Metrics.counter("cache.hit");
+    private static final Counter misses = Metrics.counter("cache.miss");
+    private static final Counter stored = Metrics.counter("cache.stored");
+    private static final Counter evicted = Metrics.counter("cache.evicted");
+    private static final Counter errors = Metrics.counter("cache.error");
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long minCost;
+
+    public ResultCache(Path directory, long maxBytes, long minCost) throws IOException {
+        if(maxBytes<0 || minCost<0)
+            throw new IllegalArgumentException("[ResultCache]: The size bound and cost threshold cannot be negative");
+        this.directory=Files.createDirectories(directory);
+        this.maxBytes=maxBytes;
+        this.minCost=minCost;
+    }
+
+    /**
+     * Creates the cache configured by the system properties, or returns null if DIRECTORY_PROPERTY is not set.
+     */
+    public static ResultCache fromProperties() {
+        String directory=System.getProperty(DIRECTORY_PROPERTY);
+        if(directory==null || directory.isBlank())
+            return null;
+        long maxMegabytes=Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_MB);
+        long minCost=Long.getLong(MIN_COST_PROPERTY, DEFAULT_MIN_COST);
+        try{
+            return new ResultCache(Path.of(directory), Math.multiplyExact(maxMegabytes, 1L << 20), minCost);
+        }
+        catch(IOException e){
+            throw new IllegalArgumentException("[ResultCache]: Cannot use cache directory " + directory + ": " + e.getMessage());
+        }
+    }
+
+    public long minCost() {
+        return minCost;
+    }
+
+    /**
+     * The key of a leaf: its storage (dense or sparse) and contents.
+     */
+    public static String leafKey(ComputationNode leaf) {
+        MessageDigest digest=newDigest();
+        SparseMatrix sparse=leaf.getSparseMatrix();
+        if(sparse!=null){
+            digest.update((byte) 's');
+            sparse.digest(digest);
+        }
+        else{
+            digest.update((byte) 'd');
+            leaf.getSharedMatrix().digest(digest);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * The key of an operator node from the keys of its children, in order, its power if it is a POW node, and the
+     * multiply algorithm (such as "classic" or "strassen-1024") if it is a MULTIPLY or POW node.
+     */
+    public static String operatorKey(ComputationNodeType type, int power, String multiply, List<String> childKeys) {
+        MessageDigest digest=newDigest();
+        digest.update((byte) 'o');
+        digest.update(type.name().getBytes(StandardCharsets.US_ASCII));
+        if(type==ComputationNodeType.POW)
+            digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(power).array());
+        if(type==ComputationNodeType.MULTIPLY || type==ComputationNodeType.POW){
+            digest.update((byte) 'm');
+            digest.update(multiply.getBytes(StandardCharsets.US_ASCII));
+        }
+        digest.update((byte) childKeys.size());
+        for(String childKey : childKeys){
+            digest.update(childKey.getBytes(StandardCharsets.US_ASCII));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try{
+            MessageDigest digest=MessageDigest.getInstance("SHA-256");
+            digest.update(KEY_VERSION);
+            return digest;
+        }
+        catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException("[ResultCache]: SHA-256 is not available", e); // every JDK provides it
+        }
+    }
+
+    /**
+     * Returns the cached result for the key, or null on a miss.
+     */
+    public SharedMatrix load(String key) {
+        Path entry=entry(key);
+        try{
+            SharedMatrix result=BinaryMatrixFile.read(entry);
+            hits.increment();
+            touch(entry);
+            return result;
+        }
+        catch(NoSuchFileException e){
+            misses.increment();
+            return null;
+        }
+        catch(IOException e){
+            errors.increment();
+            misses.increment();
+            System.err.println("[ResultCache]: Dropping unreadable entry " + entry.getFileName() + ": " + e.getMessage());
+            deleteQuietly(entry);
+            return null;
+        }
+    }
+
+    // Marks the entry as recently used; it may have been evicted by another process in the meantime
+    private static void touch(Path entry) {
+        try{
+            Files.setLastModifiedTime(entry, FileTime.from(Instant.now()));
+        }
+        catch(IOException ignored){
+        }
+    }
+
+    /**
+     * Stores the result under the key, replacing any entry another process stored meanwhile, then evicts if needed.
+     */
+    public void store(String key, SharedMatrix result) {
+        Path temporary=directory.resolve(TEMPORARY_PREFIX + key + "-" + ProcessHandle.current().pid() + "-" + Thread.currentThread().threadId());
+        try{
+            BinaryMatrixFile.write(result, temporary);
+            Files.move(temporary, entry(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            stored.increment();
+        }
+        catch(IOException e){
+            errors.increment();
+            System.err.println("[ResultCache]: Could not store entry " + key + ": " + e.getMessage());
+            deleteQuietly(temporary);
+            return;
+        }
+        evictIfNeeded();
+    }
+
+    private Path entry(String key) {
+        return directory.resolve(key + BinaryMatrixFile.EXTENSION);
+    }
+
+    // Deletes the least recently used entries while they exceed maxBytes, unless another process is already at it
+    private void evictIfNeeded() {
+        try(FileChannel lockChannel=FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock=lockChannel.tryLock()){
+            if(lock==null)
+                return;
+            record Entry(Path path, long size, FileTime lastUsed) {}
+            List<Entry> entries=new ArrayList<>();
+            long total=0;
+            FileTime staleBefore=FileTime.from(Instant.now().minus(STALE_TEMPORARY));
+            try(Stream<Path> files=Files.list(directory)){
+                for(Path path : (Iterable<Path>) files::iterator){
+                    String name=path.getFileName().toString();
+                    BasicFileAttributes attributes;
+                    try{
+                        attributes=Files.readAttributes(path, BasicFileAttributes.class);
+                    }
+                    catch(NoSuchFileException e){
+                        continue; // evicted or renamed meanwhile
+                    }
+                    if(name.startsWith(TEMPORARY_PREFIX)){
+                        if(!name.equals(LOCK_FILE) && attributes.lastModifiedTime().compareTo(staleBefore)<0)
+                            deleteQuietly(path);
+                    }
+                    else if(name.endsWith(BinaryMatrixFile.EXTENSION)){
+                        entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime()));
+                        total+=attributes.size();
+                    }
+                }
+            }
+            if(total<=maxBytes)
+                return;
+            entries.sort(Comparator.comparing(Entry::lastUsed));
+            long target=(long) (maxBytes*EVICT_TO);
+            for(Entry entry : entries){
+                if(total<=target)
+                    break;
+                if(deleteQuietly(entry.path())){
+                    evicted.increment();
+                }
+                total-=entry.size();
+            }
+        }
+        catch(OverlappingFileLockException e){
+            // another cache of this process is evicting from the same directory
+        }
+        catch(IOException e){
+            errors.increment();
+            System.err.println("[ResultCache]: Eviction failed: " + e.getMessage());
+        }
+    }
+
+    private static boolean deleteQuietly(Path path) {
+        try{
+            return Files.deleteIfExists(path);
+        }
+        catch(IOException e){
+            return false;
+        }
+    }
+}
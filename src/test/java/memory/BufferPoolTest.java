@@ -0,0 +1,89 @@
+package memory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class BufferPoolTest {
+
+    private static final int CLASS = 5 * 1024; // the class above 4096, a quarter of 4096 further
+
+    @Test
+    void sizeClassesAreFourPerPowerOfTwo() {
+        assertEquals(4096, BufferPool.classSize(4096));
+        assertEquals(5120, BufferPool.classSize(4097));
+        assertEquals(5120, BufferPool.classSize(5120));
+        assertEquals(6144, BufferPool.classSize(5121));
+        assertEquals(8192, BufferPool.classSize(8191));
+        assertEquals(Integer.MAX_VALUE, BufferPool.classSize(Integer.MAX_VALUE), "no class fits, the request is kept");
+        assertEquals(4096, BufferPool.floorClassSize(5119));
+        assertEquals(7168, BufferPool.floorClassSize(8191));
+        assertEquals(6144, BufferPool.floorClassSize(6144));
+        for (int length = BufferPool.MIN_POOLED; length < 1 << 16; length += 37) {
+            int size = BufferPool.classSize(length);
+            assertTrue(size >= length && size <= length * 1.25, length + " rounds to " + size);
+            assertEquals(size, BufferPool.floorClassSize(size), size + " is a class");
+            assertTrue(BufferPool.floorClassSize(length) <= length);
+        }
+    }
+
+    @Test
+    void releasedBuffersServeTheirClass() {
+        BufferPool pool = new BufferPool(1 << 20);
+        double[] buffer = pool.acquire(5000);
+        assertEquals(CLASS, buffer.length);
+        pool.release(buffer);
+        assertEquals(CLASS * Double.BYTES, pool.retainedBytes());
+        assertSame(buffer, pool.acquire(4097), "any request of the class");
+        assertEquals(0, pool.retainedBytes());
+        assertNotSame(buffer, pool.acquire(4097), "handed out once");
+    }
+
+    @Test
+    void buffersOfOtherLengthsServeTheClassTheyCover() {
+        BufferPool pool = new BufferPool(1 << 20);
+        double[] buffer = new double[6000];
+        pool.release(buffer);
+        assertEquals(6144, pool.acquire(6000).length, "6000 needs the 6144 class, which the buffer doesn't cover");
+        assertSame(buffer, pool.acquire(CLASS));
+    }
+
+    @Test
+    void smallBuffersAreNotPooled() {
+        BufferPool pool = new BufferPool(1 << 20);
+        double[] buffer = pool.acquire(100);
+        assertEquals(100, buffer.length);
+        pool.release(buffer);
+        pool.release((double[]) null);
+        assertEquals(0, pool.retainedBytes());
+    }
+
+    @Test
+    void retainedBytesAreBounded() {
+        BufferPool pool = new BufferPool(CLASS * Double.BYTES);
+        double[] first = new double[CLASS];
+        pool.release(first);
+        pool.release(new double[CLASS]);
+        assertEquals(CLASS * Double.BYTES, pool.retainedBytes(), "the second buffer is dropped");
+        assertSame(first, pool.acquire(CLASS));
+        assertNotSame(first, pool.acquire(CLASS));
+    }
+
+    @Test
+    void matricesHandBackTheirSharedBuffer() {
+        BufferPool pool = new BufferPool(1 << 20);
+        double[] buffer = pool.acquire(64 * 64);
+        SharedMatrix matrix = new SharedMatrix(buffer, 64, 64, VectorOrientation.ROW_MAJOR);
+        pool.release(matrix);
+        assertSame(buffer, pool.acquire(64 * 64));
+
+        SharedMatrix detached = new SharedMatrix(new double[64 * 64], 64, 64, VectorOrientation.ROW_MAJOR);
+        SharedMatrix widening = new SharedMatrix(new double[64 * 65], 64, 65, VectorOrientation.ROW_MAJOR);
+        detached.get(0).vecMatMul(widening); // the first row now has 65 elements in a buffer of its own
+        pool.release(detached);
+        assertEquals(0, pool.retainedBytes(), "vectors no longer share one buffer");
+    }
+}
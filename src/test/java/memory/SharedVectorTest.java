@@ -0,0 +1,90 @@
+package memory;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.nio.DoubleBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+class SharedVectorTest {
+
+    private static final Duration DEADLOCK_TIMEOUT = Duration.ofSeconds(10);
+
+    private static double[] contents(SharedVector vector) {
+        double[] values = new double[vector.length()];
+        vector.copyInto(values, 0);
+        return values;
+    }
+
+    @Test
+    void vecMatMulByMatrixContainingTheVector() {
+        // the vector is the first row of the matrix, whose lock vecMatMul already holds
+        SharedMatrix matrix = new SharedMatrix(new double[][]{{1, 2}, {3, 4}});
+        SharedVector row = matrix.get(0);
+        assertTimeoutPreemptively(DEADLOCK_TIMEOUT, () -> row.vecMatMul(matrix));
+        assertArrayEquals(new double[]{7, 10}, contents(row));
+    }
+
+    @Test
+    void vecMatMulByMatrixContainingTheVectorOnALaterRow() {
+        SharedMatrix matrix = new SharedMatrix(new double[][]{{1, 2}, {3, 4}});
+        SharedVector row = matrix.get(1);
+        assertTimeoutPreemptively(DEADLOCK_TIMEOUT, () -> row.vecMatMul(matrix));
+        assertArrayEquals(new double[]{15, 22}, contents(row));
+    }
+
+    @Test
+    void vecMatMulChangingTheVectorLength() {
+        SharedMatrix matrix = new SharedMatrix(new double[][]{{1, 0, 2}, {0, 1, 3}});
+        SharedVector vector = new SharedVector(new double[]{2, 5}, VectorOrientation.ROW_MAJOR);
+        vector.vecMatMul(matrix);
+        assertArrayEquals(new double[]{2, 5, 19}, contents(vector));
+    }
+
+    // Whether every element holds the same value, as it does before and after any complete write of the tests below
+    private static void assertUniform(double[] values, String reader) {
+        for (double value : values) {
+            assertEquals(values[0], value, reader + " saw a partial range write");
+        }
+    }
+
+    @Test
+    void readersNeverSeeARangeWriteHalfDone() throws InterruptedException {
+        int length = 1 << 16;
+        double[] ones = new double[length];
+        Arrays.fill(ones, 1);
+        SharedVector vector = new SharedVector(ones, VectorOrientation.ROW_MAJOR);
+        SharedVector zeros = new SharedVector(new double[length], VectorOrientation.ROW_MAJOR);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            while (!done.get()) {
+                vector.negate(0, length);
+                vector.add(zeros, 0, length);
+                vector.subtract(zeros, 0, length);
+                Thread.yield(); // on a single processor, let the reader run between rounds
+            }
+        });
+        writer.start();
+        try {
+            assertTimeoutPreemptively(DEADLOCK_TIMEOUT, () -> {
+                double[] copy = new double[length];
+                for (int i = 0; i < 200; i++) {
+                    vector.copyInto(copy, 0);
+                    assertUniform(copy, "copyInto");
+                    DoubleBuffer snapshot = vector.snapshot();
+                    double[] values = new double[length];
+                    snapshot.get(values);
+                    assertUniform(values, "snapshot");
+                }
+            });
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+}
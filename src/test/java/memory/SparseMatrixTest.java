@@ -0,0 +1,165 @@
+package memory;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the sparse kernels against dense products and sums. Elements are small integers, so every result is exact.
+ */
+class SparseMatrixTest {
+
+    private static final Consumer<List<Runnable>> SEQUENTIAL = tasks -> tasks.forEach(Runnable::run);
+
+    // A random sparse matrix with about count entries, some of them duplicates, together with its dense form
+    private static SparseMatrix random(Random random, int rows, int cols, int count, double[][] dense) {
+        int[] entryRows = new int[count];
+        int[] entryCols = new int[count];
+        double[] entryValues = new double[count];
+        for (int e = 0; e < count; e++) {
+            entryRows[e] = random.nextInt(rows);
+            entryCols[e] = random.nextInt(cols);
+            entryValues[e] = random.nextInt(9) - 4;
+            dense[entryRows[e]][entryCols[e]] += entryValues[e];
+        }
+        return SparseMatrix.fromEntries(rows, cols, entryRows, entryCols, entryValues, count);
+    }
+
+    private static double[][] multiply(double[][] a, double[][] b) {
+        double[][] c = new double[a.length][b[0].length];
+        for (int i = 0; i < a.length; i++) {
+            for (int k = 0; k < b.length; k++) {
+                for (int j = 0; j < b[0].length; j++) {
+                    c[i][j] += a[i][k] * b[k][j];
+                }
+            }
+        }
+        return c;
+    }
+
+    private static SharedMatrix output(int rows, int cols) {
+        return new SharedMatrix(new double[rows * cols], rows, cols, VectorOrientation.ROW_MAJOR);
+    }
+
+    private static void assertMatrixEquals(double[][] expected, double[][] actual, String message) {
+        assertEquals(expected.length, actual.length, message + ": rows");
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], message + ": row " + i);
+        }
+    }
+
+    @Test
+    void fromEntriesSumsDuplicatesInAnyOrder() {
+        SparseMatrix matrix = SparseMatrix.fromEntries(2, 3,
+                new int[]{1, 0, 1, 0, 1}, new int[]{2, 1, 0, 1, 2}, new double[]{1, 2, 3, 4, 5}, 5);
+        assertEquals(3, matrix.nonZeros());
+        assertMatrixEquals(new double[][]{{0, 6, 0}, {3, 0, 6}}, matrix.toDense().readRowMajor(), "entries");
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> SparseMatrix.fromEntries(2, 3, new int[]{2}, new int[]{0}, new double[]{1}, 1));
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> SparseMatrix.fromEntries(2, 3, new int[]{0}, new int[]{-1}, new double[]{1}, 1));
+    }
+
+    @Test
+    void compressKeepsNegativeZeros() {
+        double[] data = {0, -0.0, 2, 0, 0, 3};
+        SparseMatrix matrix = SparseMatrix.compress(data, 2, 3, VectorOrientation.COLUMN_MAJOR);
+        assertEquals(3, matrix.nonZeros());
+        assertEquals(3, matrix.rows());
+        assertEquals(2, matrix.cols());
+        assertTrue(matrix.toDense().contentEquals(new SharedMatrix(data, 2, 3, VectorOrientation.COLUMN_MAJOR)), "bit for bit");
+    }
+
+    @Test
+    void transposeAndReorientationAgreeWithTheDenseMatrix() {
+        double[][] dense = new double[7][5];
+        SparseMatrix matrix = random(new Random(13), 7, 5, 12, dense);
+        double[][] transposed = new double[5][7];
+        for (int i = 0; i < 7; i++) {
+            for (int j = 0; j < 5; j++) {
+                transposed[j][i] = dense[i][j];
+            }
+        }
+        assertMatrixEquals(transposed, matrix.transpose().toDense().readRowMajor(), "transpose");
+        SparseMatrix columns = matrix.toOrientation(VectorOrientation.COLUMN_MAJOR);
+        assertEquals(VectorOrientation.COLUMN_MAJOR, columns.getOrientation());
+        assertMatrixEquals(dense, columns.toDense().readRowMajor(), "column-major");
+        assertTrue(columns.toOrientation(VectorOrientation.ROW_MAJOR).contentEquals(matrix), "converted back");
+    }
+
+    @Test
+    void sparseProductsMatchTheDenseProduct() {
+        Random random = new Random(31);
+        double[][] a = new double[20][30];
+        double[][] b = new double[30][25];
+        SparseMatrix left = random(random, 20, 30, 60, a);
+        SparseMatrix right = random(random, 30, 25, 70, b);
+        double[][] expected = multiply(a, b);
+        for (int numTasks : new int[]{1, 4}) {
+            String tasks = numTasks + " tasks";
+            assertMatrixEquals(expected, SparseMatrix.multiply(left, right, numTasks, SEQUENTIAL).toDense().readRowMajor(), "sparse x sparse, " + tasks);
+            SparseMatrix columns = right.toOrientation(VectorOrientation.COLUMN_MAJOR);
+            assertMatrixEquals(expected, SparseMatrix.multiply(left, columns, numTasks, SEQUENTIAL).toDense().readRowMajor(), "CSR x CSC, " + tasks);
+
+            SharedMatrix c = output(20, 25);
+            SparseMatrix.createMultiplyTasks(left, new SharedMatrix(b), c, numTasks).forEach(Runnable::run);
+            assertMatrixEquals(expected, c.readRowMajor(), "sparse x dense, " + tasks);
+            c = output(20, 25);
+            SparseMatrix.createMultiplyTasks(new SharedMatrix(a), right, c, numTasks).forEach(Runnable::run);
+            assertMatrixEquals(expected, c.readRowMajor(), "dense x sparse, " + tasks);
+        }
+        assertThrows(IllegalArgumentException.class, () -> SparseMatrix.multiply(left, left, 1, SEQUENTIAL));
+    }
+
+    @Test
+    void sparseSumsMatchTheDenseSum() {
+        Random random = new Random(5);
+        double[][] a = new double[9][11];
+        double[][] b = new double[9][11];
+        SparseMatrix left = random(random, 9, 11, 20, a);
+        SparseMatrix right = random(random, 9, 11, 20, b).toOrientation(VectorOrientation.COLUMN_MAJOR);
+        for (double sign : new double[]{1, -1}) {
+            double[][] expected = new double[9][11];
+            for (int i = 0; i < 9; i++) {
+                for (int j = 0; j < 11; j++) {
+                    expected[i][j] = a[i][j] + sign * b[i][j];
+                }
+            }
+            SparseMatrix sum = SparseMatrix.add(left, right, sign, 3, SEQUENTIAL);
+            assertEquals(VectorOrientation.ROW_MAJOR, sum.getOrientation(), "left operand's orientation");
+            assertMatrixEquals(expected, sum.toDense().readRowMajor(), "sparse + " + sign + " sparse");
+
+            SharedMatrix dense = new SharedMatrix(a);
+            SparseMatrix.createAddToTasks(right, dense, sign, 3).forEach(Runnable::run);
+            assertMatrixEquals(expected, dense.readRowMajor(), "dense + " + sign + " sparse");
+        }
+        assertThrows(IllegalArgumentException.class, () -> SparseMatrix.add(left, left.transpose(), 1, 1, SEQUENTIAL));
+    }
+
+    @Test
+    void copiesAreNegatedIndependently() {
+        double[][] dense = new double[4][4];
+        SparseMatrix matrix = random(new Random(2), 4, 4, 6, dense);
+        SparseMatrix copy = matrix.copy();
+        copy.negate(0, copy.nonZeros());
+        assertMatrixEquals(dense, matrix.toDense().readRowMajor(), "original");
+        assertFalse(copy.contentEquals(matrix));
+        copy.negate(0, copy.nonZeros());
+        assertTrue(copy.contentEquals(matrix));
+    }
+
+    @Test
+    void onlyLargeLowDensityMatricesAreStoredSparse() {
+        assertTrue(SparseMatrix.isSparseEnough(409, 4096));
+        assertFalse(SparseMatrix.isSparseEnough(410, 4096), "above the density threshold");
+        assertFalse(SparseMatrix.isSparseEnough(0, 4095), "below the minimum size");
+    }
+}
@@ -0,0 +1,133 @@
+package memory;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks StrassenKernel against the classic product. Surefire runs the tests with lae.strassen.crossover=16, so
+ * products from 16 up go through one or more Strassen levels.
+ */
+class StrassenKernelTest {
+
+    private static final double UNIT_ROUNDOFF = 0x1p-53;
+    private static final Consumer<List<Runnable>> SEQUENTIAL = tasks -> tasks.forEach(Runnable::run);
+
+    private static SharedMatrix random(Random random, int rows, int cols, boolean integers) {
+        double[][] values = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                values[i][j] = integers ? random.nextInt(17) - 8 : random.nextDouble() * 2 - 1;
+            }
+        }
+        return new SharedMatrix(values);
+    }
+
+    private static double[][] strassen(SharedMatrix a, SharedMatrix b, int numWorkers) {
+        SharedMatrix c = new SharedMatrix(new double[a.rows() * b.cols()], a.rows(), b.cols(), VectorOrientation.ROW_MAJOR);
+        StrassenKernel.multiply(a, b, c, numWorkers, SEQUENTIAL);
+        return c.readRowMajor();
+    }
+
+    private static double[][] classic(SharedMatrix a, SharedMatrix b) {
+        SharedMatrix c = new SharedMatrix(new double[a.rows() * b.cols()], a.rows(), b.cols(), VectorOrientation.ROW_MAJOR);
+        GemmKernel.createTileTasks(a, b, c).forEach(Runnable::run);
+        return c.readRowMajor();
+    }
+
+    private static void assertCrossover() {
+        assertTrue(StrassenKernel.applies(16, 16, 16), "run with -D" + StrassenKernel.CROSSOVER_PROPERTY + "=16");
+    }
+
+    @Test
+    void integerProductsAreExactForOddAndRectangularShapes() {
+        assertCrossover();
+        Random random = new Random(19);
+        int[][] shapes = {{16, 16, 16}, {17, 19, 23}, {33, 16, 47}, {50, 37, 41}, {64, 65, 31}, {100, 64, 33}, {129, 130, 131}};
+        for (int[] shape : shapes) {
+            SharedMatrix a = random(random, shape[0], shape[1], true);
+            SharedMatrix b = random(random, shape[1], shape[2], true);
+            double[][] expected = classic(a, b);
+            for (int numWorkers : new int[]{1, 8}) {
+                double[][] actual = strassen(a, b, numWorkers);
+                for (int i = 0; i < shape[0]; i++) {
+                    assertArrayEquals(expected[i], actual[i], "row " + i + " of " + shape[0] + "x" + shape[1] + "x" + shape[2]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void integerProductsAreExactForColumnMajorOperands() {
+        assertCrossover();
+        Random random = new Random(23);
+        SharedMatrix a = random(random, 37, 45, true);
+        SharedMatrix b = random(random, 45, 29, true);
+        double[][] expected = classic(a, b);
+        double[][] actual = strassen(a.copy(VectorOrientation.COLUMN_MAJOR), b.copy(VectorOrientation.COLUMN_MAJOR), 4);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], "row " + i);
+        }
+    }
+
+    /**
+     * Random doubles: the difference to GemmKernel stays within the documented normwise bound of Strassen's product
+     * plus the componentwise bound of the classic one, both taken at their worst element.
+     */
+    @Test
+    void doubleProductsStayWithinTheDocumentedBound() {
+        assertCrossover();
+        Random random = new Random(29);
+        for (int n : new int[]{16, 48, 64, 100, 128, 200}) {
+            SharedMatrix a = random(random, n, n, false);
+            SharedMatrix b = random(random, n, n, false);
+            double[][] expected = classic(a, b);
+            double[][] actual = strassen(a, b, 8);
+            double maxA = maxAbs(a.readRowMajor());
+            double maxB = maxAbs(b.readRowMajor());
+            double n0 = n;
+            while (n0 >= StrassenKernel.CROSSOVER) { // the size at which the recursion stops
+                n0 /= 2;
+            }
+            double strassenBound = (Math.pow(n / n0, Math.log(18) / Math.log(2)) * (n0 * n0 + 6 * n0) - 6 * n)
+                    * UNIT_ROUNDOFF * maxA * maxB;
+            double classicBound = (double) n * n * UNIT_ROUNDOFF * maxA * maxB;
+            double error = 0;
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    error = Math.max(error, Math.abs(actual[i][j] - expected[i][j]));
+                }
+            }
+            assertTrue(error <= strassenBound + classicBound, "n=" + n + ": error " + error + " over the bound " + (strassenBound + classicBound));
+        }
+    }
+
+    @Test
+    void productsBelowTheCrossoverMatchTheClassicKernel() {
+        Random random = new Random(31);
+        SharedMatrix a = random(random, 15, 40, false);
+        SharedMatrix b = random(random, 40, 20, false);
+        double[][] expected = classic(a, b);
+        double[][] actual = strassen(a, b, 1);
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], "row " + i);
+        }
+    }
+
+    private static double maxAbs(double[][] values) {
+        double max = 0;
+        for (double[] row : values) {
+            for (double value : row) {
+                max = Math.max(max, Math.abs(value));
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,153 @@
+package memory;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks MatrixStructure and the structured multiply kernels against the classic product.
+ * Elements are small integers, so every product is exact and must match bit for bit.
+ */
+class StructuredKernelsTest {
+
+    private static double[][] random(Random random, int rows, int cols) {
+        double[][] values = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                values[i][j] = random.nextInt(9) - 4;
+            }
+        }
+        return values;
+    }
+
+    // The matrix with every element outside the given structure set to zero (and a unit diagonal for IDENTITY)
+    private static double[][] restrict(double[][] values, MatrixStructure structure) {
+        double[][] result = new double[values.length][values.length];
+        for (int i = 0; i < values.length; i++) {
+            for (int j = 0; j < values.length; j++) {
+                boolean kept = switch (structure) {
+                    case GENERAL -> true;
+                    case LOWER_TRIANGULAR -> j <= i;
+                    case UPPER_TRIANGULAR -> j >= i;
+                    case DIAGONAL, IDENTITY -> j == i;
+                };
+                result[i][j] = kept ? values[i][j] : 0;
+            }
+            if (structure == MatrixStructure.IDENTITY) {
+                result[i][i] = 1;
+            }
+        }
+        return result;
+    }
+
+    private static SharedMatrix columnMajor(double[][] values) {
+        SharedMatrix matrix = new SharedMatrix();
+        matrix.loadColumnMajor(values);
+        return matrix;
+    }
+
+    private static SharedMatrix output(int rows, int cols) {
+        return new SharedMatrix(new double[rows * cols], rows, cols, VectorOrientation.ROW_MAJOR);
+    }
+
+    private static double[][] classic(SharedMatrix a, SharedMatrix b) {
+        SharedMatrix c = output(a.rows(), b.cols());
+        GemmKernel.createTileTasks(a, b, c).forEach(Runnable::run);
+        return c.readRowMajor();
+    }
+
+    private static double[][] run(List<Runnable> tasks, SharedMatrix c) {
+        tasks.forEach(Runnable::run);
+        return c.readRowMajor();
+    }
+
+    private static void assertMatrixEquals(double[][] expected, double[][] actual, String message) {
+        assertEquals(expected.length, actual.length, message + ": rows");
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], message + ": row " + i);
+        }
+    }
+
+    @Test
+    void structureIsClassifiedInEitherOrientation() {
+        double[][] values = random(new Random(1), 5, 5);
+        values[0][1] = 1; // the scan must not stop early on a zero above the diagonal
+        values[1][0] = 1;
+        for (MatrixStructure structure : MatrixStructure.values()) {
+            double[][] restricted = restrict(values, structure);
+            restricted[2][2] = structure == MatrixStructure.IDENTITY ? 1 : 3;
+            assertEquals(structure, MatrixStructure.of(new SharedMatrix(restricted)), structure + ", row major");
+            assertEquals(structure, MatrixStructure.of(columnMajor(restricted)), structure + ", column major");
+        }
+        double[][] lower = restrict(values, MatrixStructure.LOWER_TRIANGULAR);
+        lower[4][0] = 0;
+        lower[0][4] = 2; // a single non-zero in the far corner of the other triangle
+        assertEquals(MatrixStructure.GENERAL, MatrixStructure.of(new SharedMatrix(lower)));
+        assertEquals(MatrixStructure.GENERAL, MatrixStructure.of(new SharedMatrix(new double[][]{{1, 0, 0}, {0, 1, 0}})), "not square");
+        assertEquals(MatrixStructure.GENERAL, MatrixStructure.of(new SharedMatrix()), "empty");
+        assertEquals(MatrixStructure.DIAGONAL, MatrixStructure.of(new SharedMatrix(new double[][]{{1, 0}, {0, -1}})));
+    }
+
+    @Test
+    void gramProductsMatchTheClassicProduct() {
+        double[][] values = random(new Random(2), 37, 23);
+        SharedMatrix a = new SharedMatrix(values);
+        double[][] transposed = new double[23][37];
+        for (int i = 0; i < 37; i++) {
+            for (int j = 0; j < 23; j++) {
+                transposed[j][i] = values[i][j];
+            }
+        }
+        SharedMatrix t = new SharedMatrix(transposed);
+        for (int tileSize : new int[]{8, 64}) {
+            SharedMatrix c = output(37, 37);
+            assertMatrixEquals(classic(a, t), run(StructuredKernels.createGramTasks(a, false, c, tileSize), c), "A T(A), tile " + tileSize);
+            c = output(23, 23);
+            assertMatrixEquals(classic(t, a), run(StructuredKernels.createGramTasks(a, true, c, tileSize), c), "T(A) A, tile " + tileSize);
+            c = output(37, 37);
+            SharedMatrix columns = columnMajor(values);
+            assertMatrixEquals(classic(a, t), run(StructuredKernels.createGramTasks(columns, false, c, tileSize), c), "column-major A, tile " + tileSize);
+        }
+    }
+
+    @Test
+    void triangularProductsMatchTheClassicProduct() {
+        Random random = new Random(3);
+        int n = 45;
+        MatrixStructure[] structures = {MatrixStructure.GENERAL, MatrixStructure.LOWER_TRIANGULAR, MatrixStructure.UPPER_TRIANGULAR};
+        for (MatrixStructure left : structures) {
+            for (MatrixStructure right : structures) {
+                SharedMatrix a = new SharedMatrix(restrict(random(random, n, n), left));
+                SharedMatrix b = columnMajor(restrict(random(random, n, n), right));
+                for (int tile : new int[]{7, 64}) {
+                    SharedMatrix c = output(n, n);
+                    String message = left + " x " + right + ", tile " + tile;
+                    assertMatrixEquals(classic(a, b), run(StructuredKernels.createTriangularTasks(a, left, b, right, c, tile, tile), c), message);
+                }
+            }
+        }
+        SharedMatrix lower = new SharedMatrix(restrict(random(random, 20, 20), MatrixStructure.LOWER_TRIANGULAR));
+        SharedMatrix general = new SharedMatrix(random(random, 20, 13));
+        SharedMatrix c = output(20, 13);
+        assertMatrixEquals(classic(lower, general),
+                run(StructuredKernels.createTriangularTasks(lower, MatrixStructure.LOWER_TRIANGULAR, general, MatrixStructure.GENERAL, c, 8, 8), c), "rectangular right operand");
+    }
+
+    @Test
+    void diagonalProductsMatchTheClassicProduct() {
+        Random random = new Random(4);
+        SharedMatrix d = new SharedMatrix(restrict(random(random, 11, 11), MatrixStructure.DIAGONAL));
+        for (SharedMatrix b : new SharedMatrix[]{new SharedMatrix(random(random, 11, 11)), columnMajor(random(random, 11, 11))}) {
+            for (int numTasks : new int[]{1, 3}) {
+                SharedMatrix c = output(11, 11);
+                assertMatrixEquals(classic(d, b), run(StructuredKernels.createDiagonalTasks(d, b, true, c, numTasks), c), "D B, " + numTasks + " tasks");
+                c = output(11, 11);
+                assertMatrixEquals(classic(b, d), run(StructuredKernels.createDiagonalTasks(d, b, false, c, numTasks), c), "B D, " + numTasks + " tasks");
+            }
+        }
+    }
+}
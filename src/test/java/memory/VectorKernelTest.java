@@ -0,0 +1,98 @@
+package memory;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+import jdk.incubator.vector.DoubleVector;
+
+/**
+ * Runs SimdVectorKernel and ScalarVectorKernel side by side. Surefire adds the jdk.incubator.vector module, so the
+ * SIMD kernels load here. Lengths cover an empty range, a single element and one vector length either side of every
+ * multiple of it, so both the vector loops and their scalar tails run. Operands start at odd offsets.
+ */
+class VectorKernelTest {
+
+    private static final int LANES = DoubleVector.SPECIES_PREFERRED.length();
+    private static final int[] LENGTHS = {0, 1, LANES - 1, LANES, LANES + 1, 2 * LANES - 1, 2 * LANES, 2 * LANES + 1,
+            3 * LANES + 1, 4 * LANES - 1, 100 * LANES + 3};
+
+    private final VectorKernel simd = new SimdVectorKernel();
+    private final VectorKernel scalar = new ScalarVectorKernel();
+
+    private static double[] random(SplittableRandom random, int length) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextDouble(-10, 10);
+        }
+        return values;
+    }
+
+    @Test
+    void simdKernelsAreInUse() {
+        assertTrue(VectorKernels.INSTANCE.name().startsWith("simd"), VectorKernels.INSTANCE.name());
+    }
+
+    @Test
+    void axpyAndNegateMatchBitForBit() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int len : LENGTHS) {
+            double[] x = random(random, len + 3);
+            double[] y = random(random, len + 6);
+            double[] expected = y.clone();
+            simd.axpy(-1.75, x, 3, y, 5, len);
+            scalar.axpy(-1.75, x, 3, expected, 5, len);
+            assertArrayEquals(expected, y, "axpy of " + len);
+            simd.negate(y, 1, len);
+            scalar.negate(expected, 1, len);
+            assertArrayEquals(expected, y, "negate of " + len);
+        }
+    }
+
+    @Test
+    void dotMatchesUpToTheSummationOrder() {
+        SplittableRandom random = new SplittableRandom(2);
+        for (int len : LENGTHS) {
+            double[] x = random(random, len + 3);
+            double[] y = random(random, len + 5);
+            double magnitude = 0;
+            for (int i = 0; i < len; i++) {
+                magnitude += Math.abs(x[3 + i] * y[5 + i]);
+            }
+            assertEquals(scalar.dot(x, 3, y, 5, len), simd.dot(x, 3, y, 5, len), 1e-15 * len * magnitude, "dot of " + len);
+
+            double[] a = new double[len + 1];
+            double[] b = new double[len + 1];
+            for (int i = 0; i < len; i++) {
+                a[i + 1] = random.nextInt(7) - 3;
+                b[i + 1] = random.nextInt(7) - 3;
+            }
+            assertEquals(scalar.dot(a, 1, b, 1, len), simd.dot(a, 1, b, 1, len), "integer dot of " + len + " is exact in any order");
+        }
+    }
+
+    @Test
+    void microKernelsMatchBitForBit() {
+        SplittableRandom random = new SplittableRandom(3);
+        int ldc = GemmKernel.NR + 3;
+        for (int kc : new int[]{0, 1, 2, 37}) {
+            double[] a = random(random, 1 + kc * GemmKernel.MR);
+            double[] b = random(random, 2 + kc * GemmKernel.NR);
+            for (int mr = 1; mr <= GemmKernel.MR; mr++) {
+                for (int nr = 1; nr <= GemmKernel.NR; nr++) {
+                    for (boolean overwrite : new boolean[]{false, true}) {
+                        double[] c = random(random, 2 + GemmKernel.MR * ldc);
+                        double[] expected = c.clone();
+                        simd.microKernel(kc, a, 1, b, 2, c, 2, ldc, mr, nr, overwrite);
+                        scalar.microKernel(kc, a, 1, b, 2, expected, 2, ldc, mr, nr, overwrite);
+                        assertArrayEquals(expected, c, "kc " + kc + ", " + mr + "x" + nr + (overwrite ? ", overwrite" : ", accumulate"));
+                    }
+                }
+            }
+        }
+    }
+}
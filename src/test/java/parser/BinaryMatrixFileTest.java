@@ -0,0 +1,129 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import memory.SharedMatrix;
+import memory.VectorOrientation;
+
+class BinaryMatrixFileTest {
+
+    private static final double[][] MATRIX = {{1, -2.5, 3}, {4, 0, -0.0}};
+
+    @TempDir
+    Path directory;
+
+    private Path written(SharedMatrix matrix) throws IOException {
+        Path path = directory.resolve("m" + BinaryMatrixFile.EXTENSION);
+        BinaryMatrixFile.write(matrix, path);
+        return path;
+    }
+
+    private static void assertMatrixEquals(double[][] expected, double[][] actual) {
+        assertEquals(expected.length, actual.length, "rows");
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], "row " + i);
+        }
+    }
+
+    // Overwrites length bytes of the file at offset with value, little-endian
+    private static void patch(Path path, long offset, long value, int length) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(offset);
+            for (int i = 0; i < length; i++) {
+                file.write((int) (value >>> (8 * i)));
+            }
+        }
+    }
+
+    @Test
+    void rowMajorRoundTrip() throws IOException {
+        SharedMatrix matrix = new SharedMatrix(MATRIX);
+        SharedMatrix read = BinaryMatrixFile.read(written(matrix));
+        assertEquals(VectorOrientation.ROW_MAJOR, read.getOrientation());
+        assertTrue(read.contentEquals(matrix), "same elements bit for bit");
+        assertMatrixEquals(MATRIX, read.readRowMajor());
+    }
+
+    @Test
+    void columnMajorRoundTripKeepsTheOrientation() throws IOException {
+        SharedMatrix matrix = new SharedMatrix();
+        matrix.loadColumnMajor(MATRIX);
+        Path path = written(matrix);
+        assertEquals(32 + 6 * Double.BYTES, Files.size(path));
+        SharedMatrix read = BinaryMatrixFile.read(path);
+        assertEquals(VectorOrientation.COLUMN_MAJOR, read.getOrientation());
+        assertEquals(2, read.rows());
+        assertEquals(3, read.cols());
+        assertMatrixEquals(MATRIX, read.readRowMajor());
+    }
+
+    @Test
+    void emptyMatrixRoundTrip() throws IOException {
+        Path path = written(new SharedMatrix());
+        assertEquals(32, Files.size(path));
+        assertEquals(0, BinaryMatrixFile.read(path).length());
+    }
+
+    @Test
+    void invalidHeadersAreRejected() throws IOException {
+        long[][] patches = { // offset, value, length
+                {0, 0x4D45414D, 4}, // magic
+                {4, 2, 1}, // version
+                {5, 2, 1}, // element type
+                {6, 2, 1}, // orientation
+                {7, 1, 1}, // reserved byte
+                {24, 1, 8}, // reserved long
+                {8, -1, 8}, // negative rows
+                {16, 1L << 31, 8}, // too many columns
+        };
+        for (long[] patch : patches) {
+            Path path = written(new SharedMatrix(MATRIX));
+            patch(path, patch[0], patch[1], (int) patch[2]);
+            assertThrows(IOException.class, () -> BinaryMatrixFile.read(path), "header byte " + patch[0] + " set to " + patch[1]);
+        }
+    }
+
+    @Test
+    void truncatedFilesAreRejected() throws IOException {
+        Path path = written(new SharedMatrix(MATRIX));
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        IOException e = assertThrows(IOException.class, () -> BinaryMatrixFile.read(path));
+        assertTrue(e.getMessage().contains("truncated"), e.getMessage());
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(16);
+        }
+        assertThrows(IOException.class, () -> BinaryMatrixFile.read(path));
+    }
+
+    @Test
+    void inputFilesReferenceMatrixFilesRelativeToTheirDirectory() throws IOException, ParseException {
+        BinaryMatrixFile.write(new SharedMatrix(MATRIX), directory.resolve("left.lam"));
+        Path input = directory.resolve("input.json");
+        Files.writeString(input, "{\"operator\": \"-\", \"operands\": [{\"file\": \"left.lam\"}]}");
+        ComputationNode root = new InputParser().parse(input.toString());
+        assertEquals(ComputationNodeType.NEGATE, root.getNodeType());
+        assertMatrixEquals(MATRIX, root.getChildren().get(0).getMatrix());
+    }
+
+    @Test
+    void missingMatrixFilesFailTheParse() throws IOException {
+        Path input = directory.resolve("input.json");
+        Files.writeString(input, "{\"operator\": \"-\", \"operands\": [{\"file\": \"missing.lam\"}]}");
+        ParseException e = assertThrows(ParseException.class, () -> new InputParser().parse(input.toString()));
+        assertTrue(e.getMessage().contains("missing.lam"), e.getMessage());
+    }
+}
@@ -0,0 +1,92 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import memory.SparseMatrix;
+
+class CommonSubexpressionsTest {
+
+    private static ComputationNode leaf(double[][] matrix) {
+        double[][] copy = new double[matrix.length][];
+        for (int i = 0; i < matrix.length; i++) {
+            copy[i] = matrix[i].clone();
+        }
+        return new ComputationNode(copy);
+    }
+
+    private static ComputationNode node(ComputationNodeType type, ComputationNode... children) {
+        return new ComputationNode(type, new ArrayList<>(List.of(children)));
+    }
+
+    private static ComputationNode power(ComputationNode operand, int k) {
+        return new ComputationNode(ComputationNodeType.POW, new ArrayList<>(List.of(operand)), k);
+    }
+
+    private static ComputationNode eliminate(ComputationNode root) {
+        return new CommonSubexpressions().eliminate(root);
+    }
+
+    private static ComputationNode child(ComputationNode node, int index) {
+        return node.getChildren().get(index);
+    }
+
+    @Test
+    void equalLeavesAreMerged() {
+        double[][] a = {{1, 2}, {3, 4}};
+        ComputationNode root = node(ComputationNodeType.ADD, leaf(a), leaf(a));
+        assertSame(root, eliminate(root), "the root stays the same node");
+        assertSame(child(root, 0), child(root, 1));
+    }
+
+    @Test
+    void leavesDifferingInAnyBitAreKept() {
+        ComputationNode root = node(ComputationNodeType.ADD, leaf(new double[][]{{0, 1}}), leaf(new double[][]{{-0.0, 1}}));
+        eliminate(root);
+        assertNotSame(child(root, 0), child(root, 1), "0.0 and -0.0");
+
+        root = node(ComputationNodeType.ADD, leaf(new double[][]{{1, 2}}), leaf(new double[][]{{1}, {2}}));
+        eliminate(root);
+        assertNotSame(child(root, 0), child(root, 1), "same elements in another shape");
+
+        ComputationNode sparse = new ComputationNode(SparseMatrix.fromEntries(1, 2, new int[]{0, 0}, new int[]{0, 1}, new double[]{1, 2}, 2));
+        root = node(ComputationNodeType.ADD, leaf(new double[][]{{1, 2}}), sparse);
+        eliminate(root);
+        assertNotSame(child(root, 0), child(root, 1), "same elements in another storage");
+    }
+
+    @Test
+    void equalSubtreesAreMergedOnceTheirChildrenAre() {
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{5, 6}, {7, 8}};
+        ComputationNode first = node(ComputationNodeType.MULTIPLY, leaf(a), leaf(b));
+        ComputationNode second = node(ComputationNodeType.MULTIPLY, leaf(a), leaf(b));
+        ComputationNode root = node(ComputationNodeType.ADD, first, node(ComputationNodeType.NEGATE, second));
+        eliminate(root);
+        assertSame(first, child(child(root, 1), 0));
+    }
+
+    @Test
+    void operandOrderTypeAndPowerKeepSubtreesApart() {
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{5, 6}, {7, 8}};
+        ComputationNode root = node(ComputationNodeType.ADD,
+                node(ComputationNodeType.MULTIPLY, leaf(a), leaf(b)), node(ComputationNodeType.MULTIPLY, leaf(b), leaf(a)));
+        eliminate(root);
+        assertNotSame(child(root, 0), child(root, 1), "AB and BA");
+
+        root = node(ComputationNodeType.ADD, node(ComputationNodeType.NEGATE, leaf(a)), node(ComputationNodeType.TRANSPOSE, leaf(a)));
+        eliminate(root);
+        assertNotSame(child(root, 0), child(root, 1), "-A and T(A)");
+        assertSame(child(child(root, 0), 0), child(child(root, 1), 0), "both over the same A");
+
+        root = node(ComputationNodeType.ADD, power(leaf(a), 2), power(leaf(a), 3));
+        eliminate(root);
+        assertNotSame(child(root, 0), child(root, 1), "A^2 and A^3");
+    }
+}
@@ -0,0 +1,138 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import memory.BufferPool;
+
+class InputParserTest {
+
+    @TempDir
+    Path directory;
+
+    private ComputationNode parse(String json) throws IOException, ParseException {
+        Path input = directory.resolve("input.json");
+        Files.writeString(input, json);
+        return new InputParser().parse(input.toString());
+    }
+
+    private void assertRejected(String message, String json) throws IOException {
+        Path input = directory.resolve("input.json");
+        Files.writeString(input, json);
+        ParseException e = assertThrows(ParseException.class, () -> new InputParser().parse(input.toString()), json);
+        assertTrue(e.getMessage().contains(message), e.getMessage());
+    }
+
+    private static void assertMatrixEquals(double[][] expected, double[][] actual) {
+        assertEquals(expected.length, actual.length, "rows");
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], "row " + i);
+        }
+    }
+
+    private static double[][] random(Random random, int rows, int cols) {
+        double[][] values = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                values[i][j] = random.nextInt(2001) / 8.0 - 125;
+            }
+        }
+        return values;
+    }
+
+    private static String json(double[][] matrix) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < matrix.length; i++) {
+            json.append(i == 0 ? "[" : ",\n [");
+            for (int j = 0; j < matrix[i].length; j++) {
+                json.append(j == 0 ? "" : ", ").append(matrix[i][j]);
+            }
+            json.append(']');
+        }
+        return json.append(']').toString();
+    }
+
+    // Elements in the buffer the parsed dense matrix keeps
+    private static long bufferLength(ComputationNode node) {
+        BufferPool pool = new BufferPool(Long.MAX_VALUE);
+        pool.release(node.getSharedMatrix());
+        return pool.retainedBytes() / Double.BYTES;
+    }
+
+    @Test
+    void raggedRowsAreRejected() throws IOException {
+        assertRejected("Inconsistent row sizes", "[[1, 2], [3]]");
+        assertRejected("Inconsistent row sizes", "[[1, 2], [3, 4, 5]]");
+        assertRejected("Inconsistent row sizes", "{\"operator\": \"-\", \"operands\": [[[1], [2], []]]}");
+    }
+
+    @Test
+    void nonNumericElementsAreRejected() throws IOException {
+        assertRejected("Invalid matrix element", "[[1, \"2\"]]");
+        assertRejected("Invalid matrix element", "[[1, 2], [null, 4]]");
+        assertRejected("Invalid matrix element", "[[1, [2]]]");
+        assertRejected("Invalid matrix row", "[[1, 2], 3]");
+    }
+
+    @Test
+    void sparseOperandsAreReadFromTheirEntries() throws IOException, ParseException {
+        ComputationNode root = parse("{\"operator\": \"-\", \"operands\": [{\"rows\": 100, \"cols\": 80,"
+                + " \"entries\": [[0, 0, 1.5], [99, 79, -2], [3, 7, 1], [3, 7, 0.25]]}]}");
+        ComputationNode leaf = root.getChildren().get(0);
+        assertNotNull(leaf.getSparseMatrix(), "stored sparse");
+        assertEquals(3, leaf.getSparseMatrix().nonZeros(), "duplicates are summed");
+        double[][] expected = new double[100][80];
+        expected[0][0] = 1.5;
+        expected[99][79] = -2;
+        expected[3][7] = 1.25;
+        assertMatrixEquals(expected, leaf.getMatrix());
+
+        leaf = parse("{\"rows\": 2, \"cols\": 2, \"entries\": [[0, 0, 1], [1, 1, 2], [0, 1, 3]]}");
+        assertNull(leaf.getSparseMatrix(), "mostly non-zero, stored dense");
+        assertMatrixEquals(new double[][]{{1, 3}, {0, 2}}, leaf.getMatrix());
+    }
+
+    @Test
+    void invalidSparseOperandsAreRejected() throws IOException {
+        assertRejected("Invalid sparse matrix", "{\"rows\": 2, \"cols\": 2, \"entries\": [[2, 0, 1]]}");
+        assertRejected("Invalid sparse matrix", "{\"rows\": 0, \"cols\": 2, \"entries\": []}");
+        assertRejected("Invalid sparse matrix", "{\"cols\": 2, \"entries\": [[0, 0, 1]]}");
+        assertRejected("Invalid sparse entry", "{\"rows\": 2, \"cols\": 2, \"entries\": [[0, 0]]}");
+        assertRejected("Invalid sparse entry", "{\"rows\": 2, \"cols\": 2, \"entries\": [[0, 0.5, 1]]}");
+        assertRejected("Invalid sparse entry", "{\"rows\": 2, \"cols\": 2, \"entries\": [[0, 0, \"1\"]]}");
+    }
+
+    @Test
+    void largeMatricesKeepLittleUnusedBuffer() throws IOException, ParseException {
+        Random random = new Random(1);
+        double[][] matrix = random(random, 300, 300);
+        ComputationNode leaf = parse(json(matrix));
+        assertMatrixEquals(matrix, leaf.getMatrix());
+        long length = bufferLength(leaf);
+        assertTrue(length >= 300 * 300 && length <= 300 * 300 * 9 / 8, length + " elements");
+
+        // the first operand's estimate also counts the second's rows, so it is trimmed
+        double[][] left = random(random, 200, 250);
+        double[][] right = random(random, 250, 200);
+        ComputationNode root = parse("{\"operator\": \"*\", \"operands\": [" + json(left) + ", " + json(right) + "]}");
+        assertMatrixEquals(left, root.getChildren().get(0).getMatrix());
+        assertMatrixEquals(right, root.getChildren().get(1).getMatrix());
+        for (ComputationNode operand : root.getChildren()) {
+            length = bufferLength(operand);
+            assertTrue(length >= 200 * 250 && length <= 200 * 250 * 9 / 8, length + " elements");
+        }
+    }
+}
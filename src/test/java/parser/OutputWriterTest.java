@@ -0,0 +1,107 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import memory.SharedMatrix;
+
+/**
+ * Checks that the streaming writer produces the documents the former ObjectMapper-based writer did, compared as
+ * parsed JSON (the double formatting may differ in text), pretty printed, compact and gzip compressed.
+ */
+@SuppressWarnings("deprecation")
+class OutputWriterTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final double[][] MATRIX = {{1, -2.5, 0.1}, {-0.0, 1e-300, 123456789.125}, {Double.MIN_VALUE, 1.0 / 3, -7}};
+    private static final String ERROR = "ERROR: [createAddTasks]: Matrix lengths don't match \"quoted\"\n";
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void clearCompact() {
+        System.clearProperty(OutputWriter.COMPACT_PROPERTY);
+    }
+
+    // What the former writer wrote for the value
+    private static JsonNode pretty(Object value) throws IOException {
+        return mapper.readTree(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(value));
+    }
+
+    private static String read(Path path) throws IOException {
+        if (!path.toString().endsWith(".gz")) {
+            return Files.readString(path);
+        }
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // Writes the result both from a double[][] and from a SharedMatrix, and the error, to files of the given suffix
+    private void assertSameDocuments(String suffix, boolean compact) throws IOException {
+        Path fromArray = directory.resolve("array.json" + suffix);
+        Path fromMatrix = directory.resolve("matrix.json" + suffix);
+        Path error = directory.resolve("error.json" + suffix);
+        OutputWriter.write(MATRIX, fromArray.toString());
+        SharedMatrix columns = new SharedMatrix();
+        columns.loadColumnMajor(MATRIX);
+        OutputWriter.write(columns, fromMatrix.toString());
+        OutputWriter.write(ERROR, error.toString());
+        JsonNode expected = pretty(new OutputWriter.ResultMatrix(MATRIX));
+        for (Path path : new Path[]{fromArray, fromMatrix, error}) {
+            String text = read(path);
+            assertEquals(path == error ? pretty(new OutputWriter.ErrorMessage(ERROR)) : expected, mapper.readTree(text), path.toString());
+            assertEquals(compact, !text.contains("\n  "), path + (compact ? " is compact" : " is pretty printed"));
+        }
+    }
+
+    @Test
+    void prettyOutputMatchesTheFormerWriter() throws IOException {
+        assertSameDocuments("", false);
+    }
+
+    @Test
+    void compactOutputMatchesTheFormerWriter() throws IOException {
+        System.setProperty(OutputWriter.COMPACT_PROPERTY, "true");
+        assertSameDocuments("", true);
+        assertFalse(read(directory.resolve("array.json")).contains(" "), "no whitespace");
+    }
+
+    @Test
+    void gzipOutputMatchesTheFormerWriter() throws IOException {
+        assertSameDocuments(".gz", false);
+        System.setProperty(OutputWriter.COMPACT_PROPERTY, "true");
+        assertSameDocuments(".gz", true);
+        byte[] header = Files.readAllBytes(directory.resolve("array.json.gz"));
+        assertTrue((header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b, "gzip magic");
+    }
+
+    @Test
+    void doublesReadBackExactly() throws IOException {
+        Path path = directory.resolve("array.json");
+        OutputWriter.write(MATRIX, path.toString());
+        JsonNode result = mapper.readTree(path.toFile()).get("result");
+        for (int i = 0; i < MATRIX.length; i++) {
+            for (int j = 0; j < MATRIX[i].length; j++) {
+                assertEquals(Double.doubleToRawLongBits(MATRIX[i][j]), Double.doubleToRawLongBits(result.get(i).get(j).doubleValue()),
+                        "element " + i + ", " + j);
+            }
+        }
+    }
+}
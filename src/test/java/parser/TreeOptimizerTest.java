@@ -0,0 +1,160 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import memory.SparseMatrix;
+
+class TreeOptimizerTest {
+
+    private static ComputationNode leaf(int rows, int cols) {
+        return new ComputationNode(new double[rows][cols]);
+    }
+
+    // An empty sparse leaf, so shapes too large for a dense buffer cost only their row pointers
+    private static ComputationNode sparseLeaf(int rows, int cols) {
+        return new ComputationNode(SparseMatrix.fromEntries(rows, cols, new int[0], new int[0], new double[0], 0));
+    }
+
+    private static ComputationNode node(ComputationNodeType type, ComputationNode... children) {
+        return new ComputationNode(type, new ArrayList<>(List.of(children)));
+    }
+
+    private static ComputationNode optimize(ComputationNode root) {
+        return new TreeOptimizer().optimize(root);
+    }
+
+    // Asserts that node is an operation of the given type over exactly the given children, compared by identity
+    private static void assertNode(ComputationNodeType type, ComputationNode node, ComputationNode... children) {
+        assertEquals(type, node.getNodeType());
+        assertEquals(children.length, node.getChildren().size(), "operands of " + type);
+        for (int i = 0; i < children.length; i++) {
+            assertSame(children[i], node.getChildren().get(i), "operand " + i + " of " + type);
+        }
+    }
+
+    @Test
+    void doubleTransposeAndDoubleNegationCancel() {
+        ComputationNode a = leaf(2, 3);
+        assertSame(a, optimize(node(ComputationNodeType.TRANSPOSE, node(ComputationNodeType.TRANSPOSE, a))));
+        assertSame(a, optimize(node(ComputationNodeType.NEGATE, node(ComputationNodeType.NEGATE, a))));
+    }
+
+    @Test
+    void transposeOfAProductMovesOntoItsOperands() {
+        ComputationNode a = leaf(2, 3);
+        ComputationNode b = leaf(3, 4);
+        ComputationNode root = optimize(node(ComputationNodeType.TRANSPOSE, node(ComputationNodeType.MULTIPLY, a, b)));
+        assertEquals(ComputationNodeType.MULTIPLY, root.getNodeType());
+        assertNode(ComputationNodeType.TRANSPOSE, root.getChildren().get(0), b);
+        assertNode(ComputationNodeType.TRANSPOSE, root.getChildren().get(1), a);
+    }
+
+    @Test
+    void negatedOperandsOfASumBecomeSubtractions() {
+        ComputationNode a = leaf(2, 2);
+        ComputationNode b = leaf(2, 2);
+        assertNode(ComputationNodeType.SUBTRACT, optimize(node(ComputationNodeType.ADD, a, node(ComputationNodeType.NEGATE, b))), a, b);
+    }
+
+    @Test
+    void sumsAddPositiveOperandsBeforeSubtracting() {
+        // (-A) + B + (-C) is evaluated as (B - A) - C, a different rounding order than as written
+        ComputationNode a = leaf(2, 2);
+        ComputationNode b = leaf(2, 2);
+        ComputationNode c = leaf(2, 2);
+        ComputationNode root = optimize(node(ComputationNodeType.ADD,
+                node(ComputationNodeType.NEGATE, a), b, node(ComputationNodeType.NEGATE, c)));
+        assertEquals(ComputationNodeType.SUBTRACT, root.getNodeType());
+        assertSame(c, root.getChildren().get(1));
+        assertNode(ComputationNodeType.SUBTRACT, root.getChildren().get(0), b, a);
+    }
+
+    @Test
+    void allNegatedSumIsNegatedOnce() {
+        ComputationNode a = leaf(2, 2);
+        ComputationNode b = leaf(2, 2);
+        ComputationNode root = optimize(node(ComputationNodeType.ADD,
+                node(ComputationNodeType.NEGATE, a), node(ComputationNodeType.NEGATE, b)));
+        assertEquals(ComputationNodeType.NEGATE, root.getNodeType());
+        assertNode(ComputationNodeType.ADD, root.getChildren().get(0), a, b);
+    }
+
+    @Test
+    void chainOrderFollowsTheDynamicProgram() {
+        // dims 40, 20, 30, 10, 30: the cheapest order is (A(BC))D, 26000 multiply-adds
+        ComputationNode a = leaf(40, 20);
+        ComputationNode b = leaf(20, 30);
+        ComputationNode c = leaf(30, 10);
+        ComputationNode d = leaf(10, 30);
+        ComputationNode root = optimize(node(ComputationNodeType.MULTIPLY, a, b, c, d));
+        assertEquals(ComputationNodeType.MULTIPLY, root.getNodeType());
+        assertSame(d, root.getChildren().get(1));
+        ComputationNode left = root.getChildren().get(0);
+        assertEquals(ComputationNodeType.MULTIPLY, left.getNodeType());
+        assertSame(a, left.getChildren().get(0));
+        assertNode(ComputationNodeType.MULTIPLY, left.getChildren().get(1), b, c);
+    }
+
+    @Test
+    void nestedProductsJoinTheChain() {
+        // A(BC) as written, with A 10x100, B 100x5, C 5x50: (AB)C costs 7500 multiply-adds against 75000
+        ComputationNode a = leaf(10, 100);
+        ComputationNode b = leaf(100, 5);
+        ComputationNode c = leaf(5, 50);
+        ComputationNode root = optimize(node(ComputationNodeType.MULTIPLY, a, node(ComputationNodeType.MULTIPLY, b, c)));
+        assertEquals(ComputationNodeType.MULTIPLY, root.getNodeType());
+        assertNode(ComputationNodeType.MULTIPLY, root.getChildren().get(0), a, b);
+        assertSame(c, root.getChildren().get(1));
+    }
+
+    @Test
+    void uniformChainsAreBalanced() {
+        ComputationNode[] chain = {leaf(3, 3), leaf(3, 3), leaf(3, 3), leaf(3, 3)};
+        ComputationNode root = optimize(node(ComputationNodeType.MULTIPLY, chain));
+        assertNode(ComputationNodeType.MULTIPLY, root.getChildren().get(0), chain[0], chain[1]);
+        assertNode(ComputationNodeType.MULTIPLY, root.getChildren().get(1), chain[2], chain[3]);
+    }
+
+    @Test
+    void overflowingCostsSaturateInsteadOfWinning() {
+        // (AB)C costs 2^63 + 2^42, which wraps negative unless it saturates; A(BC) costs 2^43
+        int n = 1 << 21;
+        ComputationNode a = sparseLeaf(n, n);
+        ComputationNode b = sparseLeaf(n, n);
+        ComputationNode c = sparseLeaf(n, 1);
+        ComputationNode root = optimize(node(ComputationNodeType.MULTIPLY, a, b, c));
+        assertEquals(ComputationNodeType.MULTIPLY, root.getNodeType());
+        assertSame(a, root.getChildren().get(0));
+        assertNode(ComputationNodeType.MULTIPLY, root.getChildren().get(1), b, c);
+    }
+
+    @Test
+    void chainWhoseEverySplitSaturatesKeepsItsOperands() {
+        int n = 1 << 22;
+        ComputationNode a = sparseLeaf(n, n);
+        ComputationNode b = sparseLeaf(n, n);
+        ComputationNode c = sparseLeaf(n, n / 2);
+        ComputationNode root = optimize(node(ComputationNodeType.MULTIPLY, a, b, c));
+        assertSame(a, root.getChildren().get(0));
+        assertNode(ComputationNodeType.MULTIPLY, root.getChildren().get(1), b, c);
+    }
+
+    @Test
+    void mismatchedShapesAreKeptAsWritten() {
+        ComputationNode a = leaf(2, 3);
+        ComputationNode b = leaf(2, 3);
+        ComputationNode c = leaf(3, 3);
+        assertNode(ComputationNodeType.MULTIPLY, optimize(node(ComputationNodeType.MULTIPLY, a, b, c)), a, b, c);
+        ComputationNode d = leaf(3, 2);
+        ComputationNode root = optimize(node(ComputationNodeType.ADD, a, node(ComputationNodeType.NEGATE, d)));
+        assertEquals(ComputationNodeType.ADD, root.getNodeType());
+        assertSame(a, root.getChildren().get(0));
+        assertNode(ComputationNodeType.NEGATE, root.getChildren().get(1), d);
+    }
+}
@@ -0,0 +1,217 @@
+package scheduling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Dispatch correctness of TiredExecutor from 1 to 64 workers. Only throughputScalesCoarsely depends on timing, with
+ * margins wide enough for shared machines; precise throughput is measured by benchmarks/ExecutorBenchmark.
+ */
+class TiredExecutorTest {
+
+    private static final int[] WORKERS = {1, 2, 4, 8, 16, 32, 64};
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final AtomicLong sink = new AtomicLong();
+
+    // Burns CPU in a dependent chain the JIT cannot shortcut
+    private static void burn(long iterations) {
+        long x = iterations;
+        for (long i = 0; i < iterations; i++) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+        }
+        sink.addAndGet(x);
+    }
+
+    // Best tasks per second of submitAll over a few batches of CPU-bound tasks, after a warm-up batch
+    private static double throughput(int numWorkers) throws InterruptedException {
+        TiredExecutor executor = new TiredExecutor(numWorkers);
+        try {
+            List<Runnable> tasks = new ArrayList<>();
+            for (int i = 0; i < 512; i++) {
+                tasks.add(() -> burn(20_000));
+            }
+            executor.submitAll(tasks);
+            double best = 0;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                executor.submitAll(tasks);
+                best = Math.max(best, tasks.size() / ((System.nanoTime() - start) / 1e9));
+            }
+            return best;
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void everyTaskRunsExactlyOnce() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (int numWorkers : WORKERS) {
+                TiredExecutor executor = new TiredExecutor(numWorkers);
+                try {
+                    for (int size : new int[]{0, 1, numWorkers, 1000}) {
+                        AtomicIntegerArray runs = new AtomicIntegerArray(size);
+                        List<Runnable> tasks = new ArrayList<>(size);
+                        for (int i = 0; i < size; i++) {
+                            int index = i;
+                            tasks.add(() -> runs.incrementAndGet(index));
+                        }
+                        executor.submitAll(tasks);
+                        for (int i = 0; i < size; i++) {
+                            assertEquals(1, runs.get(i), "task " + i + " of " + size + " on " + numWorkers + " workers");
+                        }
+                    }
+                }
+                finally {
+                    executor.shutdown();
+                }
+            }
+        });
+    }
+
+    @Test
+    void concurrentSubmittersAllFinish() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            int submitters = 16;
+            int batches = 50;
+            int batchSize = 64;
+            TiredExecutor executor = new TiredExecutor(64);
+            try {
+                AtomicInteger completed = new AtomicInteger();
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                List<Thread> threads = new ArrayList<>();
+                for (int s = 0; s < submitters; s++) {
+                    threads.add(Thread.ofPlatform().start(() -> {
+                        try {
+                            for (int b = 0; b < batches; b++) {
+                                AtomicInteger batchRuns = new AtomicInteger();
+                                List<Runnable> tasks = new ArrayList<>(batchSize);
+                                for (int i = 0; i < batchSize; i++) {
+                                    tasks.add(batchRuns::incrementAndGet);
+                                }
+                                executor.submitAll(tasks);
+                                // submitAll returns only once its own batch is done
+                                assertEquals(batchSize, batchRuns.get(), "tasks run when submitAll returned");
+                                completed.addAndGet(batchSize);
+                            }
+                        }
+                        catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        }
+                    }));
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                if (failure.get() != null) {
+                    throw failure.get();
+                }
+                assertEquals(submitters * batches * batchSize, completed.get());
+            }
+            finally {
+                executor.shutdown();
+            }
+        });
+    }
+
+    @Test
+    void workerSurvivesAFailingSubmittedTask() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            RuntimeException boom = new RuntimeException("boom");
+            AtomicReference<Throwable> reported = new AtomicReference<>();
+            CountDownLatch failed = new CountDownLatch(1);
+            Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+            Thread.setDefaultUncaughtExceptionHandler((thread, t) -> {
+                reported.set(t);
+                failed.countDown();
+            });
+            TiredExecutor executor = new TiredExecutor(1);
+            try {
+                executor.submit(() -> {
+                    throw boom;
+                });
+                failed.await();
+                assertSame(boom, reported.get());
+                AtomicInteger runs = new AtomicInteger();
+                executor.submitAll(List.of(runs::incrementAndGet, runs::incrementAndGet));
+                assertEquals(2, runs.get(), "tasks run by the worker after the failure");
+            }
+            finally {
+                executor.shutdown();
+                Thread.setDefaultUncaughtExceptionHandler(previous);
+            }
+        });
+    }
+
+    @Test
+    void workerSurvivesATaskThatRestoresItsInterrupt() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            TiredExecutor executor = new TiredExecutor(1);
+            try {
+                executor.submitAll(List.of(() -> Thread.currentThread().interrupt()));
+                // the worker is back in the idle heap once, so every task is handed to it only when it is free
+                AtomicInteger runs = new AtomicInteger();
+                List<Runnable> tasks = new ArrayList<>();
+                for (int i = 0; i < 1000; i++) {
+                    tasks.add(runs::incrementAndGet);
+                }
+                executor.submitAll(tasks);
+                assertEquals(1000, runs.get(), "tasks run by the worker after the interrupt");
+            }
+            finally {
+                executor.shutdown();
+            }
+        });
+    }
+
+    @Test
+    void interruptedSubmitAllThrows() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            TiredExecutor executor = new TiredExecutor(2);
+            try {
+                AtomicInteger runs = new AtomicInteger();
+                Thread.currentThread().interrupt();
+                assertThrows(IllegalStateException.class, () -> executor.submitAll(List.of(runs::incrementAndGet)));
+                assertTrue(Thread.interrupted(), "interrupt flag kept set");
+            }
+            finally {
+                executor.shutdown();
+            }
+        });
+    }
+
+    @Test
+    void throughputScalesCoarsely() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            int processors = Runtime.getRuntime().availableProcessors();
+            double single = throughput(1);
+            for (int numWorkers : WORKERS) {
+                double result = numWorkers == 1 ? single : throughput(numWorkers);
+                // more workers than processors must not collapse dispatch
+                assertTrue(result >= single * 0.25, numWorkers + " workers: " + result / single + "x of one worker");
+                // and up to four processors, the workers must actually run in parallel
+                if (numWorkers == Math.min(processors, 4) && numWorkers > 1) {
+                    assertTrue(result >= single * 0.5 * numWorkers, numWorkers + " workers on " + processors
+                            + " processors: " + result / single + "x of one worker");
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,59 @@
+package spl.lae;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class BatchRunnerTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+    @TempDir
+    Path directory;
+
+    private static JsonNode read(Path path) throws IOException {
+        return new ObjectMapper().readTree(path.toFile());
+    }
+
+    // A sum of count 1x1 operands, which the engine nests into a left-deep chain count levels deep
+    private static String deepSum(int count) {
+        StringBuilder json = new StringBuilder("{\"operator\": \"+\", \"operands\": [");
+        for (int i = 0; i < count; i++) {
+            json.append(i == 0 ? "[[1]]" : ", [[1]]");
+        }
+        return json.append("]}").toString();
+    }
+
+    @Test
+    void aFailingJobOnlyFailsItself() throws IOException {
+        Path in = Files.createDirectory(directory.resolve("in"));
+        Path out = directory.resolve("out");
+        Files.writeString(in.resolve("a.json"), "{\"operator\": \"+\", \"operands\": [[[1, 2]], [[3, 4]]]}");
+        Files.writeString(in.resolve("b.json"), deepSum(1_000_000)); // overflows the stack while the tree is prepared
+        Files.writeString(in.resolve("c.json"), "{\"operator\": \"-\", \"operands\": [[[5]]]}");
+        Files.writeString(in.resolve("d.json"), "{\"operator\": \"*\", \"operands\": [[[1, 2]], [[3, 4]]]}");
+        List<BatchRunner.Job> jobs = BatchRunner.directoryJobs(in, out);
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (BatchRunner runner = new BatchRunner(2)) {
+                assertEquals(2, runner.run(jobs), "failed jobs");
+            }
+        });
+        assertEquals("[[4.0,6.0]]", read(out.resolve("a.json")).get("result").toString());
+        JsonNode error = read(out.resolve("b.json")).get("error");
+        assertTrue(error.asText().contains("StackOverflowError"), error.asText());
+        assertEquals("[[-5.0]]", read(out.resolve("c.json")).get("result").toString());
+        assertTrue(read(out.resolve("d.json")).get("error").asText().startsWith("ERROR: "), "mismatched product");
+    }
+}
@@ -0,0 +1,162 @@
+package spl.lae;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import memory.SparseMatrix;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+class ExecutionPlanTest {
+
+    private static ComputationNode leaf(int rows, int cols) {
+        return new ComputationNode(new double[rows][cols]);
+    }
+
+    // A sparse leaf with its non-zeros on the first diagonal positions
+    private static ComputationNode sparseLeaf(int n, int nonZeros) {
+        int[] indices = new int[nonZeros];
+        double[] values = new double[nonZeros];
+        for (int i = 0; i < nonZeros; i++) {
+            indices[i] = i;
+            values[i] = 1;
+        }
+        return new ComputationNode(SparseMatrix.fromEntries(n, n, indices, indices, values, nonZeros));
+    }
+
+    private static ComputationNode node(ComputationNodeType type, ComputationNode... children) {
+        return new ComputationNode(type, new ArrayList<>(List.of(children)));
+    }
+
+    private static ExecutionPlan plan(ComputationNode root) {
+        return ExecutionPlan.of(root, false);
+    }
+
+    private static void assertRejected(String message, ComputationNode root) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> plan(root));
+        assertEquals(message, e.getMessage());
+    }
+
+    @Test
+    void mismatchedShapesAreRejectedWithTheEnginesErrors() {
+        assertRejected("[createAddTasks]: Matrix lengths don't match", node(ComputationNodeType.ADD, leaf(2, 3), leaf(3, 2)));
+        assertRejected("[createSubtractTasks]: Matrix lengths don't match", node(ComputationNodeType.SUBTRACT, leaf(2, 3), leaf(2, 2)));
+        assertRejected("[createMultiplyTasks]: Left matrix columns don't match right matrix rows",
+                node(ComputationNodeType.MULTIPLY, leaf(2, 3), leaf(2, 3)));
+        assertRejected("[computePower]: Only square matrices can be raised to a power",
+                new ComputationNode(ComputationNodeType.POW, new ArrayList<>(List.of(leaf(2, 3))), 2));
+        // deep in the tree, below operations that would fit
+        assertRejected("[createMultiplyTasks]: Left matrix columns don't match right matrix rows",
+                node(ComputationNodeType.NEGATE, node(ComputationNodeType.TRANSPOSE, node(ComputationNodeType.MULTIPLY, leaf(4, 4), leaf(3, 4)))));
+    }
+
+    @Test
+    void denseChainReusesDeadBuffers() {
+        // (A + B) C over 4x4 matrices of 128 bytes: the sum works in place on A, and the product takes B's buffer
+        ExecutionPlan plan = plan(node(ComputationNodeType.MULTIPLY, node(ComputationNodeType.ADD, leaf(4, 4), leaf(4, 4)), leaf(4, 4)));
+        List<ExecutionPlan.Step> steps = plan.steps();
+        assertEquals(List.of("MATRIX", "MATRIX", "ADD", "MATRIX", "MULTIPLY"), steps.stream().map(ExecutionPlan.Step::operation).toList());
+        ExecutionPlan.Step sum = steps.get(2);
+        assertTrue(sum.inPlace());
+        assertEquals(steps.get(0).buffer(), sum.buffer());
+        ExecutionPlan.Step product = steps.get(4);
+        assertFalse(product.inPlace());
+        assertEquals(steps.get(1).buffer(), product.buffer());
+        assertEquals(List.of(2, 3), product.operands());
+        assertEquals(16 + 2 * 4 * 4 * 4, plan.flops());
+        assertEquals(3 * 128, plan.inputBytes());
+        assertEquals(3 * 128, plan.peakBytes(), "B is dead once the sum is done");
+        assertEquals(0, plan.newBuffers());
+    }
+
+    @Test
+    void sharedOperandsAreNotModifiedInPlace() {
+        // A + (-A) with A shared: the negation needs a buffer of its own, the sum then works on A, its last consumer
+        ComputationNode a = leaf(8, 8);
+        ExecutionPlan plan = plan(node(ComputationNodeType.ADD, a, node(ComputationNodeType.NEGATE, a)));
+        ExecutionPlan.Step negate = plan.steps().get(1);
+        ExecutionPlan.Step sum = plan.steps().get(2);
+        assertEquals("NEGATE", negate.operation());
+        assertFalse(negate.inPlace());
+        assertTrue(sum.inPlace());
+        assertEquals(2 * 512, plan.peakBytes());
+        assertEquals(1, plan.newBuffers());
+    }
+
+    @Test
+    void sparseOperationsAreSizedFromTheirNonZeros() {
+        int n = 100;
+        ExecutionPlan plan = plan(node(ComputationNodeType.MULTIPLY,
+                node(ComputationNodeType.ADD, sparseLeaf(n, 50), sparseLeaf(n, 40)), sparseLeaf(n, 30)));
+        ExecutionPlan.Step sum = plan.steps().get(2);
+        assertTrue(sum.sparse());
+        assertEquals(-1, sum.buffer());
+        assertEquals(90L * (Double.BYTES + Integer.BYTES) + (n + 1L) * Integer.BYTES, sum.bytes(), "at most 90 non-zeros");
+        assertTrue(plan.steps().get(4).sparse(), "the product stays sparse");
+
+        plan = plan(node(ComputationNodeType.MULTIPLY, sparseLeaf(n, 50), leaf(n, n)));
+        ExecutionPlan.Step product = plan.steps().get(2);
+        assertFalse(product.sparse(), "a product with a dense operand is dense");
+        assertEquals((long) n * n * Double.BYTES, product.bytes());
+    }
+
+    @Test
+    void gramProductsAreComputedFromTheirBase() {
+        ComputationNode a = leaf(6, 10);
+        ComputationNode root = node(ComputationNodeType.MULTIPLY, a, node(ComputationNodeType.TRANSPOSE, a));
+        ExecutionPlan plan = plan(root);
+        ExecutionPlan.Step gram = plan.steps().getLast();
+        assertEquals("MULTIPLY-gram", gram.operation());
+        assertEquals(List.of(0), gram.operands(), "T(A) is not evaluated");
+        assertEquals(6, gram.rows());
+        assertEquals(6, gram.cols());
+        assertEquals(6 * 6 * 10, gram.flops());
+    }
+
+    @Test
+    void jobsOverTheMemoryBoundAreRejectedBeforeRunning() {
+        // two 300x300 operands take about 1.4 MB before anything is computed
+        ComputationNode root = node(ComputationNodeType.ADD, leaf(300, 300), leaf(300, 300));
+        System.setProperty(LinearAlgebraEngine.MAX_PEAK_PROPERTY, "1");
+        LinearAlgebraEngine engine;
+        try {
+            engine = new LinearAlgebraEngine(2);
+        } finally {
+            System.clearProperty(LinearAlgebraEngine.MAX_PEAK_PROPERTY);
+        }
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> engine.run(root));
+        assertTrue(e.getMessage().contains("over the limit of 1 MB"), e.getMessage());
+        assertEquals(ComputationNodeType.ADD, root.getNodeType(), "nothing was evaluated");
+    }
+
+    @Test
+    void planIsWrittenAsJson() throws IOException {
+        ExecutionPlan plan = plan(node(ComputationNodeType.TRANSPOSE, leaf(2, 3)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        plan.writeJson(out);
+        JsonNode json = new ObjectMapper().readTree(out.toByteArray());
+        assertTrue(json.get("valid").asBoolean());
+        assertEquals(3, json.get("rows").asInt());
+        assertEquals(2, json.get("cols").asInt());
+        assertEquals(2, json.get("steps").size());
+        assertTrue(json.get("steps").get(1).get("inPlace").asBoolean());
+
+        out.reset();
+        ExecutionPlan.writeInvalid("[createAddTasks]: Matrix lengths don't match", out);
+        json = new ObjectMapper().readTree(out.toByteArray());
+        assertFalse(json.get("valid").asBoolean());
+        assertEquals("[createAddTasks]: Matrix lengths don't match", json.get("error").asText());
+    }
+}
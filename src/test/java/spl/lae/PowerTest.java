@@ -0,0 +1,207 @@
+package spl.lae;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import memory.SparseMatrix;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+import parser.InputParser;
+import parser.TreeOptimizer;
+
+/**
+ * Checks the "^" operator against repeated multiplication. Elements are small integers, so every power is exact.
+ */
+class PowerTest {
+
+    @TempDir
+    Path directory;
+
+    private static double[][] random(Random random, int rows, int cols) {
+        double[][] values = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                values[i][j] = random.nextInt(3) - 1;
+            }
+        }
+        return values;
+    }
+
+    private static double[][] multiply(double[][] a, double[][] b) {
+        double[][] c = new double[a.length][b[0].length];
+        for (int i = 0; i < a.length; i++) {
+            for (int k = 0; k < b.length; k++) {
+                for (int j = 0; j < b[0].length; j++) {
+                    c[i][j] += a[i][k] * b[k][j];
+                }
+            }
+        }
+        return c;
+    }
+
+    // a multiplied k times onto the identity
+    private static double[][] repeated(double[][] a, int k) {
+        double[][] result = new double[a.length][a.length];
+        for (int i = 0; i < a.length; i++) {
+            result[i][i] = 1;
+        }
+        for (int i = 0; i < k; i++) {
+            result = multiply(result, a);
+        }
+        return result;
+    }
+
+    private static double[][] add(double[][] a, double[][] b) {
+        double[][] c = new double[a.length][a[0].length];
+        for (int i = 0; i < a.length; i++) {
+            for (int j = 0; j < a[0].length; j++) {
+                c[i][j] = a[i][j] + b[i][j];
+            }
+        }
+        return c;
+    }
+
+    private static double[][] negate(double[][] a) {
+        double[][] c = new double[a.length][a[0].length];
+        for (int i = 0; i < a.length; i++) {
+            for (int j = 0; j < a[0].length; j++) {
+                c[i][j] = -a[i][j];
+            }
+        }
+        return c;
+    }
+
+    private static ComputationNode leaf(double[][] matrix) {
+        double[][] copy = new double[matrix.length][];
+        for (int i = 0; i < matrix.length; i++) {
+            copy[i] = matrix[i].clone();
+        }
+        return new ComputationNode(copy);
+    }
+
+    private static ComputationNode power(ComputationNode operand, int k) {
+        return new ComputationNode(ComputationNodeType.POW, new ArrayList<>(List.of(operand)), k);
+    }
+
+    private static ComputationNode node(ComputationNodeType type, ComputationNode... children) {
+        return new ComputationNode(type, new ArrayList<>(List.of(children)));
+    }
+
+    private static double[][] run(ComputationNode root) {
+        return new LinearAlgebraEngine(4).run(root).getMatrix();
+    }
+
+    private static void assertMatrixEquals(double[][] expected, double[][] actual, String message) {
+        assertEquals(expected.length, actual.length, message + ": rows");
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], message + ": row " + i);
+        }
+    }
+
+    @Test
+    void powersMatchRepeatedMultiplication() {
+        double[][] a = random(new Random(25), 6, 6);
+        for (int k : new int[]{0, 1, 2, 3, 4, 7, 8, 15, 16, 31, 32}) {
+            assertMatrixEquals(repeated(a, k), run(power(leaf(a), k)), "A^" + k);
+        }
+    }
+
+    @Test
+    void sharedOperandIsCopiedBeforeItIsModified() {
+        double[][] a = random(new Random(7), 5, 5);
+        double[][] minusA = negate(a);
+        // -A feeds both the power and the sum: A^1 must not hand its buffer to the negation, nor A^3 overwrite it
+        ComputationNode shared = node(ComputationNodeType.NEGATE, leaf(a));
+        ComputationNode root = node(ComputationNodeType.ADD, node(ComputationNodeType.NEGATE, power(shared, 1)), shared);
+        assertMatrixEquals(new double[5][5], run(root), "-((-A)^1) + (-A)");
+        shared = node(ComputationNodeType.NEGATE, leaf(a));
+        root = node(ComputationNodeType.ADD, power(shared, 3), shared);
+        assertMatrixEquals(add(repeated(minusA, 3), minusA), run(root), "(-A)^3 + (-A)");
+    }
+
+    @Test
+    void sparseBaseMatchesTheDensePower() {
+        int n = 64;
+        Random random = new Random(11);
+        int count = 3 * n;
+        int[] rows = new int[count];
+        int[] cols = new int[count];
+        double[] values = new double[count];
+        double[][] dense = new double[n][n];
+        for (int i = 0; i < count; i++) {
+            rows[i] = random.nextInt(n);
+            cols[i] = random.nextInt(n);
+            values[i] = random.nextInt(3) - 1;
+            dense[rows[i]][cols[i]] += values[i];
+        }
+        for (int k : new int[]{0, 1, 2, 5, 8}) {
+            SparseMatrix sparse = SparseMatrix.fromEntries(n, n, rows, cols, values, count);
+            assertMatrixEquals(repeated(dense, k), run(power(new ComputationNode(sparse), k)), "sparse A^" + k);
+        }
+    }
+
+    @Test
+    void nonSquareOperandsAreRejected() {
+        ComputationNode root = new TreeOptimizer().optimize(power(leaf(new double[2][3]), 2));
+        assertEquals(ComputationNodeType.POW, root.getNodeType(), "kept as written by the optimizer");
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> run(root));
+        assertTrue(e.getMessage().contains("square"), e.getMessage());
+    }
+
+    @Test
+    void nestedPowersAreFolded() {
+        double[][] a = random(new Random(3), 4, 4);
+        ComputationNode base = leaf(a);
+        ComputationNode folded = new TreeOptimizer().optimize(power(power(base, 2), 3));
+        assertEquals(ComputationNodeType.POW, folded.getNodeType());
+        assertEquals(6, folded.getPower());
+        assertSame(base, folded.getChildren().get(0));
+        assertMatrixEquals(repeated(a, 6), run(folded), "(A^2)^3");
+
+        folded = new TreeOptimizer().optimize(power(power(leaf(a), 3), 0));
+        assertEquals(0, folded.getPower());
+        assertMatrixEquals(repeated(a, 0), run(folded), "(A^3)^0");
+
+        assertSame(base, new TreeOptimizer().optimize(power(base, 1)), "A^1 is A");
+    }
+
+    @Test
+    void nestedPowersOverflowingAnIntStayNested() {
+        ComputationNode optimized = new TreeOptimizer().optimize(power(power(leaf(new double[2][2]), 1 << 16), 1 << 16));
+        assertEquals(1 << 16, optimized.getPower());
+        assertEquals(1 << 16, optimized.getChildren().get(0).getPower());
+    }
+
+    @Test
+    void parserReadsThePower() throws IOException, ParseException {
+        Path input = directory.resolve("input.json");
+        Files.writeString(input, "{\"operator\": \"^\", \"power\": 5, \"operands\": [[[1, 2], [3, 4]]]}");
+        ComputationNode root = new InputParser().parse(input.toString());
+        assertEquals(ComputationNodeType.POW, root.getNodeType());
+        assertEquals(5, root.getPower());
+    }
+
+    @Test
+    void parserRejectsANegativeOrMissingPower() throws IOException {
+        Path input = directory.resolve("input.json");
+        for (String power : new String[]{"\"power\": -1, ", "\"power\": 2.5, ", "\"power\": \"2\", ", ""}) {
+            Files.writeString(input, "{\"operator\": \"^\", " + power + "\"operands\": [[[1, 2], [3, 4]]]}");
+            ParseException e = assertThrows(ParseException.class, () -> new InputParser().parse(input.toString()), power);
+            assertTrue(e.getMessage().contains("power"), e.getMessage());
+        }
+    }
+}
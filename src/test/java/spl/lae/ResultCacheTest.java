@@ -0,0 +1,148 @@
+package spl.lae;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import memory.SharedMatrix;
+import memory.SparseMatrix;
+import parser.BinaryMatrixFile;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+class ResultCacheTest {
+
+    private static final long ENTRY_BYTES = 32 + 10 * 10 * Double.BYTES; // a 10x10 matrix file
+
+    @TempDir
+    Path directory;
+
+    private static SharedMatrix filled(int rows, int cols, double value) {
+        double[][] values = new double[rows][cols];
+        for (double[] row : values) {
+            Arrays.fill(row, value);
+        }
+        return new SharedMatrix(values);
+    }
+
+    private Path entry(String key) {
+        return directory.resolve(key + BinaryMatrixFile.EXTENSION);
+    }
+
+    private void setLastUsed(String key, Duration ago) throws IOException {
+        Files.setLastModifiedTime(entry(key), FileTime.from(Instant.now().minus(ago)));
+    }
+
+    private List<Path> entries() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(BinaryMatrixFile.EXTENSION)).toList();
+        }
+    }
+
+    // An engine whose cache stores every subexpression, created while the properties it reads are set
+    private LinearAlgebraEngine engine(String multiply) {
+        System.setProperty(ResultCache.DIRECTORY_PROPERTY, directory.toString());
+        System.setProperty(ResultCache.MIN_COST_PROPERTY, "0");
+        System.setProperty(LinearAlgebraEngine.MULTIPLY_PROPERTY, multiply);
+        try {
+            return new LinearAlgebraEngine(2);
+        } finally {
+            System.clearProperty(ResultCache.DIRECTORY_PROPERTY);
+            System.clearProperty(ResultCache.MIN_COST_PROPERTY);
+            System.clearProperty(LinearAlgebraEngine.MULTIPLY_PROPERTY);
+        }
+    }
+
+    private static ComputationNode product(double a, double b) {
+        return new ComputationNode(ComputationNodeType.MULTIPLY, new ArrayList<>(List.of(
+                new ComputationNode(filled(20, 20, a).readRowMajor()), new ComputationNode(filled(20, 20, b).readRowMajor()))));
+    }
+
+    @Test
+    void storedResultsLoadBack() throws IOException {
+        ResultCache cache = new ResultCache(directory, 1 << 20, 0);
+        assertNull(cache.load("missing"));
+        SharedMatrix matrix = new SharedMatrix(new double[][]{{1, -2}, {0.5, -0.0}});
+        cache.store("key", matrix);
+        assertTrue(cache.load("key").contentEquals(matrix));
+    }
+
+    @Test
+    void unreadableEntriesAreDropped() throws IOException {
+        ResultCache cache = new ResultCache(directory, 1 << 20, 0);
+        Files.writeString(entry("broken"), "not a matrix");
+        assertNull(cache.load("broken"));
+        assertFalse(Files.exists(entry("broken")));
+    }
+
+    @Test
+    void keysSeparateWhatComputesDifferently() {
+        List<String> children = List.of("left", "right");
+        String classic = ResultCache.operatorKey(ComputationNodeType.MULTIPLY, 0, "classic", children);
+        assertNotEquals(classic, ResultCache.operatorKey(ComputationNodeType.MULTIPLY, 0, "strassen-16", children));
+        assertNotEquals(ResultCache.operatorKey(ComputationNodeType.MULTIPLY, 0, "strassen-16", children),
+                ResultCache.operatorKey(ComputationNodeType.MULTIPLY, 0, "strassen-32", children), "crossover");
+        assertNotEquals(classic, ResultCache.operatorKey(ComputationNodeType.MULTIPLY, 0, "classic", List.of("right", "left")));
+        assertNotEquals(ResultCache.operatorKey(ComputationNodeType.POW, 2, "classic", List.of("left")),
+                ResultCache.operatorKey(ComputationNodeType.POW, 3, "classic", List.of("left")));
+        assertEquals(ResultCache.operatorKey(ComputationNodeType.ADD, 0, "classic", children),
+                ResultCache.operatorKey(ComputationNodeType.ADD, 0, "strassen-16", children), "sums don't depend on the multiply");
+
+        double[][] values = {{1, 0}, {0, 2}};
+        ComputationNode dense = new ComputationNode(values);
+        assertEquals(ResultCache.leafKey(dense), ResultCache.leafKey(new ComputationNode(new double[][]{{1, 0}, {0, 2}})));
+        ComputationNode sparse = new ComputationNode(SparseMatrix.fromEntries(2, 2, new int[]{0, 1}, new int[]{0, 1}, new double[]{1, 2}, 2));
+        assertNotEquals(ResultCache.leafKey(dense), ResultCache.leafKey(sparse), "storage");
+        assertNotEquals(ResultCache.leafKey(dense), ResultCache.leafKey(new ComputationNode(new double[][]{{1, 0}, {-0.0, 2}})));
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvicted() throws IOException {
+        ResultCache cache = new ResultCache(directory, 3 * ENTRY_BYTES + 100, 0);
+        SharedMatrix matrix = filled(10, 10, 1);
+        for (String key : new String[]{"a", "b", "c"}) {
+            cache.store(key, matrix);
+        }
+        assertEquals(3, entries().size(), "within the bound");
+        setLastUsed("a", Duration.ofHours(3));
+        setLastUsed("b", Duration.ofHours(2));
+        setLastUsed("c", Duration.ofHours(1));
+        assertTrue(cache.load("a").contentEquals(matrix), "a hit makes a the most recently used");
+        cache.store("d", matrix);
+        // four entries exceed the bound; eviction goes down to 90% of it, which leaves room for two
+        assertTrue(Files.exists(entry("a")));
+        assertFalse(Files.exists(entry("b")));
+        assertFalse(Files.exists(entry("c")));
+        assertTrue(Files.exists(entry("d")));
+    }
+
+    @Test
+    void engineResolvesCachedSubexpressionsPerMultiplyAlgorithm() throws IOException {
+        double[][] expected = filled(20, 20, 2 * 3 * 20).readRowMajor();
+        assertArrayEquals(expected, engine("classic").run(product(2, 3)).getMatrix());
+        List<Path> stored = entries();
+        assertEquals(1, stored.size());
+        // overwrite the entry, so a result equal to it must have come from the cache
+        BinaryMatrixFile.write(filled(20, 20, 7), stored.getFirst());
+        assertArrayEquals(filled(20, 20, 7).readRowMajor(), engine("classic").run(product(2, 3)).getMatrix());
+        assertArrayEquals(expected, engine("strassen").run(product(2, 3)).getMatrix(), "a Strassen product misses the classic entry");
+        assertEquals(2, entries().size());
+    }
+}
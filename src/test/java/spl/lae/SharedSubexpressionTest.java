@@ -0,0 +1,126 @@
+package spl.lae;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+/**
+ * Runs DAGs whose shared nodes feed consumers that modify their operands in place or recycle them, and checks the
+ * results against products and sums computed here. Elements are small integers, so every result is exact.
+ */
+class SharedSubexpressionTest {
+
+    private static double[][] random(Random random, int rows, int cols) {
+        double[][] values = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                values[i][j] = random.nextInt(5) - 2;
+            }
+        }
+        return values;
+    }
+
+    private static double[][] multiply(double[][] a, double[][] b) {
+        double[][] c = new double[a.length][b[0].length];
+        for (int i = 0; i < a.length; i++) {
+            for (int k = 0; k < b.length; k++) {
+                for (int j = 0; j < b[0].length; j++) {
+                    c[i][j] += a[i][k] * b[k][j];
+                }
+            }
+        }
+        return c;
+    }
+
+    private static double[][] scale(double[][] a, double factor) {
+        double[][] c = new double[a.length][a[0].length];
+        for (int i = 0; i < a.length; i++) {
+            for (int j = 0; j < a[0].length; j++) {
+                c[i][j] = factor * a[i][j];
+            }
+        }
+        return c;
+    }
+
+    // A fresh leaf on every call, so the engine's common subexpression elimination is what shares equal operands
+    private static ComputationNode leaf(double[][] matrix) {
+        double[][] copy = new double[matrix.length][];
+        for (int i = 0; i < matrix.length; i++) {
+            copy[i] = matrix[i].clone();
+        }
+        return new ComputationNode(copy);
+    }
+
+    private static ComputationNode node(ComputationNodeType type, ComputationNode... children) {
+        return new ComputationNode(type, new ArrayList<>(List.of(children)));
+    }
+
+    private static double[][] run(ComputationNode root) {
+        return new LinearAlgebraEngine(4).run(root).getMatrix();
+    }
+
+    private static void assertMatrixEquals(double[][] expected, double[][] actual, String message) {
+        assertEquals(expected.length, actual.length, message + ": rows");
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], message + ": row " + i);
+        }
+    }
+
+    @Test
+    void sharedLeafIsCopiedBeforeItIsNegated() {
+        double[][] a = random(new Random(1), 6, 6);
+        // A + A + (-A): the negation must not flip the A the sum is still reading
+        ComputationNode root = node(ComputationNodeType.ADD, leaf(a), leaf(a), node(ComputationNodeType.NEGATE, leaf(a)));
+        assertMatrixEquals(a, run(root), "A + A + (-A)");
+    }
+
+    @Test
+    void sharedProductFeedsInPlaceConsumers() {
+        Random random = new Random(2);
+        double[][] a = random(random, 9, 7);
+        double[][] b = random(random, 7, 9);
+        double[][] ab = multiply(a, b);
+        // AB is evaluated once and consumed by a sum, a negation and a transpose, each of which may work in place
+        ComputationNode root = node(ComputationNodeType.ADD,
+                node(ComputationNodeType.ADD, node(ComputationNodeType.MULTIPLY, leaf(a), leaf(b)), node(ComputationNodeType.MULTIPLY, leaf(a), leaf(b))),
+                node(ComputationNodeType.NEGATE, node(ComputationNodeType.MULTIPLY, leaf(a), leaf(b))),
+                node(ComputationNodeType.TRANSPOSE, node(ComputationNodeType.TRANSPOSE, node(ComputationNodeType.MULTIPLY, leaf(a), leaf(b)))));
+        assertMatrixEquals(scale(ab, 2), run(root), "AB + AB - AB + T(T(AB))");
+    }
+
+    @Test
+    void sharedOperandIsNotRecycledWhileOthersReadIt() {
+        Random random = new Random(3);
+        double[][] a = random(random, 80, 80);
+        double[][] b = random(random, 80, 80);
+        double[][] x = multiply(a, b);
+        // X = AB is read by many products running at once; the first to finish must not hand X's buffer to the pool,
+        // where a later product could take it as its output while the others still read X
+        double[][][] c = new double[12][][];
+        double[][] expected = new double[80][80];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = random(random, 80, 80);
+            double[][] xc = multiply(x, c[i]);
+            for (int r = 0; r < 80; r++) {
+                for (int s = 0; s < 80; s++) {
+                    expected[r][s] += xc[r][s];
+                }
+            }
+        }
+        for (int round = 0; round < 5; round++) {
+            ComputationNode[] products = new ComputationNode[c.length];
+            for (int i = 0; i < c.length; i++) {
+                products[i] = node(ComputationNodeType.MULTIPLY, node(ComputationNodeType.MULTIPLY, leaf(a), leaf(b)), leaf(c[i]));
+            }
+            assertMatrixEquals(expected, run(node(ComputationNodeType.ADD, products)), "sum of X C_i, round " + round);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package spl.lae;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+/**
+ * Runs products that take the engine's structured fast paths (identity, diagonal, triangular and Gram) and checks
+ * them against the product computed here. Elements are small integers, so every result is exact.
+ */
+class StructuredProductTest {
+
+    private static double[][] random(Random random, int rows, int cols) {
+        double[][] values = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                values[i][j] = random.nextInt(7) - 3;
+            }
+        }
+        return values;
+    }
+
+    private static double[][] multiply(double[][] a, double[][] b) {
+        double[][] c = new double[a.length][b[0].length];
+        for (int i = 0; i < a.length; i++) {
+            for (int k = 0; k < b.length; k++) {
+                for (int j = 0; j < b[0].length; j++) {
+                    c[i][j] += a[i][k] * b[k][j];
+                }
+            }
+        }
+        return c;
+    }
+
+    private static double[][] transpose(double[][] a) {
+        double[][] t = new double[a[0].length][a.length];
+        for (int i = 0; i < a.length; i++) {
+            for (int j = 0; j < a[0].length; j++) {
+                t[j][i] = a[i][j];
+            }
+        }
+        return t;
+    }
+
+    private static double[][] identity(int n) {
+        double[][] values = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            values[i][i] = 1;
+        }
+        return values;
+    }
+
+    private static ComputationNode leaf(double[][] matrix) {
+        double[][] copy = new double[matrix.length][];
+        for (int i = 0; i < matrix.length; i++) {
+            copy[i] = matrix[i].clone();
+        }
+        return new ComputationNode(copy);
+    }
+
+    private static ComputationNode node(ComputationNodeType type, ComputationNode... children) {
+        return new ComputationNode(type, new ArrayList<>(List.of(children)));
+    }
+
+    private static double[][] run(ComputationNode root) {
+        return new LinearAlgebraEngine(4).run(root).getMatrix();
+    }
+
+    private static void assertMatrixEquals(double[][] expected, double[][] actual, String message) {
+        assertEquals(expected.length, actual.length, message + ": rows");
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], message + ": row " + i);
+        }
+    }
+
+    @Test
+    void identityProductsReturnTheOtherOperand() {
+        double[][] a = random(new Random(1), 6, 4);
+        assertMatrixEquals(a, run(node(ComputationNodeType.MULTIPLY, leaf(identity(6)), leaf(a))), "I A");
+        assertMatrixEquals(a, run(node(ComputationNodeType.MULTIPLY, leaf(a), leaf(identity(4)))), "A I");
+    }
+
+    @Test
+    void identityProductOfASharedOperandIsACopy() {
+        double[][] a = random(new Random(2), 5, 5);
+        // N = -A feeds the product and the sum: if I N were N itself, negating it would also flip the sum's N
+        ComputationNode shared = node(ComputationNodeType.NEGATE, leaf(a));
+        ComputationNode root = node(ComputationNodeType.ADD,
+                node(ComputationNodeType.NEGATE, node(ComputationNodeType.MULTIPLY, leaf(identity(5)), shared)), shared);
+        assertMatrixEquals(new double[5][5], run(root), "-(I N) + N");
+    }
+
+    @Test
+    void diagonalAndTriangularProductsMatchTheGeneralProduct() {
+        Random random = new Random(3);
+        int n = 30;
+        double[][] diagonal = new double[n][n];
+        double[][] lower = random(random, n, n);
+        double[][] upper = random(random, n, n);
+        for (int i = 0; i < n; i++) {
+            diagonal[i][i] = random.nextInt(7) - 3;
+            for (int j = 0; j < n; j++) {
+                if (j > i) {
+                    lower[i][j] = 0;
+                } else if (j < i) {
+                    upper[i][j] = 0;
+                }
+            }
+        }
+        double[][] b = random(random, n, n);
+        assertMatrixEquals(multiply(diagonal, b), run(node(ComputationNodeType.MULTIPLY, leaf(diagonal), leaf(b))), "D B");
+        assertMatrixEquals(multiply(b, diagonal), run(node(ComputationNodeType.MULTIPLY, leaf(b), leaf(diagonal))), "B D");
+        assertMatrixEquals(multiply(lower, b), run(node(ComputationNodeType.MULTIPLY, leaf(lower), leaf(b))), "L B");
+        assertMatrixEquals(multiply(b, upper), run(node(ComputationNodeType.MULTIPLY, leaf(b), leaf(upper))), "B U");
+        assertMatrixEquals(multiply(lower, upper), run(node(ComputationNodeType.MULTIPLY, leaf(lower), leaf(upper))), "L U");
+    }
+
+    @Test
+    void gramProductsMatchTheGeneralProduct() {
+        double[][] a = random(new Random(4), 33, 21);
+        ComputationNode root = node(ComputationNodeType.MULTIPLY, leaf(a), node(ComputationNodeType.TRANSPOSE, leaf(a)));
+        assertNotNull(LinearAlgebraEngine.plan(root).gram(root), "planned as a Gram product");
+        assertMatrixEquals(multiply(a, transpose(a)), run(root), "A T(A)");
+        root = node(ComputationNodeType.MULTIPLY, node(ComputationNodeType.TRANSPOSE, leaf(a)), leaf(a));
+        assertMatrixEquals(multiply(transpose(a), a), run(root), "T(A) A");
+    }
+}